@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the rate at which rows can be inserted into the weather table using
+ * SQLiteDatabase.insert for every row, as WeatherProvider used to, against the compiled
+ * INSERT OR REPLACE statement it uses now. Both paths insert all of their rows in a single
+ * transaction.
+ * <p>
+ * The old path reuses one ContentValues for every row, so that creating 100,000 of them isn't
+ * part of what's measured (and doesn't run the test out of memory). That makes it a little
+ * faster than it was in the provider.
+ * <p>
+ * The results are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertBenchmark {
+
+    private static final String TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+        clearWeatherTable();
+    }
+
+    @After
+    public void tearDown() {
+        clearWeatherTable();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmarkFourteenRows() {
+        compareInsertPaths(14);
+    }
+
+    @Test
+    public void benchmarkThousandRows() {
+        compareInsertPaths(1000);
+    }
+
+    @Test
+    public void benchmarkHundredThousandRows() {
+        compareInsertPaths(100000);
+    }
+
+    private void compareInsertPaths(int rows) {
+        ForecastBatch batch = TestUtilities.createTestForecastBatch(rows);
+
+        clearWeatherTable();
+        long contentValuesStart = System.nanoTime();
+        int contentValuesRows = insertWithContentValues(batch);
+        long contentValuesNanos = System.nanoTime() - contentValuesStart;
+
+        assertEquals("Error: SQLiteDatabase.insert didn't insert every row",
+                rows, contentValuesRows);
+
+        clearWeatherTable();
+        long statementStart = System.nanoTime();
+        int statementRows = WeatherProvider.insertForecast(mDatabase, batch);
+        long statementNanos = System.nanoTime() - statementStart;
+
+        assertEquals("Error: Compiled statement didn't insert every row", rows, statementRows);
+
+        Log.i(TAG, rows + " rows: "
+                + "SQLiteDatabase.insert " + rowsPerSecond(rows, contentValuesNanos)
+                + " rows/s, compiled statement " + rowsPerSecond(rows, statementNanos)
+                + " rows/s");
+    }
+
+    /**
+     * Inserts the batch the way WeatherProvider.bulkInsert used to.
+     */
+    private int insertWithContentValues(ForecastBatch batch) {
+        long now = System.currentTimeMillis();
+        ContentValues value = new ContentValues();
+
+        mDatabase.beginTransaction();
+        int rowsInserted = 0;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                long weatherDate = batch.getDate(i);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                value.put(WeatherContract.WeatherEntry.COLUMN_DATE, weatherDate);
+                value.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, batch.getWeatherId(i));
+                value.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, batch.getMinTemp(i));
+                value.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, batch.getMaxTemp(i));
+                value.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, batch.getHumidity(i));
+                value.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, batch.getPressure(i));
+                value.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, batch.getWindSpeed(i));
+                value.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, batch.getDegrees(i));
+                value.put(WeatherContract.WeatherEntry.COLUMN_UPDATED, now);
+
+                long _id = mDatabase.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                if (_id != -1) {
+                    rowsInserted++;
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return rows * 1000000000L / Math.max(nanos, 1);
+    }
+
+    private void clearWeatherTable() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Counts the callbacks observers receive for every kind of write to {@link WeatherProvider}.
+ * Observers of a day, like DetailActivity, should only hear about writes that touch that day.
+ * Observers of the table, like the forecast list, should hear about every write that changed
+ * something exactly once, however many days it touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestChangeNotifications {
+
+    /* The day observed by mDayObserver, and a day after it observed by mOtherDayObserver */
+    private static final int OBSERVED_DAY = 2;
+    private static final int OTHER_OBSERVED_DAY = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private final long mObservedDate = TestUtilities.DATE_NORMALIZED
+            + OBSERVED_DAY * SunshineDateUtils.DAY_IN_MILLIS;
+    private final long mOtherObservedDate = TestUtilities.DATE_NORMALIZED
+            + OTHER_OBSERVED_DAY * SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* Watches CONTENT_URI and every URI below it, like the cursor of MainActivity */
+    private TestUtilities.CountingContentObserver mTableObserver;
+    /* Watch the changes of two days, like the cursor of DetailActivity */
+    private TestUtilities.CountingContentObserver mDayObserver;
+    private TestUtilities.CountingContentObserver mOtherDayObserver;
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        mTableObserver = TestUtilities.getCountingContentObserver();
+        mDayObserver = TestUtilities.getCountingContentObserver();
+        mOtherDayObserver = TestUtilities.getCountingContentObserver();
+    }
+
+    @After
+    public void tearDown() {
+        TestUtilities.CountingContentObserver[] observers = {
+                mTableObserver, mDayObserver, mOtherDayObserver
+        };
+        for (TestUtilities.CountingContentObserver observer : observers) {
+            mContentResolver.unregisterContentObserver(observer);
+            observer.mHT.quit();
+        }
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testBulkInsertNotifiesEveryDayAndTheTableOnce() {
+        registerObservers();
+
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        assertCallbacks(1, 1, 1);
+    }
+
+    @Test
+    public void testUpdateOfOneDayOnlyNotifiesThatDay() {
+        insertTestWeather();
+        registerObservers();
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+        mContentResolver.update(WeatherContract.WeatherEntry.CONTENT_URI, values,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mObservedDate)});
+
+        assertCallbacks(1, 1, 0);
+    }
+
+    @Test
+    public void testUpdateOfDownloadTimeNotifiesNobody() {
+        insertTestWeather();
+        registerObservers();
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_UPDATED, System.currentTimeMillis());
+        mContentResolver.update(WeatherContract.WeatherEntry.CONTENT_URI, values, null, null);
+
+        assertCallbacks(0, 0, 0);
+    }
+
+    @Test
+    public void testDeleteNotifiesTheDeletedDaysAndTheTableOnce() {
+        insertTestWeather();
+        registerObservers();
+
+        /* The test weather starts on day 1, so this deletes OTHER_OBSERVED_DAY - 1 days */
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(mOtherObservedDate)});
+
+        assertCallbacks(1, 1, 0);
+    }
+
+    @Test
+    public void testDeleteOfNothingNotifiesNobody() {
+        insertTestWeather();
+        registerObservers();
+
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(TestUtilities.DATE_NORMALIZED)});
+
+        assertCallbacks(0, 0, 0);
+    }
+
+    @Test
+    public void testQueryOfADayWatchesThatDayOnly() {
+        insertTestWeather();
+
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(mObservedDate),
+                null, null, null, null);
+        assertNotNull("Error: Query for a day returned null", cursor);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            assertEquals("Error: A query of a day doesn't watch the changes of that day",
+                    WeatherContract.WeatherEntry.buildDayChangesUri(mObservedDate),
+                    getNotificationUri(cursor));
+        }
+        cursor.close();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static Uri getNotificationUri(Cursor cursor) {
+        return cursor.getNotificationUri();
+    }
+
+    private void insertTestWeather() {
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+    }
+
+    private void registerObservers() {
+        mContentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, mTableObserver);
+        mContentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildDayChangesUri(mObservedDate),
+                false, mDayObserver);
+        mContentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildDayChangesUri(mOtherObservedDate),
+                false, mOtherDayObserver);
+    }
+
+    /**
+     * Checks the number of callbacks every observer received.
+     */
+    private void assertCallbacks(int table, int day, int otherDay) {
+        assertEquals("Error: Wrong number of callbacks for an observer of the table",
+                table, mTableObserver.waitForNotifications());
+        assertEquals("Error: Wrong number of callbacks for an observer of a touched day",
+                day, mDayObserver.waitForNotifications());
+        assertEquals("Error: Wrong number of callbacks for an observer of another day",
+                otherDay, mOtherDayObserver.waitForNotifications());
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * A harness for the migrations of {@link WeatherDbHelper}. Each test creates weather.db with the
+ * schema an older version of the app shipped, stores weather in it, and then opens it with the
+ * current WeatherDbHelper, which upgrades it.
+ * <p>
+ * The schemas below are copies of what each version created, and must never change once that
+ * version has shipped. When DATABASE_VERSION is bumped, add the schema of the version before it
+ * to {@link #createSchema(SQLiteDatabase, int)} and a test that migrates from it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestDatabaseMigrations {
+
+    static final String WEATHER_TABLE_V3 = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "date INTEGER NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "humidity REAL NOT NULL, "
+            + "pressure REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + " UNIQUE (date) ON CONFLICT REPLACE);";
+
+    static final String WEATHER_TABLE_V4 = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "date INTEGER NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "humidity REAL NOT NULL, "
+            + "pressure REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + "updated INTEGER NOT NULL DEFAULT 0, "
+            + " UNIQUE (date) ON CONFLICT REPLACE);";
+
+    static final String WEATHER_TABLE_V5 = "CREATE TABLE weather ("
+            + "date INTEGER PRIMARY KEY ON CONFLICT REPLACE, "
+            + "weather_id INTEGER NOT NULL, "
+            + "min INTEGER NOT NULL, "
+            + "max INTEGER NOT NULL, "
+            + "humidity INTEGER NOT NULL, "
+            + "pressure INTEGER NOT NULL, "
+            + "wind INTEGER NOT NULL, "
+            + "degrees INTEGER NOT NULL, "
+            + "updated INTEGER NOT NULL DEFAULT 0);";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void testMigrateFrom3KeepsWeather() {
+        ContentValues[] weather = createBulkInsertTestWeatherValues();
+        createDatabase(3, weather);
+
+        /* Days stored before version 4 were never downloaded as far as it knows */
+        for (ContentValues values : weather) {
+            values.put(WeatherContract.WeatherEntry.COLUMN_UPDATED, 0);
+        }
+        assertMigratedWeather(3, weather);
+    }
+
+    @Test
+    public void testMigrateFrom4KeepsWeather() {
+        ContentValues[] weather = createBulkInsertTestWeatherValues();
+        for (int i = 0; i < weather.length; i++) {
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_UPDATED,
+                    TestUtilities.DATE_NORMALIZED + i);
+        }
+        createDatabase(4, weather);
+
+        assertMigratedWeather(4, weather);
+    }
+
+    @Test
+    public void testMigrateFrom5KeepsWeather() {
+        ContentValues[] weather = createBulkInsertTestWeatherValues();
+        for (int i = 0; i < weather.length; i++) {
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_UPDATED,
+                    TestUtilities.DATE_NORMALIZED + i);
+        }
+        createDatabase(5, weather);
+
+        assertMigratedWeather(5, weather);
+    }
+
+    @Test
+    public void testMigratedSchemaMatchesNewSchema() {
+        String[] tables = {
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherContract.RollupEntry.TABLE_WEEKS,
+                WeatherContract.RollupEntry.TABLE_MONTHS
+        };
+
+        createDatabase(3, new ContentValues[0]);
+        SQLiteDatabase migrated = openWithCurrentVersion();
+        List<List<String>> migratedColumns = new ArrayList<List<String>>();
+        for (String table : tables) {
+            migratedColumns.add(getColumns(migrated, table));
+        }
+        migrated.close();
+
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        SQLiteDatabase created = openWithCurrentVersion();
+        List<List<String>> createdColumns = new ArrayList<List<String>>();
+        for (String table : tables) {
+            createdColumns.add(getColumns(created, table));
+        }
+        created.close();
+
+        assertEquals("Error: A migrated database doesn't have the columns a new one has",
+                createdColumns, migratedColumns);
+    }
+
+    @Test
+    public void testVersionWithoutMigrationIsRecreated() {
+        /* No version before 3 can be migrated, as we don't know what it looked like */
+        createDatabase(2, createBulkInsertTestWeatherValues());
+
+        SQLiteDatabase database = openWithCurrentVersion();
+        Cursor cursor = database.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals("Error: A database that can't be migrated should be recreated empty",
+                0, cursor.getCount());
+        assertTrue("Error: A recreated database doesn't have the current columns",
+                cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_UPDATED) != -1);
+        cursor.close();
+        database.close();
+    }
+
+    /**
+     * Opens the database with the current WeatherDbHelper, and makes sure it holds the weather
+     * that was stored with an older version, in the form the current version stores it.
+     */
+    private void assertMigratedWeather(int version, ContentValues[] weather) {
+        SQLiteDatabase database = openWithCurrentVersion();
+        Cursor cursor = database.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Migration from version " + version + " lost weather",
+                weather.length, cursor.getCount());
+
+        for (ContentValues expected : weather) {
+            cursor.moveToNext();
+            TestUtilities.validateCurrentRecord(
+                    "Error: Migration from version " + version + " changed the weather",
+                    cursor, WeatherEncoding.encode(expected));
+        }
+        cursor.close();
+        database.close();
+    }
+
+    /**
+     * Creates weather.db the way a version of the app did, and stores weather in it.
+     */
+    private void createDatabase(int version, ContentValues[] weather) {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            createSchema(database, version);
+            for (ContentValues values : weather) {
+                /* From version 5 onwards, the weather is stored in hundredths */
+                database.insertOrThrow(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        version >= 5 ? WeatherEncoding.encode(values) : values);
+            }
+            database.setVersion(version);
+        } finally {
+            database.close();
+        }
+    }
+
+    private static void createSchema(SQLiteDatabase database, int version) {
+        switch (version) {
+
+            /* Version 2 is only used as a version without a migration, so any schema will do */
+            case 2:
+            case 3:
+                database.execSQL(WEATHER_TABLE_V3);
+                break;
+
+            case 4:
+                database.execSQL(WEATHER_TABLE_V4);
+                break;
+
+            case 5:
+                database.execSQL(WEATHER_TABLE_V5);
+                break;
+
+            default:
+                throw new IllegalArgumentException("No schema for version " + version);
+        }
+    }
+
+    private SQLiteDatabase openWithCurrentVersion() {
+        SQLiteDatabase database = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals("Error: Database wasn't upgraded to the current version",
+                WeatherDbHelper.DATABASE_VERSION, database.getVersion());
+        return database;
+    }
+
+    /**
+     * @return The name, type, NOT NULL constraint, default and primary key of every column of
+     * a table, in order
+     */
+    private static List<String> getColumns(SQLiteDatabase database, String table) {
+        Cursor cursor = database.rawQuery("PRAGMA table_info(" + table + ")", null);
+        List<String> columns = new ArrayList<String>();
+        try {
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(cursor.getColumnIndex("name"))
+                        + " " + cursor.getString(cursor.getColumnIndex("type"))
+                        + " " + cursor.getInt(cursor.getColumnIndex("notnull"))
+                        + " " + cursor.getString(cursor.getColumnIndex("dflt_value"))
+                        + " " + cursor.getInt(cursor.getColumnIndex("pk")));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Makes sure that a {@link ForecastBatch} holds the same days as the ContentValues it replaces,
+ * and that inserting it through {@link WeatherProvider#call} stores the same rows as bulkInsert.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastBatch {
+
+    /* The columns a batch holds, compared as numbers as some of them are stored as floats */
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final double DELTA = 1e-6;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testBatchGrowsAndConvertsToContentValues() {
+        /* Start with a capacity of 1 so the batch has to grow */
+        ContentValues[] expectedValues = createBulkInsertTestWeatherValues();
+        ForecastBatch batch = createBatch(expectedValues, 1);
+
+        assertEquals("Error: Batch doesn't hold every day that was added",
+                BULK_INSERT_RECORDS_TO_INSERT, batch.size());
+
+        ContentValues[] actualValues = batch.toContentValues();
+        for (int i = 0; i < expectedValues.length; i++) {
+            for (String column : COLUMNS) {
+                assertEquals("Error: " + column + " of day " + i
+                                + " changed converting the batch to ContentValues",
+                        expectedValues[i].getAsDouble(column),
+                        actualValues[i].getAsDouble(column),
+                        DELTA);
+            }
+        }
+
+        long lastDate = expectedValues[expectedValues.length - 1]
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        assertEquals("Error: indexOfDate didn't find the last day",
+                expectedValues.length - 1, batch.indexOfDate(lastDate));
+        assertEquals("Error: indexOfDate found a day that isn't in the batch",
+                -1, batch.indexOfDate(lastDate + SunshineDateUtils.DAY_IN_MILLIS));
+    }
+
+    @Test
+    public void testBatchSurvivesBundle() {
+        ContentValues[] expectedValues = createBulkInsertTestWeatherValues();
+        ForecastBatch batch = createBatch(expectedValues, expectedValues.length);
+        batch.setUpdated(TestUtilities.DATE_NORMALIZED);
+
+        ForecastBatch restored = ForecastBatch.fromBundle(batch.toBundle());
+
+        assertEquals("Error: Batch lost days in a Bundle", batch.size(), restored.size());
+        assertEquals("Error: Batch lost its update time in a Bundle",
+                batch.getUpdated(), restored.getUpdated());
+
+        ContentValues[] batchValues = batch.toContentValues();
+        ContentValues[] actualValues = restored.toContentValues();
+        for (int i = 0; i < expectedValues.length; i++) {
+            assertEquals("Error: Day " + i + " changed in a Bundle",
+                    batchValues[i], actualValues[i]);
+        }
+    }
+
+    @Test
+    public void testInsertForecastMatchesBulkInsert() {
+        ContentValues[] expectedValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_INSERT_FORECAST,
+                null,
+                createBatch(expectedValues, expectedValues.length).toBundle());
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertNotNull("Error: " + WeatherContract.METHOD_INSERT_FORECAST + " returned no result",
+                result);
+        assertEquals("Error: Number of rows inserted from the batch is wrong",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.EXTRA_ROWS_INSERTED));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Error: Query for the inserted batch returned null", cursor);
+        assertEquals("Error: Database doesn't hold every day of the batch",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        int updatedIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_UPDATED);
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            cursor.moveToPosition(i);
+            for (String column : COLUMNS) {
+                assertEquals("Error: " + column + " of WeatherEntry " + i
+                                + " doesn't match the batch",
+                        expectedValues[i].getAsDouble(column),
+                        cursor.getDouble(cursor.getColumnIndex(column)),
+                        DELTA);
+            }
+            assertTrue("Error: Row inserted from a batch wasn't stamped with its update time",
+                    cursor.getLong(updatedIndex) > 0);
+        }
+        cursor.close();
+    }
+
+    private static ForecastBatch createBatch(ContentValues[] values, int capacity) {
+        ForecastBatch batch = new ForecastBatch(capacity);
+        for (ContentValues value : values) {
+            batch.add(
+                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.FIRST_DATE;
+import static com.example.android.sunshine.data.TestUtilities.insertBulkTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Makes sure that ForecastDao reads back what was inserted through WeatherProvider, decoded the
+ * same way the provider's queries decode it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastDao {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private ContentValues[] mInserted;
+    private ForecastDao mForecastDao;
+
+    @Before
+    public void setUp() {
+        mInserted = insertBulkTestWeatherValues(mContentResolver);
+        mForecastDao = new ForecastDao(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testQueryForecast() {
+        ForecastBatch forecast = mForecastDao.queryForecast(FIRST_DATE,
+                BULK_INSERT_RECORDS_TO_INSERT);
+
+        assertEquals("Error: ForecastDao didn't read every day",
+                BULK_INSERT_RECORDS_TO_INSERT, forecast.size());
+        for (int i = 0; i < forecast.size(); i++) {
+            assertDay("Error: Day " + i + " of the forecast", mInserted[i], forecast, i);
+        }
+    }
+
+    @Test
+    public void testQueryForecastLimit() {
+        ForecastBatch forecast = mForecastDao.queryForecast(dayOf(2), 3);
+
+        assertEquals("Error: ForecastDao ignored the limit", 3, forecast.size());
+        assertEquals("Error: ForecastDao started on the wrong day",
+                dayOf(2), forecast.getDate(0));
+    }
+
+    @Test
+    public void testQueryDay() {
+        ForecastBatch day = mForecastDao.queryDay(dayOf(4));
+
+        assertEquals("Error: ForecastDao should have read exactly one day", 1, day.size());
+        assertDay("Error: Day 4", mInserted[4], day, 0);
+
+        assertTrue("Error: ForecastDao read a day that isn't in the database",
+                mForecastDao.queryDay(dayOf(BULK_INSERT_RECORDS_TO_INSERT)).isEmpty());
+    }
+
+    @Test
+    public void testQueryPage() {
+        /* A page starts after the last day of the page before it */
+        ForecastBatch page = mForecastDao.queryPage(dayOf(6), BULK_INSERT_RECORDS_TO_INSERT);
+
+        assertEquals("Error: Wrong number of days on the last page",
+                BULK_INSERT_RECORDS_TO_INSERT - 7, page.size());
+        assertEquals("Error: The page should start the day after its key",
+                dayOf(7), page.getDate(0));
+    }
+
+    @Test
+    public void testHasForecastFrom() {
+        assertTrue("Error: ForecastDao didn't find the forecast",
+                mForecastDao.hasForecastFrom(dayOf(BULK_INSERT_RECORDS_TO_INSERT - 1)));
+        assertFalse("Error: ForecastDao found weather after the last day",
+                mForecastDao.hasForecastFrom(dayOf(BULK_INSERT_RECORDS_TO_INSERT)));
+    }
+
+    @Test
+    public void testReadsWritesThroughProvider() {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        mContentResolver.update(WeatherContract.WeatherEntry.CONTENT_URI, values,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(dayOf(1))});
+
+        assertEquals("Error: ForecastDao didn't see an update made through WeatherProvider",
+                99.5, mForecastDao.queryDay(dayOf(1)).getMaxTemp(0));
+    }
+
+    private static long dayOf(int index) {
+        return FIRST_DATE + index * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    private static void assertDay(String error, ContentValues expected, ForecastBatch batch,
+                                  int index) {
+        assertEquals(error + " has the wrong date",
+                (long) expected.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                batch.getDate(index));
+        assertEquals(error + " has the wrong weather ID",
+                (int) expected.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                batch.getWeatherId(index));
+        assertEquals(error + " has the wrong min temperature",
+                expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                batch.getMinTemp(index));
+        assertEquals(error + " has the wrong max temperature",
+                expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                batch.getMaxTemp(index));
+        assertEquals(error + " has the wrong humidity",
+                expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                batch.getHumidity(index));
+        assertEquals(error + " has the wrong pressure",
+                expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                batch.getPressure(index));
+        assertEquals(error + " has the wrong wind speed",
+                expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                batch.getWindSpeed(index));
+        assertEquals(error + " has the wrong wind direction",
+                expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES),
+                batch.getDegrees(index));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.FIRST_DATE;
+import static com.example.android.sunshine.data.TestUtilities.insertBulkTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Makes sure that {@link WeatherContract#METHOD_GET_FORECAST_PACKED} returns the same weather a
+ * query does, as a ForecastBatch.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastPacked {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private ContentValues[] mInserted;
+
+    @Before
+    public void setUp() {
+        mInserted = insertBulkTestWeatherValues(mContentResolver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testWholeForecast() {
+        ForecastBatch forecast = getForecastPacked(FIRST_DATE, BULK_INSERT_RECORDS_TO_INSERT);
+
+        assertEquals("Error: " + WeatherContract.METHOD_GET_FORECAST_PACKED
+                + " didn't return every day", BULK_INSERT_RECORDS_TO_INSERT, forecast.size());
+        for (int i = 0; i < forecast.size(); i++) {
+            ContentValues expected = mInserted[i];
+            String error = "Error: Day " + i + " of the packed forecast";
+            assertEquals(error + " has the wrong date",
+                    (long) expected.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    forecast.getDate(i));
+            assertEquals(error + " has the wrong weather ID",
+                    (int) expected.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    forecast.getWeatherId(i));
+            assertEquals(error + " has the wrong max temperature",
+                    expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    forecast.getMaxTemp(i));
+            assertEquals(error + " has the wrong min temperature",
+                    expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                    forecast.getMinTemp(i));
+            assertEquals(error + " has the wrong pressure",
+                    expected.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                    forecast.getPressure(i));
+        }
+    }
+
+    @Test
+    public void testStartAndCount() {
+        long startDate = FIRST_DATE + 3 * SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* The middle of a day asks for that whole day */
+        ForecastBatch forecast = getForecastPacked(
+                startDate + SunshineDateUtils.DAY_IN_MILLIS / 2, 4);
+
+        assertEquals("Error: The packed forecast ignored the count", 4, forecast.size());
+        assertEquals("Error: The packed forecast started on the wrong day",
+                startDate, forecast.getDate(0));
+    }
+
+    @Test
+    public void testPastTheEnd() {
+        long afterLastDay = FIRST_DATE
+                + BULK_INSERT_RECORDS_TO_INSERT * SunshineDateUtils.DAY_IN_MILLIS;
+        assertTrue("Error: The packed forecast held days that aren't in the database",
+                getForecastPacked(afterLastDay, 7).isEmpty());
+    }
+
+    @Test
+    public void testCountMustBePositive() {
+        try {
+            getForecastPacked(FIRST_DATE, 0);
+            fail("Error: " + WeatherContract.METHOD_GET_FORECAST_PACKED
+                    + " should reject a count of 0");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+
+    @Test
+    public void testStartDateIsRequired() {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_COUNT, 1);
+        try {
+            mContentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_GET_FORECAST_PACKED, null, extras);
+            fail("Error: " + WeatherContract.METHOD_GET_FORECAST_PACKED
+                    + " should need a start date");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+
+    private ForecastBatch getForecastPacked(long startDate, int count) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_START_DATE, startDate);
+        extras.putInt(WeatherContract.EXTRA_COUNT, count);
+        return ForecastBatch.fromBundle(mContentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST_PACKED, null, extras));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Compares the ways the forecast can be read: a ContentResolver query, the way the app used to,
+ * {@link WeatherContract#METHOD_GET_FORECAST_PACKED}, and ForecastDao. Every path ends up with
+ * the same ForecastBatch.
+ * <p>
+ * The query is measured twice: once with a projection WeatherProvider caches, so every query
+ * after the first is answered from its cache, and once without a projection, so every query
+ * reads the database. For each path, the time and the number of objects allocated per read are
+ * written to logcat under the tag of this class, along with how they compare with the uncached
+ * query.
+ * <p>
+ * {@link WeatherContract#METHOD_GET_FORECAST_PACKED} and ForecastDao both still read the days
+ * through a Cursor, which fills a CursorWindow and takes a getter call per column of every row.
+ * What they save over the query is the caller's Cursor, its window and the Binder traffic behind
+ * it (for the method), or the provider altogether (for the DAO): the reads on the provider's side
+ * are the same.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastReadBenchmark {
+
+    private static final String TAG = TestForecastReadBenchmark.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int WARM_UP_ITERATIONS = 50;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    /* The ways to read the forecast */
+    private static final int PATH_QUERY_CACHED = 0;
+    private static final int PATH_QUERY = 1;
+    private static final int PATH_PACKED = 2;
+    private static final int PATH_DAO = 3;
+
+    /* The columns of a ForecastBatch */
+    private static final String[] BATCH_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private ForecastDao mForecastDao;
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        ForecastBatch forecast = new ForecastBatch(FORECAST_DAYS);
+        long date = TestUtilities.DATE_NORMALIZED;
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            forecast.add(date, 321, 65 - i, 75 + i, 1.2, 1.3, 5.5, 1.1);
+            date += SunshineDateUtils.DAY_IN_MILLIS;
+        }
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                forecast.toContentValues());
+        mForecastDao = new ForecastDao(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void benchmarkForecast() {
+        compareReadPaths("forecast", FORECAST_DAYS);
+    }
+
+    @Test
+    public void benchmarkSingleDay() {
+        compareReadPaths("single day", 1);
+    }
+
+    private void compareReadPaths(String name, int days) {
+        for (int path = PATH_QUERY_CACHED; path <= PATH_DAO; path++) {
+            assertEquals("Error: Path " + path + " read the wrong number of days",
+                    days, read(path, days).size());
+        }
+
+        long[] query = measure(PATH_QUERY, days);
+        Log.i(TAG, name + ": "
+                + "query (uncached) " + format(query, query) + ", "
+                + "query (cached) " + format(measure(PATH_QUERY_CACHED, days), query) + ", "
+                + WeatherContract.METHOD_GET_FORECAST_PACKED + " "
+                + format(measure(PATH_PACKED, days), query) + ", "
+                + "ForecastDao " + format(measure(PATH_DAO, days), query));
+    }
+
+    /**
+     * @param result   The time and the allocations per read of a path
+     * @param baseline The time and the allocations per read of the uncached query
+     * @return Both, and how they compare with the uncached query, formatted for the log
+     */
+    private static String format(long[] result, long[] baseline) {
+        return result[0] + " us/read (" + percentOf(result[0], baseline[0]) + "% of query), "
+                + result[1] + " objects/read (" + percentOf(result[1], baseline[1])
+                + "% of query)";
+    }
+
+    private static long percentOf(long value, long baseline) {
+        return baseline == 0 ? 0 : value * 100 / baseline;
+    }
+
+    /**
+     * @param path One of the PATH constants
+     * @param days The number of days to read
+     * @return The time in microseconds and the number of objects allocated, per read
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measure(int path, int days) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            read(path, days);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            read(path, days);
+        }
+        long nanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        return new long[]{nanos / MEASURED_ITERATIONS / 1000,
+                Debug.getThreadAllocCount() / MEASURED_ITERATIONS};
+    }
+
+    private ForecastBatch read(int path, int days) {
+        switch (path) {
+            case PATH_QUERY_CACHED:
+                return queryContentResolver(days, BATCH_PROJECTION);
+            case PATH_QUERY:
+                return queryContentResolver(days, null);
+            case PATH_PACKED:
+                return getForecastPacked(days);
+            default:
+                return queryDao(days);
+        }
+    }
+
+    private ForecastBatch getForecastPacked(int days) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_START_DATE, TestUtilities.DATE_NORMALIZED);
+        extras.putInt(WeatherContract.EXTRA_COUNT, days);
+        return ForecastBatch.fromBundle(mContentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_FORECAST_PACKED, null, extras));
+    }
+
+    private ForecastBatch queryDao(int days) {
+        return mForecastDao.queryForecast(TestUtilities.DATE_NORMALIZED, days);
+    }
+
+    /**
+     * Copies the days into a batch the way callers of the ContentResolver used to.
+     */
+    private ForecastBatch queryContentResolver(int days, String[] projection) {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherWithStartDate(
+                TestUtilities.DATE_NORMALIZED, days);
+        Cursor cursor = mContentResolver.query(uri, projection, null, null, null);
+        assertNotNull("Error: ContentResolver query returned null", cursor);
+        try {
+            int date = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            int weatherId = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            int minTemp = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+            int maxTemp = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            int humidity = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+            int pressure = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+            int windSpeed = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+            int degrees = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+
+            ForecastBatch batch = new ForecastBatch(cursor.getCount());
+            while (cursor.moveToNext()) {
+                batch.add(cursor.getLong(date), cursor.getInt(weatherId),
+                        cursor.getDouble(minTemp), cursor.getDouble(maxTemp),
+                        cursor.getDouble(humidity), cursor.getDouble(pressure),
+                        cursor.getDouble(windSpeed), cursor.getDouble(degrees));
+            }
+            return batch;
+        } finally {
+            cursor.close();
+        }
+    }
+}
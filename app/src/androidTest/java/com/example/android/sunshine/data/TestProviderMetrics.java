@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Makes sure that WeatherProvider records the timings of its operations in ProviderMetrics, and
+ * that they can be read from {@link WeatherContract.MetricsEntry#CONTENT_URI}. The tests run in
+ * a debuggable build, so the metrics are available.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestProviderMetrics {
+
+    /* Recording has to cost less than this per operation when it is off */
+    private static final long MAX_DISABLED_NANOS = 1000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        setMetricsEnabled(true);
+        mContentResolver.call(WeatherContract.MetricsEntry.CONTENT_URI,
+                WeatherContract.METHOD_RESET_METRICS, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        setMetricsEnabled(true);
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testBulkInsertIsRecorded() {
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        Cursor metrics = queryMetrics("bulkInsert", WeatherContract.PATH_WEATHER);
+        assertEquals("Error: The bulkInsert wasn't counted", 1, getLong(metrics,
+                WeatherContract.MetricsEntry.COLUMN_COUNT));
+        assertEquals("Error: The rows of the bulkInsert weren't counted",
+                BULK_INSERT_RECORDS_TO_INSERT, getLong(metrics,
+                        WeatherContract.MetricsEntry.COLUMN_ROWS));
+        assertEquals("Error: The transaction of the bulkInsert wasn't counted", 1, getLong(metrics,
+                WeatherContract.MetricsEntry.COLUMN_TRANSACTIONS));
+        assertTrue("Error: The slowest bulkInsert was faster than its mean",
+                getLong(metrics, WeatherContract.MetricsEntry.COLUMN_MAX_MICROS)
+                        >= getLong(metrics, WeatherContract.MetricsEntry.COLUMN_MEAN_MICROS));
+        metrics.close();
+    }
+
+    @Test
+    public void testQueriesAreRecordedByUri() {
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        Cursor weather = mContentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull("Error: Weather query returned null", weather);
+        weather.close();
+        Cursor day = mContentResolver.query(WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                TestUtilities.DATE_NORMALIZED), null, null, null, null);
+        assertNotNull("Error: Query for a day returned null", day);
+        day.close();
+
+        Cursor metrics = queryMetrics("query", WeatherContract.PATH_WEATHER);
+        assertEquals("Error: The rows the query read weren't counted",
+                BULK_INSERT_RECORDS_TO_INSERT, getLong(metrics,
+                        WeatherContract.MetricsEntry.COLUMN_ROWS));
+        metrics.close();
+
+        metrics = queryMetrics("query", WeatherContract.PATH_WEATHER + "/#");
+        assertEquals("Error: The query for a day wasn't counted separately", 1, getLong(metrics,
+                WeatherContract.MetricsEntry.COLUMN_COUNT));
+        metrics.close();
+    }
+
+    @Test
+    public void testNothingIsRecordedWhenDisabled() {
+        setMetricsEnabled(false);
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        assertNull("Error: An operation was recorded while recording was off",
+                queryMetrics("bulkInsert", WeatherContract.PATH_WEATHER));
+    }
+
+    @Test
+    public void testDisabledOverhead() {
+        setMetricsEnabled(false);
+
+        int iterations = 1000000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long operationStart = ProviderMetrics.start();
+            ProviderMetrics.end(ProviderMetrics.OPERATION_DELETE, WeatherProvider.CODE_WEATHER,
+                    operationStart, 1);
+        }
+        long nanosPerOperation = (System.nanoTime() - start) / iterations;
+
+        assertTrue("Error: Recording costs " + nanosPerOperation
+                        + "ns per operation while it is off",
+                nanosPerOperation < MAX_DISABLED_NANOS);
+    }
+
+    @Test
+    public void testDump() {
+        mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        StringWriter dump = new StringWriter();
+        ProviderMetrics.dump(new PrintWriter(dump));
+        assertTrue("Error: The dump doesn't hold the bulkInsert: " + dump,
+                dump.toString().contains("bulkInsert " + WeatherContract.PATH_WEATHER));
+    }
+
+    private void setMetricsEnabled(boolean enabled) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(WeatherContract.EXTRA_METRICS_ENABLED, enabled);
+        mContentResolver.call(WeatherContract.MetricsEntry.CONTENT_URI,
+                WeatherContract.METHOD_SET_METRICS_ENABLED, null, extras);
+    }
+
+    /**
+     * @return The Cursor, moved to the row of the operation and URI, or null if there is none
+     */
+    private Cursor queryMetrics(String operation, String uri) {
+        Cursor cursor = mContentResolver.query(WeatherContract.MetricsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull("Error: Metrics query returned null", cursor);
+        while (cursor.moveToNext()) {
+            if (operation.equals(cursor.getString(cursor.getColumnIndex(
+                    WeatherContract.MetricsEntry.COLUMN_OPERATION)))
+                    && uri.equals(cursor.getString(cursor.getColumnIndex(
+                    WeatherContract.MetricsEntry.COLUMN_URI)))) {
+                return cursor;
+            }
+        }
+        cursor.close();
+        return null;
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        assertNotNull("Error: No metrics for the operation", cursor);
+        return cursor.getLong(cursor.getColumnIndex(column));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how long the query the forecast list runs takes while a sync is writing, the way
+ * CursorLoaders, NotificationUtils and WearableDataService read while SunshineSyncTask writes.
+ * <p>
+ * A writer thread keeps replacing a large forecast, each time in one long transaction, while
+ * this thread queries the forecast from today over and over. The 50th, 95th and 99th percentile
+ * latencies of those queries are compared with the same queries when nothing is writing. The
+ * results are written to logcat under the tag of this class.
+ * <p>
+ * With write-ahead logging, the queries don't have to wait for the transactions. That is
+ * checked by counting the queries that started and finished inside one of them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestReadWriteContention {
+
+    private static final String TAG = TestReadWriteContention.class.getSimpleName();
+
+    /* Large enough that every transaction of the writer takes a while */
+    private static final int WRITER_ROWS = 20000;
+
+    private static final int READS = 500;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    /* Odd while the writer is in a transaction, incremented as each one begins and ends */
+    private final AtomicInteger mWriterState = new AtomicInteger();
+
+    private volatile boolean mWriting;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDatabase = mDbHelper.getWritableDatabase();
+        clearWeatherTable();
+        WeatherProvider.insertForecast(mDatabase, TestUtilities.createTestForecastBatch(WRITER_ROWS));
+    }
+
+    @After
+    public void tearDown() {
+        clearWeatherTable();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmarkReadsDuringSync() throws InterruptedException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertTrue("Error: The weather database doesn't use write-ahead logging",
+                    mDatabase.isWriteAheadLoggingEnabled());
+        }
+
+        long[] idle = measureReads(null);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ForecastBatch batch = TestUtilities.createTestForecastBatch(WRITER_ROWS);
+                while (mWriting) {
+                    writeForecast(batch);
+                }
+            }
+        });
+        mWriting = true;
+        writer.start();
+        AtomicInteger readsInsideTransactions = new AtomicInteger();
+        long[] contended;
+        try {
+            contended = measureReads(readsInsideTransactions);
+        } finally {
+            mWriting = false;
+            writer.join();
+        }
+
+        Log.i(TAG, "Idle reads: " + percentiles(idle));
+        Log.i(TAG, "Reads during sync: " + percentiles(contended)
+                + ", " + readsInsideTransactions.get() + " of " + READS
+                + " inside a transaction");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertTrue("Error: No query could run while the writer was in a transaction",
+                    readsInsideTransactions.get() > 0);
+        }
+    }
+
+    /**
+     * Runs the forecast list's query READS times.
+     *
+     * @param readsInsideTransactions If not null, counts the queries that ran entirely inside
+     *                                one transaction of the writer
+     * @return The latency of every query, in nanoseconds
+     */
+    private long[] measureReads(AtomicInteger readsInsideTransactions) {
+        String[] selectionArgs = {Long.toString(TestUtilities.DATE_NORMALIZED)};
+        long[] latencies = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            int stateBefore = mWriterState.get();
+            long start = System.nanoTime();
+
+            Cursor cursor = mDatabase.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?", selectionArgs,
+                    null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC", "14");
+            cursor.getCount();
+            cursor.close();
+
+            latencies[i] = System.nanoTime() - start;
+            if (readsInsideTransactions != null
+                    && stateBefore % 2 == 1 && mWriterState.get() == stateBefore) {
+                readsInsideTransactions.incrementAndGet();
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Replaces the forecast in one transaction, like SunshineSyncTask does through the provider.
+     */
+    private void writeForecast(ForecastBatch batch) {
+        mDatabase.beginTransaction();
+        mWriterState.incrementAndGet();
+        try {
+            clearWeatherTable();
+            WeatherProvider.insertForecast(mDatabase, batch);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mWriterState.incrementAndGet();
+            mDatabase.endTransaction();
+        }
+    }
+
+    private static String percentiles(long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return "p50 " + micros(sorted, 50) + " us, p95 " + micros(sorted, 95)
+                + " us, p99 " + micros(sorted, 99) + " us";
+    }
+
+    private static long micros(long[] sorted, int percentile) {
+        int index = Math.min(sorted.length - 1, sorted.length * percentile / 100);
+        return sorted[index] / 1000;
+    }
+
+    private void clearWeatherTable() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Makes sure that {@link WeatherContract#METHOD_REPLACE_FORECAST} swaps the stored forecast for a
+ * new one in a single transaction, and that observers of the weather table are notified of it
+ * exactly once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestReplaceForecast {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private TestUtilities.CountingContentObserver mObserver;
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mObserver = TestUtilities.getCountingContentObserver();
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.unregisterContentObserver(mObserver);
+        mObserver.mHT.quit();
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testReplaceNotifiesOnce() {
+        long firstDate = TestUtilities.DATE_NORMALIZED;
+        insertForecast(createBatch(firstDate, 14, 100));
+        startCounting();
+
+        long newFirstDate = firstDate + 3 * SunshineDateUtils.DAY_IN_MILLIS;
+        Bundle result = replaceForecast(createBatch(newFirstDate, 14, 200), null);
+
+        assertEquals("Error: Replacing the forecast didn't notify observers exactly once",
+                1, waitForNotifications());
+        assertEquals("Error: Replacing the forecast didn't delete every old row",
+                14, result.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+        assertEquals("Error: Replacing the forecast didn't insert every new row",
+                14, result.getInt(WeatherContract.EXTRA_ROWS_INSERTED));
+
+        Cursor cursor = queryForecast();
+        assertEquals("Error: Table doesn't hold exactly the new forecast", 14, cursor.getCount());
+        int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int weatherIdIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: Day " + i + " of the new forecast has the wrong date",
+                    newFirstDate + i * SunshineDateUtils.DAY_IN_MILLIS, cursor.getLong(dateIndex));
+            assertEquals("Error: Day " + i + " still holds the old forecast",
+                    200, cursor.getInt(weatherIdIndex));
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testReplaceBeforeDateKeepsLaterDays() {
+        long firstDate = TestUtilities.DATE_NORMALIZED;
+        insertForecast(createBatch(firstDate, 14, 100));
+        startCounting();
+
+        /* Merges 7 new days, starting at day 10, into the stored days from day 5 onwards */
+        long keepFrom = firstDate + 5 * SunshineDateUtils.DAY_IN_MILLIS;
+        long mergeFrom = firstDate + 10 * SunshineDateUtils.DAY_IN_MILLIS;
+        Bundle result = replaceForecast(createBatch(mergeFrom, 7, 200), keepFrom);
+
+        assertEquals("Error: Merging the forecast didn't notify observers exactly once",
+                1, waitForNotifications());
+        assertEquals("Error: Merging the forecast didn't delete exactly the days before the date",
+                5, result.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+
+        Cursor cursor = queryForecast();
+        /* Days 5 to 9 are kept, days 10 to 13 are replaced and days 14 to 16 are new */
+        assertEquals("Error: Table doesn't hold the kept and the merged days",
+                12, cursor.getCount());
+        int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int weatherIdIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            long date = keepFrom + i * SunshineDateUtils.DAY_IN_MILLIS;
+            assertEquals("Error: Merged forecast has the wrong date", date,
+                    cursor.getLong(dateIndex));
+            assertEquals("Error: Day " + i + " of the merged forecast holds the wrong weather",
+                    date < mergeFrom ? 100 : 200, cursor.getInt(weatherIdIndex));
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testWriteWithoutNotifyChangeDoesNotNotify() {
+        startCounting();
+
+        Bundle extras = createBatch(TestUtilities.DATE_NORMALIZED, 7, 100).toBundle();
+        extras.putBoolean(WeatherContract.EXTRA_NOTIFY_CHANGE, false);
+        mContentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, null, extras);
+
+        assertEquals("Error: Observers were notified although the caller asked not to be",
+                0, waitForNotifications());
+    }
+
+    private void startCounting() {
+        /* Watches the URIs below CONTENT_URI too, like the forecast list's cursor */
+        mContentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+    }
+
+    private int waitForNotifications() {
+        return mObserver.waitForNotifications();
+    }
+
+    private void insertForecast(ForecastBatch batch) {
+        mContentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_INSERT_FORECAST, null, batch.toBundle());
+    }
+
+    private Bundle replaceForecast(ForecastBatch batch, Long deleteBeforeDate) {
+        Bundle extras = batch.toBundle();
+        if (deleteBeforeDate != null) {
+            extras.putLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE, deleteBeforeDate);
+        }
+        Bundle result = mContentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, null, extras);
+        assertNotNull("Error: " + WeatherContract.METHOD_REPLACE_FORECAST + " returned no result",
+                result);
+        return result;
+    }
+
+    private Cursor queryForecast() {
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull("Error: Query for the forecast returned null", cursor);
+        return cursor;
+    }
+
+    private static ForecastBatch createBatch(long firstDate, int days, int weatherId) {
+        ForecastBatch batch = new ForecastBatch(days);
+        for (int i = 0; i < days; i++) {
+            batch.add(firstDate + i * SunshineDateUtils.DAY_IN_MILLIS, weatherId,
+                    10, 20, 50, 1000, 5, 90);
+        }
+        return batch;
+    }
+}
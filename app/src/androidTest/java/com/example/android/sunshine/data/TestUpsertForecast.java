@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Makes sure that {@link WeatherContract#METHOD_UPSERT_FORECAST} only writes the days whose
+ * weather changed, and only notifies the observers of those days.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestUpsertForecast {
+
+    private static final int DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    private TestUtilities.CountingContentObserver mChangedDayObserver;
+    private TestUtilities.CountingContentObserver mUnchangedDayObserver;
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mChangedDayObserver = TestUtilities.getCountingContentObserver();
+        mUnchangedDayObserver = TestUtilities.getCountingContentObserver();
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.unregisterContentObserver(mChangedDayObserver);
+        mContentResolver.unregisterContentObserver(mUnchangedDayObserver);
+        mChangedDayObserver.mHT.quit();
+        mUnchangedDayObserver.mHT.quit();
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testIdenticalForecastWritesNothing() {
+        ForecastBatch forecast = createBatch(TestUtilities.DATE_NORMALIZED, DAYS);
+        upsertForecast(forecast, null, null);
+        long[] ids = queryIds();
+
+        mContentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, mUnchangedDayObserver);
+        Bundle result = upsertForecast(forecast, null, null);
+
+        assertEquals("Error: Unchanged days were reported as inserted",
+                0, result.getInt(WeatherContract.EXTRA_ROWS_INSERTED));
+        assertEquals("Error: Unchanged days were reported as updated",
+                0, result.getInt(WeatherContract.EXTRA_ROWS_UPDATED));
+        assertEquals("Error: Not every day was reported as unchanged",
+                DAYS, result.getInt(WeatherContract.EXTRA_ROWS_UNCHANGED));
+        assertEquals("Error: Unchanged days were reported as changed",
+                0, result.getLongArray(WeatherContract.EXTRA_CHANGED_DATES).length);
+        assertEquals("Error: Observers were notified although nothing changed",
+                0, mUnchangedDayObserver.waitForNotifications());
+        assertTrue("Error: Unchanged days were rewritten", Arrays.equals(ids, queryIds()));
+    }
+
+    @Test
+    public void testChangedDayIsUpdatedInPlaceAndNotifiedAlone() {
+        long firstDate = TestUtilities.DATE_NORMALIZED;
+        ForecastBatch forecast = createBatch(firstDate, DAYS);
+        upsertForecast(forecast, null, null);
+        long[] ids = queryIds();
+
+        int changedDay = 3;
+        long changedDate = firstDate + changedDay * SunshineDateUtils.DAY_IN_MILLIS;
+        long unchangedDate = firstDate + (changedDay + 1) * SunshineDateUtils.DAY_IN_MILLIS;
+        registerDayObserver(changedDate, mChangedDayObserver);
+        registerDayObserver(unchangedDate, mUnchangedDayObserver);
+
+        ForecastBatch changed = new ForecastBatch(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            changed.add(forecast.getDate(i), forecast.getWeatherId(i),
+                    forecast.getMinTemp(i), forecast.getMaxTemp(i) + (i == changedDay ? 1 : 0),
+                    forecast.getHumidity(i), forecast.getPressure(i),
+                    forecast.getWindSpeed(i), forecast.getDegrees(i));
+        }
+        Bundle result = upsertForecast(changed, null, null);
+
+        assertEquals("Error: Changed day wasn't reported as updated",
+                1, result.getInt(WeatherContract.EXTRA_ROWS_UPDATED));
+        assertEquals("Error: Unchanged days weren't reported as unchanged",
+                DAYS - 1, result.getInt(WeatherContract.EXTRA_ROWS_UNCHANGED));
+        assertTrue("Error: Changed dates are wrong", Arrays.equals(new long[]{changedDate},
+                result.getLongArray(WeatherContract.EXTRA_CHANGED_DATES)));
+        assertEquals("Error: Observer of the changed day wasn't notified once",
+                1, mChangedDayObserver.waitForNotifications());
+        assertEquals("Error: Observer of an unchanged day was notified",
+                0, mUnchangedDayObserver.waitForNotifications());
+        assertTrue("Error: Changed day wasn't updated in place", Arrays.equals(ids, queryIds()));
+
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(changedDate),
+                null, null, null, null);
+        assertNotNull("Error: Query for the changed day returned null", cursor);
+        assertTrue("Error: Changed day is missing", cursor.moveToFirst());
+        assertEquals("Error: Changed day holds the old weather",
+                changed.getMaxTemp(changedDay),
+                cursor.getDouble(cursor.getColumnIndex(
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)),
+                1e-6);
+        cursor.close();
+    }
+
+    @Test
+    public void testDaysOutsideTheWindowAreDeleted() {
+        long firstDate = TestUtilities.DATE_NORMALIZED;
+        upsertForecast(createBatch(firstDate, DAYS), null, null);
+
+        /* The window moves two days on: two old days fall out, two new days come in */
+        long newFirstDate = firstDate + 2 * SunshineDateUtils.DAY_IN_MILLIS;
+        ForecastBatch moved = createBatch(newFirstDate, DAYS);
+        Bundle result = upsertForecast(moved, newFirstDate, moved.getDate(DAYS - 1));
+
+        assertEquals("Error: Days that fell out of the window weren't deleted",
+                2, result.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+        assertEquals("Error: New days weren't inserted",
+                2, result.getInt(WeatherContract.EXTRA_ROWS_INSERTED));
+        assertEquals("Error: Days in both windows weren't left alone",
+                DAYS - 2, result.getInt(WeatherContract.EXTRA_ROWS_UNCHANGED));
+
+        long[] expectedChangedDates = {
+                firstDate,
+                firstDate + SunshineDateUtils.DAY_IN_MILLIS,
+                moved.getDate(DAYS - 2),
+                moved.getDate(DAYS - 1)
+        };
+        long[] changedDates = result.getLongArray(WeatherContract.EXTRA_CHANGED_DATES);
+        Arrays.sort(changedDates);
+        assertTrue("Error: Changed dates are wrong",
+                Arrays.equals(expectedChangedDates, changedDates));
+        assertEquals("Error: Table doesn't hold exactly the new window",
+                DAYS, queryIds().length);
+    }
+
+    private void registerDayObserver(long date, TestUtilities.CountingContentObserver observer) {
+        Uri uri = WeatherContract.WeatherEntry.buildDayChangesUri(date);
+        mContentResolver.registerContentObserver(uri, false, observer);
+    }
+
+    private Bundle upsertForecast(ForecastBatch batch, Long deleteBefore, Long deleteAfter) {
+        Bundle extras = batch.toBundle();
+        if (deleteBefore != null) {
+            extras.putLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE, deleteBefore);
+        }
+        if (deleteAfter != null) {
+            extras.putLong(WeatherContract.EXTRA_DELETE_AFTER_DATE, deleteAfter);
+        }
+        Bundle result = mContentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_FORECAST, null, extras);
+        assertNotNull("Error: " + WeatherContract.METHOD_UPSERT_FORECAST + " returned no result",
+                result);
+        return result;
+    }
+
+    /**
+     * @return The row IDs of the stored days, sorted by date. The row ID of a day is its date,
+     * so a day that was rewritten keeps it; whether a day was rewritten shows in the counts
+     * the upsert returns instead.
+     */
+    private long[] queryIds() {
+        Cursor cursor = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull("Error: Query for the forecast returned null", cursor);
+
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private static ForecastBatch createBatch(long firstDate, int days) {
+        ForecastBatch batch = new ForecastBatch(days);
+        for (int i = 0; i < days; i++) {
+            long date = firstDate + i * SunshineDateUtils.DAY_IN_MILLIS;
+            /* The weather depends on the date only, so moving the window keeps shared days */
+            int day = (int) (date / SunshineDateUtils.DAY_IN_MILLIS % 10);
+            batch.add(date, 800 + day, 10 + day, 20 + day, 50 + day, 1000 + day, 5, 90);
+        }
+        return batch;
+    }
+}
@@ -101,5 +101,33 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* Test that the metrics URI is matched as well */
+        assertEquals("Error: The CODE_METRICS URI was matched incorrectly.",
+                WeatherProvider.CODE_METRICS,
+                testMatcher.match(WeatherContract.MetricsEntry.CONTENT_URI));
+
+        /* Test that the history and its rollups are matched, with and without a date */
+        assertEquals("Error: The CODE_HISTORY URI was matched incorrectly.",
+                WeatherProvider.CODE_HISTORY,
+                testMatcher.match(WeatherContract.HistoryEntry.CONTENT_URI));
+        assertEquals("Error: The CODE_HISTORY_WITH_DATE URI was matched incorrectly.",
+                WeatherProvider.CODE_HISTORY_WITH_DATE,
+                testMatcher.match(WeatherContract.HistoryEntry
+                        .buildHistoryUriWithDate(TestUtilities.DATE_NORMALIZED)));
+        assertEquals("Error: The CODE_WEEK_ROLLUPS URI was matched incorrectly.",
+                WeatherProvider.CODE_WEEK_ROLLUPS,
+                testMatcher.match(WeatherContract.RollupEntry.WEEK_CONTENT_URI));
+        assertEquals("Error: The CODE_WEEK_ROLLUP_WITH_DATE URI was matched incorrectly.",
+                WeatherProvider.CODE_WEEK_ROLLUP_WITH_DATE,
+                testMatcher.match(WeatherContract.RollupEntry
+                        .buildWeekUriWithDate(TestUtilities.DATE_NORMALIZED)));
+        assertEquals("Error: The CODE_MONTH_ROLLUPS URI was matched incorrectly.",
+                WeatherProvider.CODE_MONTH_ROLLUPS,
+                testMatcher.match(WeatherContract.RollupEntry.MONTH_CONTENT_URI));
+        assertEquals("Error: The CODE_MONTH_ROLLUP_WITH_DATE URI was matched incorrectly.",
+                WeatherProvider.CODE_MONTH_ROLLUP_WITH_DATE,
+                testMatcher.match(WeatherContract.RollupEntry
+                        .buildMonthUriWithDate(TestUtilities.DATE_NORMALIZED)));
     }
 }
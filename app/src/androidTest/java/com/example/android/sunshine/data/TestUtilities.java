@@ -15,12 +15,14 @@
  */
 package com.example.android.sunshine.data;
 
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utils.PollingCheck;
@@ -29,6 +31,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -59,6 +62,9 @@ class TestUtilities {
 
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
+    /* The first day of createBulkInsertTestWeatherValues, the day after DATE_NORMALIZED */
+    static final long FIRST_DATE = DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS;
+
     /**
      * Ensures there is a non empty cursor and validates the cursor's data by checking it against
      * a set of expected values. This method will then close the cursor.
@@ -157,13 +163,17 @@ class TestUtilities {
 
             ContentValues weatherValues = new ContentValues();
 
+            /*
+             * The weather table keeps two decimals, so these are computed as hundredths. That
+             * way they read back as exactly the same doubles.
+             */
             weatherValues.put(COLUMN_DATE, normalizedTestDate);
             weatherValues.put(COLUMN_DEGREES, 1.1);
-            weatherValues.put(COLUMN_HUMIDITY, 1.2 + 0.01 * (float) i);
-            weatherValues.put(COLUMN_PRESSURE, 1.3 - 0.01 * (float) i);
+            weatherValues.put(COLUMN_HUMIDITY, (120 + i) / 100.0);
+            weatherValues.put(COLUMN_PRESSURE, (130 - i) / 100.0);
             weatherValues.put(COLUMN_MAX_TEMP, 75 + i);
             weatherValues.put(COLUMN_MIN_TEMP, 65 - i);
-            weatherValues.put(COLUMN_WIND_SPEED, 5.5 + 0.2 * (float) i);
+            weatherValues.put(COLUMN_WIND_SPEED, (550 + 20 * i) / 100.0);
             weatherValues.put(COLUMN_WEATHER_ID, 321);
 
             bulkTestWeatherValues[i] = weatherValues;
@@ -172,6 +182,39 @@ class TestUtilities {
         return bulkTestWeatherValues;
     }
 
+    /**
+     * Builds a forecast of any length for the benchmarks, one day after another from
+     * DATE_NORMALIZED. The weather repeats every 10 days.
+     *
+     * @param rows The number of days
+     * @return The forecast
+     */
+    static ForecastBatch createTestForecastBatch(int rows) {
+        ForecastBatch batch = new ForecastBatch(rows);
+        long date = DATE_NORMALIZED;
+        for (int i = 0; i < rows; i++) {
+            batch.add(date, 321, 65 - i % 10, 75 + i % 10,
+                    1.2 + 0.01 * (i % 10), 1.3 - 0.01 * (i % 10), 5.5, 1.1);
+            date += SunshineDateUtils.DAY_IN_MILLIS;
+        }
+        return batch;
+    }
+
+    /**
+     * Empties the weather table, and bulk inserts the values of
+     * {@link #createBulkInsertTestWeatherValues()} through the ContentProvider, so that the
+     * weather runs from {@link #FIRST_DATE} for BULK_INSERT_RECORDS_TO_INSERT days.
+     *
+     * @param contentResolver Used to reach the ContentProvider
+     * @return The values that were inserted
+     */
+    static ContentValues[] insertBulkTestWeatherValues(ContentResolver contentResolver) {
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        ContentValues[] values = createBulkInsertTestWeatherValues();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+        return values;
+    }
+
 
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
@@ -243,6 +286,55 @@ class TestUtilities {
         }
     }
 
+    static CountingContentObserver getCountingContentObserver() {
+        return CountingContentObserver.getCountingContentObserver();
+    }
+
+    /**
+     * Counts the onChange callbacks it receives, for tests that care about how many times
+     * observers are notified rather than whether they are notified at all.
+     */
+    static class CountingContentObserver extends ContentObserver {
+
+        /* How long to wait for notifications that might still be on their way */
+        private static final long NOTIFICATION_WAIT_MILLIS = 500;
+
+        final HandlerThread mHT;
+        final AtomicInteger mChanges = new AtomicInteger();
+
+        private CountingContentObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        static CountingContentObserver getCountingContentObserver() {
+            HandlerThread ht = new HandlerThread("CountingContentObserverThread");
+            ht.start();
+            return new CountingContentObserver(ht);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mChanges.incrementAndGet();
+        }
+
+        /**
+         * Notifications are delivered asynchronously, so there is no way to know that the last
+         * one has arrived. This waits long enough for any that are still on their way.
+         *
+         * @return The number of notifications received so far
+         */
+        int waitForNotifications() {
+            SystemClock.sleep(NOTIFICATION_WAIT_MILLIS);
+            return mChanges.get();
+        }
+    }
+
     static String getConstantNameByStringValue(Class klass, String value)  {
         for (Field f : klass.getDeclaredFields()) {
             int modifiers = f.getModifiers();
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Makes sure that {@link WeatherContract#METHOD_UPSERT_FORECAST} archives past days into the
+ * monthly history tables when asked to, keeps the weekly and monthly rollups in step with them,
+ * and drops the months that are too old to keep.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherArchive {
+
+    private static final int DAYS = 10;
+
+    /* The days straddle the start of last month, so they are archived into two month tables */
+    private static final long TODAY = SunshineDateUtils.getNormalizedUtcDateForToday();
+    private static final long LAST_MONTH = WeatherArchive.getMonthStart(TODAY, -1);
+    private static final long FIRST_DATE = LAST_MONTH - 5 * SunshineDateUtils.DAY_IN_MILLIS;
+    private static final long LAST_DATE =
+            FIRST_DATE + (DAYS - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* Saturday October 1st 2016 falls in the week of Monday September 26th 2016 */
+    private static final long MONDAY_BEFORE_DATE_NORMALIZED = 1474848000000L;
+
+    /* Far enough in the future that pruning up to it drops every month of history */
+    private static final long YEAR_3000 = 32503680000000L;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        dropHistory();
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        dropHistory();
+    }
+
+    @Test
+    public void testPastDaysAreArchived() {
+        upsertForecast(createBatch(), null, null);
+
+        Bundle result = upsertForecast(new ForecastBatch(0), TODAY, null);
+        assertEquals("Error: The past days weren't archived",
+                DAYS, result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED));
+        assertEquals("Error: The archived days weren't deleted from the forecast",
+                DAYS, result.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+
+        Cursor cursor = mContentResolver.query(
+                HistoryEntry.buildHistoryWithDateRange(FIRST_DATE, LAST_DATE),
+                null, null, null, null);
+        assertNotNull("Error: Query for the history returned null", cursor);
+        assertEquals("Error: The history of both months wasn't returned",
+                DAYS, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: The history wasn't returned in order of date",
+                    dateOf(i), cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+            assertEquals("Error: The history doesn't hold the weather that was archived",
+                    (double) i,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        }
+        cursor.close();
+
+        cursor = mContentResolver.query(HistoryEntry.buildHistoryUriWithDate(dateOf(7)),
+                null, null, null, null);
+        assertNotNull("Error: Query for a day of history returned null", cursor);
+        assertEquals("Error: A day of history wasn't found", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: The wrong day of history was returned",
+                17.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        cursor.close();
+    }
+
+    @Test
+    public void testDaysOfTheForecastAreNotArchived() {
+        ForecastBatch forecast = new ForecastBatch(1);
+        forecast.add(TODAY, 800, 1, 2, 50, 1000, 5, 90);
+        upsertForecast(forecast, null, null);
+
+        /* Today is deleted, as it is before the date given, but it isn't history yet */
+        long tomorrow = TODAY + SunshineDateUtils.DAY_IN_MILLIS;
+        Bundle result = upsertForecast(new ForecastBatch(0), tomorrow, null);
+        assertEquals("Error: Today was archived", 0,
+                result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED));
+        assertEquals("Error: Today wasn't deleted", 1,
+                result.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+        assertEquals("Error: Today is in the history", 0,
+                count(HistoryEntry.buildHistoryUriWithDate(TODAY)));
+    }
+
+    @Test
+    public void testRollupsSummarizeArchivedDays() {
+        upsertForecast(createBatch(), null, null);
+        upsertForecast(new ForecastBatch(0), TODAY, null);
+
+        /* The first 5 days have a min of 0 to 4, and a max of 10 to 14 */
+        assertRollup(RollupEntry.buildMonthUriWithDate(FIRST_DATE), 5, 0, 14, 2, 12);
+
+        /* Any day of a month finds that month, the last 5 days having a min of 5 to 9 */
+        assertRollup(RollupEntry.buildMonthUriWithDate(LAST_DATE), 5, 5, 19, 7, 17);
+
+        int daysInFirstWeek = 0;
+        for (int i = 0; i < DAYS; i++) {
+            if (WeatherArchive.getWeekStart(dateOf(i)) == WeatherArchive.getWeekStart(FIRST_DATE)) {
+                daysInFirstWeek++;
+            }
+        }
+        Cursor cursor = mContentResolver.query(RollupEntry.buildWeekUriWithDate(FIRST_DATE),
+                new String[]{RollupEntry.COLUMN_DAYS, RollupEntry.COLUMN_MIN_TEMP},
+                null, null, null);
+        assertNotNull("Error: Query for a week returned null", cursor);
+        cursor.moveToFirst();
+        assertEquals("Error: The week doesn't count the days archived in it",
+                daysInFirstWeek, cursor.getInt(0));
+        assertEquals("Error: The week doesn't have the lowest temperature of its days",
+                0.0, cursor.getDouble(1));
+        cursor.close();
+
+        cursor = mContentResolver.query(RollupEntry.WEEK_CONTENT_URI,
+                new String[]{RollupEntry.COLUMN_DAYS}, null, null, null);
+        assertNotNull("Error: Query for the weeks returned null", cursor);
+        int days = 0;
+        while (cursor.moveToNext()) {
+            days += cursor.getInt(0);
+        }
+        cursor.close();
+        assertEquals("Error: The weeks don't add up to the days archived", DAYS, days);
+    }
+
+    @Test
+    public void testArchivingAgainDoesNotCountDaysTwice() {
+        upsertForecast(createBatch(), null, null);
+        upsertForecast(new ForecastBatch(0), TODAY, null);
+
+        /* The same days come back, and are archived once more */
+        upsertForecast(createBatch(), null, null);
+        Bundle result = upsertForecast(new ForecastBatch(0), TODAY, null);
+
+        assertEquals("Error: Days already in the history were archived again",
+                0, result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED));
+        assertRollup(RollupEntry.buildMonthUriWithDate(FIRST_DATE), 5, 0, 14, 2, 12);
+    }
+
+    @Test
+    public void testOldMonthsAreDropped() {
+        upsertForecast(createBatch(), null, null);
+        upsertForecast(new ForecastBatch(0), TODAY, null);
+
+        /* Keeping only this month drops both months that were archived */
+        Bundle extras = new ForecastBatch(0).toBundle();
+        extras.putLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE, TODAY);
+        extras.putBoolean(WeatherContract.EXTRA_ARCHIVE, true);
+        extras.putInt(WeatherContract.EXTRA_HISTORY_MONTHS, 1);
+        mContentResolver.call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_FORECAST, null, extras);
+
+        assertEquals("Error: The history of old months wasn't dropped", 0,
+                count(HistoryEntry.buildHistoryWithDateRange(FIRST_DATE, LAST_DATE)));
+        assertEquals("Error: A day of a dropped month can still be read", 0,
+                count(HistoryEntry.buildHistoryUriWithDate(FIRST_DATE)));
+        assertEquals("Error: The rollups of old months weren't dropped", 0,
+                count(RollupEntry.MONTH_CONTENT_URI));
+        assertEquals("Error: The rollups of the weeks of old months weren't dropped", 0,
+                count(RollupEntry.WEEK_CONTENT_URI));
+    }
+
+    @Test
+    public void testWeekStraddlingTheCutoffIsKept() {
+        /* Monday September 26th 2016 to Wednesday October 5th 2016, min i and max 10 + i */
+        ForecastBatch batch = new ForecastBatch(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(MONDAY_BEFORE_DATE_NORMALIZED + i * SunshineDateUtils.DAY_IN_MILLIS,
+                    800, i, 10 + i, 50, 1000, 5, 90);
+        }
+        upsertForecast(batch, null, null);
+        upsertForecast(new ForecastBatch(0), TODAY, null);
+
+        /* Keeping October 2016 onwards drops September */
+        prune(1, TestUtilities.DATE_NORMALIZED);
+
+        assertEquals("Error: The history of September wasn't dropped", 0,
+                count(HistoryEntry.buildHistoryUriWithDate(MONDAY_BEFORE_DATE_NORMALIZED)));
+        assertEquals("Error: The history of October was dropped", DAYS - 5,
+                count(HistoryEntry.buildHistoryWithDateRange(
+                        TestUtilities.DATE_NORMALIZED, batch.getDate(DAYS - 1))));
+        assertEquals("Error: The rollup of September wasn't dropped", 1,
+                count(RollupEntry.MONTH_CONTENT_URI));
+
+        /* Its last 2 days are in October, so the week of September 26th keeps all 7 */
+        assertRollup(RollupEntry.buildWeekUriWithDate(TestUtilities.DATE_NORMALIZED),
+                7, 0, 16, 3, 13);
+        assertEquals("Error: A week with days in the history kept was dropped", 2,
+                count(RollupEntry.WEEK_CONTENT_URI));
+    }
+
+    @Test
+    public void testHistoryMonthsMustBePositive() {
+        Bundle extras = new ForecastBatch(0).toBundle();
+        extras.putLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE, TODAY);
+        extras.putBoolean(WeatherContract.EXTRA_ARCHIVE, true);
+        extras.putInt(WeatherContract.EXTRA_HISTORY_MONTHS, 0);
+        try {
+            mContentResolver.call(WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_UPSERT_FORECAST, null, extras);
+            fail("Error: " + WeatherContract.METHOD_UPSERT_FORECAST
+                    + " should reject keeping 0 months of history");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+
+    @Test
+    public void testPeriodsStartOnMondayAndTheFirstOfTheMonth() {
+        assertEquals("Error: A week doesn't start on Monday",
+                MONDAY_BEFORE_DATE_NORMALIZED,
+                WeatherArchive.getWeekStart(TestUtilities.DATE_NORMALIZED));
+        assertEquals("Error: A Monday isn't the start of its own week",
+                MONDAY_BEFORE_DATE_NORMALIZED,
+                WeatherArchive.getWeekStart(MONDAY_BEFORE_DATE_NORMALIZED));
+
+        /* DATE_NORMALIZED is the first of October 2016 */
+        long lastOfSeptember = TestUtilities.DATE_NORMALIZED - SunshineDateUtils.DAY_IN_MILLIS;
+        assertEquals("Error: The start of a month is wrong",
+                TestUtilities.DATE_NORMALIZED,
+                WeatherArchive.getMonthStart(TestUtilities.DATE_NORMALIZED, 0));
+        assertEquals("Error: The next month starts on the wrong day",
+                TestUtilities.DATE_NORMALIZED,
+                WeatherArchive.getMonthStart(lastOfSeptember, 1));
+        assertEquals("Error: The table of a month is misnamed",
+                "history_201609", WeatherArchive.getHistoryTable(lastOfSeptember));
+    }
+
+    private void assertRollup(Uri uri, int days, double minTemp, double maxTemp,
+                              double avgMinTemp, double avgMaxTemp) {
+        Cursor cursor = mContentResolver.query(uri, null, null, null, null);
+        assertNotNull("Error: Query for " + uri + " returned null", cursor);
+        assertEquals("Error: There should be one rollup for " + uri, 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: The rollup doesn't count its days", days,
+                cursor.getInt(cursor.getColumnIndex(RollupEntry.COLUMN_DAYS)));
+        assertEquals("Error: The rollup has the wrong lowest temperature", minTemp,
+                cursor.getDouble(cursor.getColumnIndex(RollupEntry.COLUMN_MIN_TEMP)));
+        assertEquals("Error: The rollup has the wrong highest temperature", maxTemp,
+                cursor.getDouble(cursor.getColumnIndex(RollupEntry.COLUMN_MAX_TEMP)));
+        assertEquals("Error: The rollup has the wrong average low", avgMinTemp,
+                cursor.getDouble(cursor.getColumnIndex(RollupEntry.COLUMN_AVG_MIN_TEMP)));
+        assertEquals("Error: The rollup has the wrong average high", avgMaxTemp,
+                cursor.getDouble(cursor.getColumnIndex(RollupEntry.COLUMN_AVG_MAX_TEMP)));
+        cursor.close();
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mContentResolver.query(uri, null, null, null, null);
+        assertNotNull("Error: Query for " + uri + " returned null", cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Upserts a batch, archiving the days it deletes before deleteBefore.
+     */
+    private Bundle upsertForecast(ForecastBatch batch, Long deleteBefore, Long deleteAfter) {
+        Bundle extras = batch.toBundle();
+        extras.putBoolean(WeatherContract.EXTRA_ARCHIVE, true);
+        if (deleteBefore != null) {
+            extras.putLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE, deleteBefore);
+        }
+        if (deleteAfter != null) {
+            extras.putLong(WeatherContract.EXTRA_DELETE_AFTER_DATE, deleteAfter);
+        }
+        Bundle result = mContentResolver.call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_FORECAST, null, extras);
+        assertNotNull("Error: " + WeatherContract.METHOD_UPSERT_FORECAST + " returned no result",
+                result);
+        return result;
+    }
+
+    /**
+     * Drops every month of history the tests before may have left behind.
+     */
+    private void dropHistory() {
+        prune(1, YEAR_3000);
+    }
+
+    /**
+     * Drops the months of history before the last ones kept, as if today were another day.
+     */
+    private void prune(int months, long today) {
+        SQLiteDatabase db = WeatherDbHelper.getInstance(mContext).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            WeatherArchive.prune(db, months, today);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long dateOf(int day) {
+        return FIRST_DATE + day * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * @return DAYS days from FIRST_DATE, day i with a min of i and a max of 10 + i
+     */
+    private static ForecastBatch createBatch() {
+        ForecastBatch batch = new ForecastBatch(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(dateOf(i), 800, i, 10 + i, 50, 1000, 5, 90);
+        }
+        return batch;
+    }
+}
@@ -171,13 +171,16 @@ public class TestWeatherProvider {
         /* Obtain weather values from TestUtilities */
         ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
 
-        /* Insert ContentValues into database and get a row ID back */
+        /*
+         * Insert ContentValues into database and get a row ID back. The table stores values the
+         * way WeatherProvider encodes them, so they are encoded the same way here.
+         */
         long weatherRowId = database.insert(
                 /* Table to insert values into */
                 WeatherContract.WeatherEntry.TABLE_NAME,
                 null,
                 /* Values to insert into table */
-                testWeatherValues);
+                WeatherEncoding.encode(testWeatherValues));
 
         String insertFailed = "Unable to insert into the database";
         assertTrue(insertFailed, weatherRowId != -1);
@@ -423,6 +426,48 @@ public class TestWeatherProvider {
         shouldBeEmptyCursor.close();
     }
 
+    /**
+     * The weather table stores temperatures in hundredths, but selections and sort orders see
+     * them as callers do: "max > 80" means above 80°C, not above 0.80°C. The bulk insert test
+     * values have a max of 75 to 84, a min of 65 to 56, and a humidity of 1.2 to 1.29.
+     */
+    @Test
+    public void testSelectionOnATemperatureComparesDegrees() {
+        testBulkInsert();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri uri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+        Cursor cursor = contentResolver.query(uri, null,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " > ?", new String[]{"80"},
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " DESC");
+        assertNotNull("Error: Query with a selection on a temperature returned null", cursor);
+        assertEquals("Error: Selection on a temperature didn't compare degrees",
+                4, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Sort order on a temperature didn't put the highest first",
+                84.0, cursor.getDouble(
+                        cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)));
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        int updated = contentResolver.update(uri, values,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " < ?", new String[]{"60"});
+        assertEquals("Error: Update with a selection on a temperature didn't compare degrees",
+                4, updated);
+
+        int deleted = contentResolver.delete(uri,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " >= ?", new String[]{"1.25"});
+        assertEquals("Error: Delete with a selection on the humidity didn't compare percents",
+                5, deleted);
+
+        cursor = contentResolver.query(uri, null, null, null, null);
+        assertNotNull("Error: Query returned null", cursor);
+        assertEquals("Error: Delete with a selection on the humidity deleted the wrong days",
+                BULK_INSERT_RECORDS_TO_INSERT - 5, cursor.getCount());
+        cursor.close();
+    }
+
     /**
      * This method will clear all rows from the weather table in our database.
      * <p>
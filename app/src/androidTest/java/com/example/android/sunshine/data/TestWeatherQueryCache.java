@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.FIRST_DATE;
+import static com.example.android.sunshine.data.TestUtilities.insertBulkTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Makes sure that WeatherProvider answers repeated queries from its cache, and that writes drop
+ * exactly the cached results they changed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherQueryCache {
+
+    /* What the forecast list asks for */
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    @Before
+    public void setUp() {
+        insertBulkTestWeatherValues(mContentResolver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testRepeatedQueryIsAHit() {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherWithStartDate(FIRST_DATE);
+        long[] before = getStats();
+
+        double firstMax = queryFirstMaxTemp(uri);
+        double secondMax = queryFirstMaxTemp(uri);
+
+        long[] after = getStats();
+        assertEquals("Error: The first query should have read the database",
+                before[1] + 1, after[1]);
+        assertEquals("Error: The repeated query should have been answered from the cache",
+                before[0] + 1, after[0]);
+        assertEquals("Error: The cached result differs from the database",
+                firstMax, secondMax);
+    }
+
+    @Test
+    public void testUpdateOnlyDropsTheDayItChanged() {
+        Uri unchangedDay = WeatherContract.WeatherEntry.buildWeatherUriWithDate(FIRST_DATE);
+        long changedDate = FIRST_DATE + SunshineDateUtils.DAY_IN_MILLIS;
+        Uri changedDay = WeatherContract.WeatherEntry.buildWeatherUriWithDate(changedDate);
+        queryFirstMaxTemp(unchangedDay);
+        queryFirstMaxTemp(changedDay);
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        mContentResolver.update(WeatherContract.WeatherEntry.CONTENT_URI, values,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(changedDate)});
+
+        long[] before = getStats();
+        queryFirstMaxTemp(unchangedDay);
+        long[] afterUnchanged = getStats();
+        assertEquals("Error: A day that didn't change was dropped from the cache",
+                before[0] + 1, afterUnchanged[0]);
+
+        assertEquals("Error: The cache returned the day from before it was updated",
+                99.5, queryFirstMaxTemp(changedDay));
+        long[] afterChanged = getStats();
+        assertEquals("Error: The day that changed should have been read from the database",
+                afterUnchanged[1] + 1, afterChanged[1]);
+    }
+
+    @Test
+    public void testDeleteDropsTheForecast() {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherWithStartDate(FIRST_DATE);
+        assertEquals("Error: Wrong number of days before the delete",
+                BULK_INSERT_RECORDS_TO_INSERT, queryCount(uri));
+
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(FIRST_DATE)});
+
+        assertEquals("Error: The cache returned the forecast from before the delete",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, queryCount(uri));
+    }
+
+    @Test
+    public void testUncacheableQueriesAreNotCounted() {
+        long[] before = getStats();
+
+        /* Every column, and the download time, always come from the database */
+        Cursor everyColumn = mContentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull("Error: Query for every column returned null", everyColumn);
+        everyColumn.close();
+
+        Cursor updated = mContentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_UPDATED}, null, null, null);
+        assertNotNull("Error: Query for the download time returned null", updated);
+        updated.close();
+
+        long[] after = getStats();
+        assertTrue("Error: Queries that can't be cached were counted",
+                before[0] == after[0] && before[1] == after[1]);
+    }
+
+    /**
+     * @return The hits and misses of the query cache
+     */
+    private long[] getStats() {
+        Bundle stats = mContentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_QUERY_CACHE_STATS, null, null);
+        assertNotNull("Error: " + WeatherContract.METHOD_GET_QUERY_CACHE_STATS
+                + " returned no result", stats);
+        return new long[]{
+                stats.getLong(WeatherContract.EXTRA_CACHE_HITS),
+                stats.getLong(WeatherContract.EXTRA_CACHE_MISSES)
+        };
+    }
+
+    private double queryFirstMaxTemp(Uri uri) {
+        Cursor cursor = mContentResolver.query(uri, FORECAST_PROJECTION, null, null, null);
+        assertNotNull("Error: Query returned null for " + uri, cursor);
+        try {
+            assertTrue("Error: Query returned no days for " + uri, cursor.moveToFirst());
+            return cursor.getDouble(
+                    cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int queryCount(Uri uri) {
+        Cursor cursor = mContentResolver.query(uri, FORECAST_PROJECTION, null, null, null);
+        assertNotNull("Error: Query returned null for " + uri, cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.FIRST_DATE;
+import static com.example.android.sunshine.data.TestUtilities.insertBulkTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Makes sure that the query parameters built by WeatherContract.WeatherEntry narrow a query
+ * down to the days they ask for.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherRangeQuery {
+
+    private static final String BY_DATE = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    @Before
+    public void setUp() {
+        insertBulkTestWeatherValues(mContentResolver);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testStartDate() {
+        long startDate = dayOf(3);
+        assertDates(WeatherContract.WeatherEntry.buildWeatherWithStartDate(startDate), BY_DATE,
+                startDate, BULK_INSERT_RECORDS_TO_INSERT - 3);
+    }
+
+    @Test
+    public void testStartDateIsNormalized() {
+        /* The middle of a day asks for that whole day */
+        long startDate = dayOf(3);
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherWithStartDate(
+                startDate + SunshineDateUtils.DAY_IN_MILLIS / 2);
+        assertDates(uri, BY_DATE, startDate, BULK_INSERT_RECORDS_TO_INSERT - 3);
+    }
+
+    @Test
+    public void testStartDateAndLimit() {
+        /* Without a sort order, the limit counts from the first day */
+        long startDate = dayOf(2);
+        assertDates(WeatherContract.WeatherEntry.buildWeatherWithStartDate(startDate, 1), null,
+                startDate, 1);
+        assertDates(WeatherContract.WeatherEntry.buildWeatherWithStartDate(startDate, 4), null,
+                startDate, 4);
+    }
+
+    @Test
+    public void testDateRange() {
+        long startDate = dayOf(1);
+        long endDate = dayOf(5);
+        assertDates(WeatherContract.WeatherEntry.buildWeatherWithDateRange(startDate, endDate),
+                BY_DATE, startDate, 5);
+    }
+
+    @Test
+    public void testRangeIsCombinedWithSelection() {
+        long startDate = dayOf(2);
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherWithDateRange(startDate, dayOf(8));
+
+        /* Skips the first two days of the range */
+        String selection = WeatherContract.WeatherEntry.COLUMN_DATE + " > ?";
+        String[] selectionArgs = {Long.toString(dayOf(3))};
+
+        Cursor cursor = mContentResolver.query(uri, null, selection, selectionArgs, BY_DATE);
+        assertNotNull("Error: Range query returned null", cursor);
+        assertEquals("Error: Range query ignored the selection of the caller",
+                5, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Range query with a selection starts on the wrong day",
+                dayOf(4), cursor.getLong(
+                        cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+    }
+
+    @Test
+    public void testKeysetPages() {
+        /* Each page starts after the last day of the page before it, like ForecastPager does */
+        int pageSize = 3;
+        long afterDate = FIRST_DATE - 1;
+        int days = 0;
+        int pages = 0;
+        while (true) {
+            Uri uri = WeatherContract.WeatherEntry.buildWeatherPageUri(afterDate, pageSize);
+            Cursor cursor = mContentResolver.query(uri, null, null, null, null);
+            assertNotNull("Error: Page query returned null for " + uri, cursor);
+
+            int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            int count = cursor.getCount();
+            while (cursor.moveToNext()) {
+                assertEquals("Error: Pages skipped or repeated a day",
+                        dayOf(days), cursor.getLong(dateIndex));
+                afterDate = cursor.getLong(dateIndex);
+                days++;
+            }
+            cursor.close();
+            pages++;
+
+            if (count < pageSize) {
+                break;
+            }
+        }
+
+        assertEquals("Error: Pages didn't return every day", BULK_INSERT_RECORDS_TO_INSERT, days);
+        assertEquals("Error: Wrong number of pages",
+                BULK_INSERT_RECORDS_TO_INSERT / pageSize + 1, pages);
+    }
+
+    @Test
+    public void testInvalidLimitIsRejected() {
+        Uri uri = WeatherContract.WeatherEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(WeatherContract.WeatherEntry.QUERY_PARAMETER_LIMIT, "many")
+                .build();
+        try {
+            mContentResolver.query(uri, null, null, null, null);
+            fail("Error: Query with a limit that isn't a number didn't fail");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+
+    private static long dayOf(int day) {
+        return FIRST_DATE + day * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    private void assertDates(Uri uri, String sortOrder, long firstDate, int count) {
+        Cursor cursor = mContentResolver.query(uri, null, null, null, sortOrder);
+        assertNotNull("Error: Range query returned null for " + uri, cursor);
+        assertEquals("Error: Range query returned the wrong number of days for " + uri,
+                count, cursor.getCount());
+
+        int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: Range query returned the wrong day for " + uri,
+                    firstDate + i * SunshineDateUtils.DAY_IN_MILLIS, cursor.getLong(dateIndex));
+        }
+        cursor.close();
+    }
+}
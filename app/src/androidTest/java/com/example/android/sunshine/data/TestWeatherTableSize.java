@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the size of 100,000 days of weather stored with the schema of version 4 (an _id key,
+ * a unique index on the date, and REAL columns) against the current schema (keyed on the date,
+ * with INTEGER hundredths). The sizes are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherTableSize {
+
+    private static final String TAG = TestWeatherTableSize.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+
+    private static final String REAL_DATABASE_NAME = "size_real.db";
+    private static final String COMPACT_DATABASE_NAME = "size_compact.db";
+
+    private static final String SQL_INSERT_REAL = "INSERT INTO weather "
+            + "(date, weather_id, min, max, humidity, pressure, wind, degrees, updated) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(REAL_DATABASE_NAME);
+        mContext.deleteDatabase(COMPACT_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(REAL_DATABASE_NAME);
+        mContext.deleteDatabase(COMPACT_DATABASE_NAME);
+    }
+
+    @Test
+    public void measureHundredThousandRows() {
+        ForecastBatch batch = createBatch(ROWS);
+
+        SQLiteDatabase real = openDatabase(REAL_DATABASE_NAME);
+        long realBytes;
+        try {
+            real.execSQL(TestDatabaseMigrations.WEATHER_TABLE_V4);
+            insertReal(real, batch);
+            realBytes = getSize(real);
+        } finally {
+            real.close();
+        }
+
+        SQLiteDatabase compact = openDatabase(COMPACT_DATABASE_NAME);
+        long compactBytes;
+        try {
+            new WeatherDbHelper(mContext).onCreate(compact);
+            insertCompact(compact, batch);
+            compactBytes = getSize(compact);
+        } finally {
+            compact.close();
+        }
+
+        Log.i(TAG, ROWS + " rows: REAL schema " + realBytes + " bytes ("
+                + realBytes / ROWS + " bytes/row), compact schema " + compactBytes + " bytes ("
+                + compactBytes / ROWS + " bytes/row), "
+                + (100 - compactBytes * 100 / realBytes) + "% smaller");
+
+        assertTrue("Error: The compact schema isn't smaller than the REAL schema",
+                compactBytes < realBytes);
+    }
+
+    private SQLiteDatabase openDatabase(String name) {
+        File path = mContext.getDatabasePath(name);
+        path.getParentFile().mkdirs();
+        return SQLiteDatabase.openOrCreateDatabase(path, null);
+    }
+
+    private static void insertReal(SQLiteDatabase db, ForecastBatch batch) {
+        SQLiteStatement statement = db.compileStatement(SQL_INSERT_REAL);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                statement.bindLong(1, batch.getDate(i));
+                statement.bindLong(2, batch.getWeatherId(i));
+                statement.bindDouble(3, batch.getMinTemp(i));
+                statement.bindDouble(4, batch.getMaxTemp(i));
+                statement.bindDouble(5, batch.getHumidity(i));
+                statement.bindDouble(6, batch.getPressure(i));
+                statement.bindDouble(7, batch.getWindSpeed(i));
+                statement.bindDouble(8, batch.getDegrees(i));
+                statement.bindLong(9, batch.getUpdated());
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    private static void insertCompact(SQLiteDatabase db, ForecastBatch batch) {
+        WeatherInsertStatement statement = new WeatherInsertStatement(db);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                statement.insert(batch.getDate(i), batch.getWeatherId(i),
+                        batch.getMinTemp(i), batch.getMaxTemp(i), batch.getHumidity(i),
+                        batch.getPressure(i), batch.getWindSpeed(i), batch.getDegrees(i),
+                        batch.getUpdated());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * @return The size of the database file, from the number of pages it is made of
+     */
+    private static long getSize(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA page_count", null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0) * db.getPageSize();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Weather in the ranges OpenWeatherMap gives, with two decimals
+     */
+    private static ForecastBatch createBatch(int rows) {
+        ForecastBatch batch = new ForecastBatch(rows);
+        batch.setUpdated(System.currentTimeMillis());
+        long date = TestUtilities.DATE_NORMALIZED;
+        for (int i = 0; i < rows; i++) {
+            double minTemp = -10 + (i * 37 % 3000) / 100.0;
+            batch.add(date, 800 + i % 5,
+                    minTemp,
+                    minTemp + (i * 13 % 1200) / 100.0,
+                    (i * 7 % 10000) / 100.0,
+                    980 + (i * 11 % 6000) / 100.0,
+                    (i * 17 % 2000) / 100.0,
+                    (i * 23 % 36000) / 100.0);
+            date += SunshineDateUtils.DAY_IN_MILLIS;
+        }
+        return batch;
+    }
+}
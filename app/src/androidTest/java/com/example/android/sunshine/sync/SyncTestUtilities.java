@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.ForecastDiskCache;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.io.IOException;
+
+/**
+ * Helpers shared by the sync tests to put the sync into a known state.
+ */
+class SyncTestUtilities {
+
+    /**
+     * Makes the next sync start from scratch: no weather in the database, no cached response to
+     * restore it from, no validators to send and a closed circuit breaker.
+     *
+     * @param context Used to access the ContentResolver, the cache and SharedPreferences
+     */
+    static void resetSyncState(Context context) throws IOException {
+        context.getContentResolver().delete(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null);
+
+        String url = NetworkUtils.getUrl(context).toString();
+        ForecastDiskCache.getInstance(context).remove(url);
+        SunshinePreferences.clearResponseValidators(context, url);
+        SunshinePreferences.saveSyncCircuitState(context, 0, 0);
+    }
+
+    /**
+     * Makes every stored day of the forecast look like it was downloaded long ago, so the next
+     * sync asks for the full forecast again.
+     *
+     * @param context Used to access the ContentResolver
+     */
+    static void markForecastStale(Context context) {
+        ContentValues stale = new ContentValues();
+        stale.put(WeatherContract.WeatherEntry.COLUMN_UPDATED, 0);
+        context.getContentResolver().update(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                stale,
+                null,
+                null);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utilities.FakeDataUtils;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Runs {@link ForecastPipeline} over fake forecasts, and makes sure that a failure in any of its
+ * stages is reported to the caller rather than leaving another stage waiting forever.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastPipeline {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testEveryDayReachesTheSink() throws IOException, JSONException {
+        /* Long enough for several chunks, and for the pipe to fill up */
+        int days = 200;
+        RecordingSink sink = new RecordingSink();
+
+        ForecastBatch forecast = new ForecastPipeline(mContext, sink)
+                .run(openForecast(days));
+
+        assertNotNull("Error: Pipeline didn't return the forecast", forecast);
+        assertEquals("Error: Pipeline lost days of the forecast", days, forecast.size());
+        assertTrue("Error: Forecast wasn't handed to the sink in chunks",
+                sink.mChunks.size() > 1);
+
+        int day = 0;
+        for (ForecastBatch chunk : sink.mChunks) {
+            for (int i = 0; i < chunk.size(); i++, day++) {
+                assertEquals("Error: Sink received day " + day + " out of order",
+                        forecast.getDate(day), chunk.getDate(i));
+            }
+        }
+        assertEquals("Error: Sink didn't receive every day", days, day);
+    }
+
+    @Test
+    public void testReadErrorIsReported() throws JSONException {
+        final IOException readError = new IOException("Connection reset");
+        InputStream in = new FilterInputStream(openForecast(200)) {
+            private int mRead;
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                if (mRead > 4096) {
+                    throw readError;
+                }
+                int read = super.read(buffer, offset, Math.min(count, 1024));
+                mRead += Math.max(read, 0);
+                return read;
+            }
+        };
+
+        try {
+            new ForecastPipeline(mContext, new RecordingSink()).run(in);
+            fail("Error: Pipeline didn't report the read error");
+        } catch (IOException e) {
+            assertSame("Error: Pipeline reported something other than the read error",
+                    readError, e);
+        }
+    }
+
+    @Test
+    public void testWriteErrorIsReported() throws IOException, JSONException {
+        final IllegalStateException writeError = new IllegalStateException("Disk full");
+        ForecastPipeline.Sink sink = new ForecastPipeline.Sink() {
+            @Override
+            public void write(ForecastBatch chunk) {
+                throw writeError;
+            }
+        };
+
+        try {
+            new ForecastPipeline(mContext, sink).run(openForecast(200));
+            fail("Error: Pipeline didn't report the write error");
+        } catch (IllegalStateException e) {
+            assertSame("Error: Pipeline reported something other than the write error",
+                    writeError, e);
+        }
+    }
+
+    @Test
+    public void testParseErrorIsReported() throws IOException {
+        String json = FakeDataUtils.createFakeForecastJson(200);
+        InputStream in = new ByteArrayInputStream(
+                json.substring(0, json.length() / 2).getBytes(UTF_8));
+
+        try {
+            new ForecastPipeline(mContext, new RecordingSink()).run(in);
+            fail("Error: Pipeline didn't report that the forecast was cut short");
+        } catch (JSONException e) {
+            /* Expected */
+        } catch (IOException e) {
+            /* JsonReader reports the end of the input as an IOException */
+        }
+    }
+
+    private static InputStream openForecast(int days) {
+        return new ByteArrayInputStream(FakeDataUtils.createFakeForecastJson(days).getBytes(UTF_8));
+    }
+
+    private static class RecordingSink implements ForecastPipeline.Sink {
+
+        final List<ForecastBatch> mChunks = new ArrayList<ForecastBatch>();
+
+        @Override
+        public void write(ForecastBatch chunk) {
+            mChunks.add(chunk);
+        }
+    }
+}
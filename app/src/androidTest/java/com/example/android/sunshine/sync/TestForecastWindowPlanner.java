@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks which days of the forecast {@link ForecastWindowPlanner} asks for, depending on how
+ * long ago each stored day was refreshed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastWindowPlanner {
+
+    private static final int MAX_DAYS = 14;
+    private static final long NOW = TimeUnit.DAYS.toMillis(17000);
+
+    @Test
+    public void testFreshForecastNeedsNothing() {
+        ForecastWindowPlanner.Window window = plan(allPresent(), updatedHoursAgo(1));
+
+        assertEquals("Error: Fresh forecast should not be refreshed", 0, window.days);
+        assertTrue("Error: Forecast with every day should be complete", window.complete);
+    }
+
+    @Test
+    public void testOnlyNearDaysRefreshAfterAFewHours() {
+        ForecastWindowPlanner.Window window = plan(allPresent(), updatedHoursAgo(4));
+
+        assertEquals("Error: Only today and tomorrow should be refreshed after 4 hours",
+                2, window.days);
+        assertTrue("Error: Forecast with every day should be complete", window.complete);
+    }
+
+    @Test
+    public void testWeekRefreshesAfterHalfADay() {
+        ForecastWindowPlanner.Window window = plan(allPresent(), updatedHoursAgo(13));
+
+        assertEquals("Error: This week should be refreshed after 13 hours", 7, window.days);
+    }
+
+    @Test
+    public void testEverythingRefreshesAfterADay() {
+        ForecastWindowPlanner.Window window = plan(allPresent(), updatedHoursAgo(25));
+
+        assertEquals("Error: Whole forecast should be refreshed after 25 hours",
+                MAX_DAYS, window.days);
+    }
+
+    @Test
+    public void testMissingDayIsRequested() {
+        boolean[] present = allPresent();
+        present[9] = false;
+
+        ForecastWindowPlanner.Window window = plan(present, updatedHoursAgo(1));
+
+        assertEquals("Error: Window should reach the missing day", 10, window.days);
+        assertFalse("Error: Forecast with a missing day should not be complete",
+                window.complete);
+    }
+
+    private static ForecastWindowPlanner.Window plan(boolean[] present, long[] updated) {
+        return ForecastWindowPlanner.plan(present, updated, NOW);
+    }
+
+    private static boolean[] allPresent() {
+        boolean[] present = new boolean[MAX_DAYS];
+        Arrays.fill(present, true);
+        return present;
+    }
+
+    private static long[] updatedHoursAgo(int hours) {
+        long[] updated = new long[MAX_DAYS];
+        Arrays.fill(updated, NOW - TimeUnit.HOURS.toMillis(hours));
+        return updated;
+    }
+}
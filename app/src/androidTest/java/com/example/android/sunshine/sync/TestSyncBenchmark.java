@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.StubWeatherTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Runs the whole sync, from the request down to the database, against a
+ * {@link StubWeatherTransport}, so that it can be timed on a device without a network
+ * connection.
+ * <p>
+ * The results are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncBenchmark {
+
+    private static final String TAG = TestSyncBenchmark.class.getSimpleName();
+
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 50;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubWeatherTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransport = new StubWeatherTransport();
+        NetworkUtils.setTransport(mTransport);
+        SyncTestUtilities.resetSyncState(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(null);
+        SyncTestUtilities.resetSyncState(mContext);
+    }
+
+    @Test
+    public void benchmarkFullSync() {
+        runSyncs("full sync");
+    }
+
+    @Test
+    public void benchmarkFullSyncGzipped() {
+        mTransport.setCompress(true);
+        runSyncs("full sync, gzipped");
+    }
+
+    @Test
+    public void benchmarkNotModifiedSync() {
+        mTransport.setServeEtag(true);
+        runSyncs("not modified sync");
+    }
+
+    /*
+     * Before every sync, the stored forecast is marked as stale, so that each sync asks for the
+     * full forecast rather than finding nothing to refresh.
+     */
+    private void runSyncs(String name) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            SyncTestUtilities.markForecastStale(mContext);
+            SunshineSyncTask.syncWeather(mContext);
+        }
+        mTransport.resetRequestCount();
+
+        long elapsedNanos = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            SyncTestUtilities.markForecastStale(mContext);
+            long start = System.nanoTime();
+            SunshineSyncTask.syncWeather(mContext);
+            elapsedNanos += System.nanoTime() - start;
+        }
+
+        assertEquals("Error: Every sync should have made exactly one request",
+                MEASURED_ITERATIONS, mTransport.getRequestCount());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+        assertNotNull("Error: Weather query returned null", cursor);
+        assertEquals("Error: The stub forecast was not stored", 14, cursor.getCount());
+        cursor.close();
+
+        Log.i(TAG, String.format("%s: %.3f ms per sync", name,
+                elapsedNanos / 1e6 / MEASURED_ITERATIONS));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.StubWeatherTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Fires many syncs at the same time and makes sure they share a single request to the weather
+ * server, as if the empty check, the settings screen and the scheduled job all started a sync
+ * at once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncCoalescing {
+
+    private static final int CONCURRENT_SYNCS = 50;
+
+    /* Long enough for every thread to join the sync before its request completes */
+    private static final long REQUEST_LATENCY_MILLIS = 1000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubWeatherTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransport = new StubWeatherTransport();
+        mTransport.setLatencyMillis(REQUEST_LATENCY_MILLIS);
+        NetworkUtils.setTransport(mTransport);
+        SyncTestUtilities.resetSyncState(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(null);
+        SyncTestUtilities.resetSyncState(mContext);
+    }
+
+    @Test
+    public void testConcurrentSyncsShareOneRequest() throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(CONCURRENT_SYNCS);
+        final AtomicInteger updatedCount = new AtomicInteger();
+
+        for (int i = 0; i < CONCURRENT_SYNCS; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (SunshineSyncTask.syncWeather(mContext)
+                                == SunshineSyncTask.SYNC_STATUS_UPDATED) {
+                            updatedCount.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue("Error: Syncs did not finish in time",
+                done.await(30, TimeUnit.SECONDS));
+
+        assertEquals("Error: Concurrent syncs did not share a single request",
+                1, mTransport.getRequestCount());
+        assertEquals("Error: Not every sync received the result of the shared sync",
+                CONCURRENT_SYNCS, updatedCount.get());
+    }
+
+    @Test
+    public void testSequentialSyncsEachMakeARequest() {
+        mTransport.setLatencyMillis(0);
+
+        SunshineSyncTask.syncWeather(mContext);
+        SyncTestUtilities.markForecastStale(mContext);
+        SunshineSyncTask.syncWeather(mContext);
+
+        assertEquals("Error: A finished sync was reused by a later one",
+                2, mTransport.getRequestCount());
+    }
+}
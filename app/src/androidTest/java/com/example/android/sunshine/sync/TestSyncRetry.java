@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.StubWeatherTransport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks which failures the sync retries, and that the circuit breaker stops it from contacting
+ * the weather server after too many failed syncs in a row.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncRetry {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubWeatherTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mTransport = new StubWeatherTransport();
+        mTransport.setFailureRate(1);
+        NetworkUtils.setTransport(mTransport);
+
+        /* Retry without waiting, so the tests stay fast */
+        SunshineSyncTask.setRetryPolicy(new RetryPolicy(MAX_ATTEMPTS, 0, 0));
+        SyncTestUtilities.resetSyncState(mContext);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        NetworkUtils.setTransport(null);
+        SunshineSyncTask.setRetryPolicy(null);
+        SyncTestUtilities.resetSyncState(mContext);
+    }
+
+    @Test
+    public void testServerErrorIsRetried() {
+        mTransport.setFailureResponseCode(HttpURLConnection.HTTP_UNAVAILABLE);
+
+        assertEquals("Error: Sync should ask to be retried after server errors",
+                SunshineSyncTask.SYNC_STATUS_RETRY, SunshineSyncTask.syncWeather(mContext));
+        assertEquals("Error: Server error was not retried",
+                MAX_ATTEMPTS, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void testNetworkErrorIsRetried() {
+        mTransport.setFailureResponseCode(0);
+
+        assertEquals("Error: Sync should ask to be retried after network errors",
+                SunshineSyncTask.SYNC_STATUS_RETRY, SunshineSyncTask.syncWeather(mContext));
+        assertEquals("Error: Network error was not retried",
+                MAX_ATTEMPTS, mTransport.getRequestCount());
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() {
+        mTransport.setFailureResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+
+        assertEquals("Error: Sync should fail for good after a client error",
+                SunshineSyncTask.SYNC_STATUS_FAILED, SunshineSyncTask.syncWeather(mContext));
+        assertEquals("Error: Client error was retried",
+                1, mTransport.getRequestCount());
+        assertEquals("Error: Client error counted against the circuit breaker",
+                0, SunshinePreferences.getSyncFailureCount(mContext));
+    }
+
+    @Test
+    public void testCircuitOpensAfterRepeatedFailures() {
+        mTransport.setFailureResponseCode(HttpURLConnection.HTTP_UNAVAILABLE);
+
+        int status = SunshineSyncTask.SYNC_STATUS_RETRY;
+        int syncs = 0;
+        while (status == SunshineSyncTask.SYNC_STATUS_RETRY && syncs < 20) {
+            status = SunshineSyncTask.syncWeather(mContext);
+            syncs++;
+        }
+        assertEquals("Error: Circuit breaker never opened",
+                SunshineSyncTask.SYNC_STATUS_CIRCUIT_OPEN, status);
+
+        int requestCount = mTransport.getRequestCount();
+        SunshineSyncTask.syncWeather(mContext);
+        assertEquals("Error: Sync contacted the server while the circuit was open",
+                requestCount, mTransport.getRequestCount());
+
+        /* Once the circuit closes again, a successful sync resets it */
+        SunshinePreferences.saveSyncCircuitState(mContext,
+                SunshinePreferences.getSyncFailureCount(mContext), 0);
+        mTransport.setFailureRate(0);
+        assertTrue("Error: Sync failed after the circuit closed",
+                SunshineSyncTask.syncWeather(mContext) != SunshineSyncTask.SYNC_STATUS_FAILED);
+        assertEquals("Error: Successful sync did not reset the circuit breaker",
+                0, SunshinePreferences.getSyncFailureCount(mContext));
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link WeatherTransport} that never touches the network. Every request is answered from
+ * memory with a fixture forecast, after an optional delay, and a configurable share of requests
+ * fail. This lets us exercise and benchmark the whole sync, from the request down to the
+ * database, on a device or emulator without a network connection.
+ * <p>
+ * Like a real server, it can tag its response with an ETag and answer 304 Not Modified to a
+ * request that already has it, and gzip the response when the request accepts it.
+ * <p>
+ * All settings can be changed while requests are in flight.
+ */
+public class StubWeatherTransport implements WeatherTransport {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final Random mRandom = new Random();
+
+    private volatile byte[] mFixture;
+    private volatile String mFixtureEtag;
+    private volatile long mLatencyMillis;
+    private volatile double mFailureRate;
+    private volatile int mFailureResponseCode;
+    private volatile boolean mServeEtag;
+    private volatile boolean mCompress;
+
+    /**
+     * Creates a stub that serves a random 14 day forecast with no delay and no failures.
+     */
+    public StubWeatherTransport() {
+        setFixtureJson(FakeDataUtils.createFakeForecastJson(14));
+    }
+
+    /**
+     * @param json The forecast JSON to answer every request with
+     */
+    public void setFixtureJson(String json) {
+        mFixture = json.getBytes(UTF_8);
+        mFixtureEtag = String.format(Locale.US, "\"%08x\"", json.hashCode());
+    }
+
+    /**
+     * @param latencyMillis How long every request takes before it is answered
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param failureRate The share of requests, between 0 and 1, that should fail
+     */
+    public void setFailureRate(double failureRate) {
+        mFailureRate = failureRate;
+    }
+
+    /**
+     * @param responseCode The HTTP status code failed requests are answered with. Use 0 to make
+     *                     them throw an IOException instead, as a broken connection would.
+     */
+    public void setFailureResponseCode(int responseCode) {
+        mFailureResponseCode = responseCode;
+    }
+
+    /**
+     * @param serveEtag Whether responses should carry an ETag, and requests with a matching
+     *                  If-None-Match header be answered with 304 Not Modified
+     */
+    public void setServeEtag(boolean serveEtag) {
+        mServeEtag = serveEtag;
+    }
+
+    /**
+     * @param compress Whether responses should be gzipped when the request accepts it
+     */
+    public void setCompress(boolean compress) {
+        mCompress = compress;
+    }
+
+    /**
+     * @return How many requests this transport has received, including failed ones
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Sets the number of requests received back to zero.
+     */
+    public void resetRequestCount() {
+        mRequestCount.set(0);
+    }
+
+    @Override
+    public Response execute(URL url, Map<String, String> requestHeaders) throws IOException {
+        mRequestCount.incrementAndGet();
+
+        long latencyMillis = mLatencyMillis;
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted requesting " + url);
+            }
+        }
+
+        if (mRandom.nextDouble() < mFailureRate) {
+            int failureResponseCode = mFailureResponseCode;
+            if (failureResponseCode == 0) {
+                throw new IOException("Simulated failure requesting " + url);
+            }
+            return new StubResponse(failureResponseCode, new HashMap<String, String>(),
+                    new byte[0]);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String etag = mFixtureEtag;
+        if (mServeEtag) {
+            headers.put("etag", etag);
+            if (etag.equals(getHeader(requestHeaders, "If-None-Match"))) {
+                return new StubResponse(HttpURLConnection.HTTP_NOT_MODIFIED, headers, null);
+            }
+        }
+
+        byte[] body = mFixture;
+        String acceptEncoding = getHeader(requestHeaders, "Accept-Encoding");
+        if (mCompress && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            body = gzip(body);
+            headers.put("content-encoding", "gzip");
+        }
+        return new StubResponse(HttpURLConnection.HTTP_OK, headers, body);
+    }
+
+    private static String getHeader(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4);
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        out.write(data);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    /**
+     * A response served from memory. Header names are stored in lower case.
+     */
+    private static final class StubResponse implements Response {
+
+        private final int mResponseCode;
+        private final Map<String, String> mHeaders;
+        private final byte[] mBody;
+
+        StubResponse(int responseCode, Map<String, String> headers, byte[] body) {
+            mResponseCode = responseCode;
+            mHeaders = headers;
+            mBody = body;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+
+        @Override
+        public int getContentLength() {
+            return mBody == null ? -1 : mBody.length;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return mBody == null ? null : new ByteArrayInputStream(mBody);
+        }
+
+        @Override
+        public void close() {
+            /* Nothing to release */
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests the eviction order, persistence and atomic writes of {@link ForecastDiskCache}. Every
+ * test uses its own directory with a budget of three 100 byte responses.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastDiskCache {
+
+    private static final int ENTRY_SIZE = 100;
+    private static final long MAX_BYTES = 3 * ENTRY_SIZE;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test-forecast-cache");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+        ForecastDiskCache cache = new ForecastDiskCache(mDirectory, MAX_BYTES);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+
+        /* Reading "a" makes "b" the least recently used entry */
+        cache.get("a").close();
+        put(cache, "d");
+
+        assertNotNull("Error: Recently read entry was evicted", cache.get("a"));
+        assertNull("Error: Least recently used entry was not evicted", cache.get("b"));
+        assertEquals("Error: Cache is over its budget", MAX_BYTES, cache.size());
+    }
+
+    @Test
+    public void testEntriesSurviveReopening() throws IOException {
+        ForecastDiskCache cache = new ForecastDiskCache(mDirectory, MAX_BYTES);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        cache.get("a").close();
+
+        ForecastDiskCache reopened = new ForecastDiskCache(mDirectory, MAX_BYTES);
+        assertEquals("Error: Size was not restored", MAX_BYTES, reopened.size());
+
+        /* The access order must have been restored from the journal as well */
+        put(reopened, "d");
+        assertNotNull("Error: Recently read entry was evicted after reopening",
+                reopened.get("a"));
+        assertNull("Error: Least recently used entry was not evicted after reopening",
+                reopened.get("b"));
+    }
+
+    @Test
+    public void testAbortedWriteKeepsPreviousEntry() throws IOException {
+        ForecastDiskCache cache = new ForecastDiskCache(mDirectory, MAX_BYTES);
+        byte[] original = put(cache, "a");
+
+        ForecastDiskCache.Editor editor = cache.edit("a");
+        drain(editor.tee(new ByteArrayInputStream(new byte[ENTRY_SIZE * 2])));
+        editor.abort();
+
+        assertEquals("Error: Aborted write replaced the cached response",
+                original.length, read(cache.get("a")).length);
+        assertEquals("Error: Temporary file was left behind", 2, mDirectory.list().length);
+    }
+
+    private static byte[] put(ForecastDiskCache cache, String url) throws IOException {
+        byte[] data = new byte[ENTRY_SIZE];
+        ForecastDiskCache.Editor editor = cache.edit(url);
+        drain(editor.tee(new ByteArrayInputStream(data)));
+        editor.commit();
+        return data;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64];
+        while (in.read(buffer) != -1) {
+            /* Keep reading */
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Makes sure that every Content-Encoding NetworkUtils asks the server for can be decoded back
+ * into the original forecast JSON, and that the size of a response is recorded both as it came
+ * off the wire and as it was decoded.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestResponseDecoding {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mForecastJson = FakeDataUtils.createFakeForecastJson(14);
+
+    /* Reads the whole body of a response back into a String */
+    private static final NetworkUtils.ResponseHandler<String> READ_BODY =
+            new NetworkUtils.ResponseHandler<String>() {
+                @Override
+                public String onResponse(InputStream in, int contentLength) throws IOException {
+                    return readAll(in);
+                }
+
+                @Override
+                public String onNotModified() {
+                    return null;
+                }
+            };
+
+    @After
+    public void tearDown() {
+        NetworkUtils.setTransport(null);
+    }
+
+    @Test
+    public void testIdentityResponseIsPassedThrough() throws IOException {
+        byte[] body = mForecastJson.getBytes(UTF_8);
+
+        assertEquals("Error: Response without a Content-Encoding was altered",
+                mForecastJson, decode(body, null));
+        assertEquals("Error: Response with identity Content-Encoding was altered",
+                mForecastJson, decode(body, "identity"));
+    }
+
+    @Test
+    public void testGzipResponseIsDecoded() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(body);
+        out.write(mForecastJson.getBytes(UTF_8));
+        out.close();
+
+        assertTrue("Error: Fake forecast didn't compress",
+                body.size() < mForecastJson.length());
+        assertEquals("Error: gzip response was not decoded correctly",
+                mForecastJson, decode(body.toByteArray(), "gzip"));
+    }
+
+    @Test
+    public void testZlibDeflateResponseIsDecoded() throws IOException {
+        assertEquals("Error: zlib wrapped deflate response was not decoded correctly",
+                mForecastJson, decode(deflate(false), "deflate"));
+    }
+
+    @Test
+    public void testRawDeflateResponseIsDecoded() throws IOException {
+        assertEquals("Error: raw deflate response was not decoded correctly",
+                mForecastJson, decode(deflate(true), "deflate"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownEncodingIsRejected() throws IOException {
+        decode(mForecastJson.getBytes(UTF_8), "br");
+    }
+
+    private byte[] deflate(boolean raw) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        OutputStream out = new DeflaterOutputStream(body, deflater);
+        out.write(mForecastJson.getBytes(UTF_8));
+        out.close();
+        deflater.end();
+        return body.toByteArray();
+    }
+
+    @Test
+    public void testCompressedResponseIsCounted() throws IOException, JSONException {
+        ResponseStats stats = request(true);
+
+        assertEquals("Error: The response wasn't compressed", "gzip", stats.getContentEncoding());
+        assertEquals("Error: The decoded size isn't the size of the forecast",
+                mForecastJson.getBytes(UTF_8).length, stats.getBytesDecoded());
+        assertTrue("Error: The compressed size (" + stats.getBytesReceived()
+                        + ") isn't smaller than the decoded size (" + stats.getBytesDecoded() + ")",
+                stats.getBytesReceived() < stats.getBytesDecoded());
+    }
+
+    @Test
+    public void testIdentityResponseIsCountedOnce() throws IOException, JSONException {
+        ResponseStats stats = request(false);
+
+        assertEquals("Error: The response was encoded", "identity", stats.getContentEncoding());
+        assertEquals("Error: An identity response decoded to a different size",
+                stats.getBytesReceived(), stats.getBytesDecoded());
+    }
+
+    /**
+     * Requests the forecast from a StubWeatherTransport, through NetworkUtils.
+     *
+     * @param compress Whether the stub compresses its response
+     * @return The sizes NetworkUtils recorded for the response
+     */
+    private ResponseStats request(boolean compress) throws IOException, JSONException {
+        StubWeatherTransport transport = new StubWeatherTransport();
+        transport.setFixtureJson(mForecastJson);
+        transport.setCompress(compress);
+        NetworkUtils.setTransport(transport);
+
+        ResponseStats stats = new ResponseStats();
+        String response = NetworkUtils.getResponseFromHttpUrl(null,
+                new URL("http://localhost/forecast"), READ_BODY, stats);
+        assertEquals("Error: The forecast was not read back correctly", mForecastJson, response);
+        return stats;
+    }
+
+    private static String decode(byte[] body, String contentEncoding) throws IOException {
+        InputStream in = NetworkUtils.decodeResponseStream(
+                new ByteArrayInputStream(body), contentEncoding);
+        try {
+            return readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            decoded.write(buffer, 0, read);
+        }
+        return new String(decoded.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Compares the time it takes to turn a forecast response into ContentValues using the original
+ * Scanner + JSONObject path against the streaming path used by the sync. The responses are served
+ * from memory so that only the reading and parsing is measured.
+ * <p>
+ * The results are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestResponseParsingBenchmark {
+
+    private static final String TAG = TestResponseParsingBenchmark.class.getSimpleName();
+
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void benchmarkFourteenDayForecast() throws Exception {
+        compareParsingPaths(14);
+    }
+
+    @Test
+    public void benchmarkSixteenDayForecast() throws Exception {
+        compareParsingPaths(16);
+    }
+
+    private void compareParsingPaths(int numDays) throws Exception {
+        byte[] response = FakeDataUtils.createFakeForecastJson(numDays)
+                .getBytes(Charset.forName("UTF-8"));
+
+        /* Both paths must agree on what they parsed before we bother timing them */
+        assertEquals("Scanner path parsed an unexpected number of days",
+                numDays, parseWithScanner(response).length);
+        assertEquals("Streaming path parsed an unexpected number of days",
+                numDays, parseWithStream(response).length);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            parseWithScanner(response);
+            parseWithStream(response);
+        }
+
+        long scannerStart = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            parseWithScanner(response);
+        }
+        long scannerNanos = (System.nanoTime() - scannerStart) / MEASURED_ITERATIONS;
+
+        long streamStart = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            parseWithStream(response);
+        }
+        long streamNanos = (System.nanoTime() - streamStart) / MEASURED_ITERATIONS;
+
+        Log.i(TAG, numDays + " day forecast (" + response.length + " bytes): "
+                + "scanner " + scannerNanos / 1000 + " us/response, "
+                + "stream " + streamNanos / 1000 + " us/response");
+    }
+
+    private ContentValues[] parseWithScanner(byte[] response) throws JSONException {
+        String json = NetworkUtils.readResponseAsString(new ByteArrayInputStream(response));
+        ContentValues[] weatherValues =
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json);
+        assertNotNull(weatherValues);
+        return weatherValues;
+    }
+
+    private ContentValues[] parseWithStream(byte[] response) throws IOException, JSONException {
+        NetworkUtils.ResponseHandler<ContentValues[]> handler =
+                new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                    @Override
+                    public ContentValues[] onResponse(InputStream in, int contentLength)
+                            throws IOException, JSONException {
+                        return OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext, in);
+                    }
+
+                    @Override
+                    public ContentValues[] onNotModified() {
+                        return null;
+                    }
+                };
+
+        /* Wrap the response the same way NetworkUtils wraps the body of an HTTP response */
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(response),
+                NetworkUtils.getResponseBufferSize(response.length));
+        ContentValues[] weatherValues = handler.onResponse(in, response.length);
+        in.close();
+        assertNotNull(weatherValues);
+        return weatherValues;
+    }
+}
@@ -25,14 +25,19 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * <p>
+ * In paging mode, set with {@link #setPager(ForecastPager)}, the forecasts come from a
+ * {@link ForecastPager} instead, which loads them a page at a time as the list is scrolled.
  */
-class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ForecastPager.Listener {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
@@ -65,6 +70,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
 
     private Cursor mCursor;
 
+    /* Set in paging mode, in which case mCursor isn't used */
+    private ForecastPager mPager;
+
     /**
      * Creates a ForecastAdapter.
      *
@@ -129,12 +137,34 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        int weatherId;
+        long dateInMillis;
+        double highInCelsius;
+        double lowInCelsius;
+
+        if (mPager != null) {
+            ForecastBatch page = mPager.getPage(position);
+            if (page == null) {
+                /* The page of this day is being loaded, onDaysLoaded will bind it again */
+                bindPlaceholder(forecastAdapterViewHolder);
+                return;
+            }
+            int index = ForecastPager.getIndexInPage(position);
+            weatherId = page.getWeatherId(index);
+            dateInMillis = page.getDate(index);
+            highInCelsius = page.getMaxTemp(index);
+            lowInCelsius = page.getMinTemp(index);
+        } else {
+            mCursor.moveToPosition(position);
+            weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+            dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+            lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+        }
 
         /****************
          * Weather Icon *
          ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
         int weatherImageId;
 
         int viewType = getItemViewType(position);
@@ -160,8 +190,6 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         /****************
          * Weather Date *
          ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
          /* Get human readable string using our utility method */
         String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
 
@@ -182,8 +210,6 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         /**************************
          * High (max) temperature *
          **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -200,8 +226,6 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         /*************************
          * Low (min) temperature *
          *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -215,6 +239,21 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
     }
 
+    /**
+     * Clears a list item whose day hasn't been loaded yet, so that it doesn't show the day it
+     * was last bound to.
+     */
+    private void bindPlaceholder(ForecastAdapterViewHolder forecastAdapterViewHolder) {
+        forecastAdapterViewHolder.iconView.setImageDrawable(null);
+        forecastAdapterViewHolder.dateView.setText(null);
+        forecastAdapterViewHolder.descriptionView.setText(null);
+        forecastAdapterViewHolder.descriptionView.setContentDescription(null);
+        forecastAdapterViewHolder.highTempView.setText(null);
+        forecastAdapterViewHolder.highTempView.setContentDescription(null);
+        forecastAdapterViewHolder.lowTempView.setText(null);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(null);
+    }
+
     /**
      * This method simply returns the number of items to display. It is used behind the scenes
      * to help layout our Views and for animations.
@@ -223,6 +262,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
+        if (null != mPager) return mPager.getItemCount();
         if (null == mCursor) return 0;
         return mCursor.getCount();
     }
@@ -259,6 +299,37 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         notifyDataSetChanged();
     }
 
+    /**
+     * Switches the ForecastAdapter to paging mode. The pager must be created with this adapter
+     * as its {@link ForecastPager.Listener}, and started by the caller.
+     *
+     * @param pager the pager to use as ForecastAdapter's data source
+     */
+    void setPager(ForecastPager pager) {
+        mPager = pager;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onDaysAdded(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onDaysLoaded(int position, int count) {
+        notifyItemRangeChanged(position, count);
+    }
+
+    @Override
+    public void onDaysChanged(int position, int count) {
+        notifyItemRangeChanged(position, count);
+    }
+
+    @Override
+    public void onDaysRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+
     /**
      * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
      * a cache of the child views for a forecast item. It's also a convenient place to set an
@@ -294,8 +365,18 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            long dateInMillis;
+            if (mPager != null) {
+                ForecastBatch page = mPager.getPage(adapterPosition);
+                if (page == null) {
+                    /* Nothing is displayed yet, so there is nothing to open */
+                    return;
+                }
+                dateInMillis = page.getDate(ForecastPager.getIndexInPage(adapterPosition));
+            } else {
+                mCursor.moveToPosition(adapterPosition);
+                dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            }
             mClickHandler.onClick(dateInMillis);
         }
     }
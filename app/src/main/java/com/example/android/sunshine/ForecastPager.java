@@ -0,0 +1,364 @@
+package com.example.android.sunshine;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.support.v4.util.LruCache;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.ForecastDao;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the forecast from today onwards a page at a time, for {@link ForecastAdapter}'s paging
+ * mode. Instead of one Cursor holding every row of the table, only the last few pages that were
+ * displayed are kept, as compact arrays. Scrolling back to a page that was dropped loads it
+ * again.
+ * <p>
+ * Pages are read with {@link ForecastDao#queryPage(long, int)}, the same query as
+ * {@link WeatherContract.WeatherEntry#buildWeatherPageUri(long, int)}: every page starts after
+ * the last date of the page before it. Apart from the cached pages, the only thing kept for every
+ * page is that date, so memory stays bounded however large the table grows. The DAO reads the
+ * database directly, so changes to the forecast are still watched through the ContentProvider.
+ * <p>
+ * When the forecast changes, every page that is known is read again from the top, and the list is
+ * updated in place once they all are: the cached pages are swapped for the new ones, the days that
+ * were already displayed are reported as changed, and days are added or removed at the end. The
+ * list keeps its length and scroll position while the pages are read again.
+ * <p>
+ * The pager doesn't hold on to an Activity, so it can be kept across a configuration change and
+ * handed to the new adapter with {@link #setListener(Listener)}.
+ * <p>
+ * Pages are loaded on a background thread. Every method must be called on the main thread, and
+ * so are the methods of the {@link Listener}.
+ */
+class ForecastPager {
+
+    private static final String TAG = ForecastPager.class.getSimpleName();
+
+    /* How many days a page holds */
+    private static final int PAGE_SIZE = 30;
+
+    /* How many pages are kept in memory */
+    private static final int CACHED_PAGES = 4;
+
+    /* How close to the end of the list the next page starts loading, in days */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Told when days can be displayed, so that the adapter can update the RecyclerView.
+     */
+    interface Listener {
+
+        /**
+         * Days were appended to the end of the list.
+         */
+        void onDaysAdded(int position, int count);
+
+        /**
+         * Days that were being loaded again can now be displayed.
+         */
+        void onDaysLoaded(int position, int count);
+
+        /**
+         * The forecast changed, and days that were in the list were read again.
+         */
+        void onDaysChanged(int position, int count);
+
+        /**
+         * The forecast changed, and days were removed from the end of the list.
+         */
+        void onDaysRemoved(int position, int count);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final ForecastDao mForecastDao;
+    private Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final LruCache<Integer, ForecastBatch> mPages = new LruCache<Integer, ForecastBatch>(CACHED_PAGES);
+
+    /* The date every page starts after. The key of page i + 1 is the last date of page i. */
+    private final List<Long> mPageKeys = new ArrayList<Long>();
+
+    /* The pages that are being loaded */
+    private final Set<Integer> mLoading = new HashSet<Integer>();
+
+    private int mItemCount;
+    private boolean mEndReached;
+
+    /* Incremented on every refresh, so that pages loaded before it are dropped */
+    private int mGeneration;
+
+    /* The forecast is notified once per write, however many days it changed */
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            refresh();
+        }
+    };
+
+    /**
+     * @param context  Used to read the forecast, and watch it for changes. Only the application
+     *                 context is kept.
+     * @param listener Told when days can be displayed
+     */
+    ForecastPager(Context context, Listener listener) {
+        Context applicationContext = context.getApplicationContext();
+        mContentResolver = applicationContext.getContentResolver();
+        mForecastDao = new ForecastDao(applicationContext);
+        mListener = listener;
+    }
+
+    /**
+     * Hands the pager to another listener, such as the adapter of an Activity that was created
+     * again after a configuration change. The new listener reads the days that are already known
+     * with {@link #getItemCount()}.
+     *
+     * @param listener Told when days can be displayed, from now on
+     */
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Loads the first page, and watches the forecast for changes.
+     */
+    void start() {
+        mContentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+        mPageKeys.add(SunshineDateUtils.getNormalizedUtcDateForToday() - 1);
+        refresh();
+    }
+
+    /**
+     * Stops watching the forecast and drops every page. The pager can't be started again.
+     */
+    void stop() {
+        mContentResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdownNow();
+        mGeneration++;
+        mPages.evictAll();
+    }
+
+    /**
+     * @return The number of days that are known, loaded or not
+     */
+    int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * Finds the page that holds a day. If that page isn't in memory, it is loaded, and
+     * {@link Listener#onDaysLoaded(int, int)} is called once it is. When the day is close to the
+     * end of the list, the next page is loaded too.
+     *
+     * @param position The position of the day in the list
+     * @return The page that holds the day, or null if it is being loaded
+     */
+    ForecastBatch getPage(int position) {
+        int pageIndex = position / PAGE_SIZE;
+
+        if (!mEndReached && position >= mItemCount - PREFETCH_DISTANCE) {
+            load(mPageKeys.size() - 1);
+        }
+
+        ForecastBatch page = mPages.get(pageIndex);
+        if (page == null) {
+            load(pageIndex);
+        }
+        return page;
+    }
+
+    /**
+     * @param position The position of the day in the list
+     * @return The index of the day within its page
+     */
+    static int getIndexInPage(int position) {
+        return position % PAGE_SIZE;
+    }
+
+    /**
+     * Reads every page that is known again, from the top, and updates the list in place once they
+     * all are. The first page starts today, which may have moved on since the list was loaded.
+     * Until then, the pages that were loaded before are still displayed.
+     */
+    private void refresh() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mGeneration++;
+        mLoading.clear();
+
+        final int generation = mGeneration;
+        final int pageCount = mPageKeys.size();
+        final Set<Integer> cachedPages = new HashSet<Integer>(mPages.snapshot().keySet());
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Refresh refresh = queryPages(pageCount, cachedPages);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRefreshed(generation, refresh);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRefreshed(int generation, Refresh refresh) {
+        if (generation != mGeneration || refresh == null) {
+            return;
+        }
+        /* Pages that started loading with the old keys are dropped */
+        mGeneration++;
+        mLoading.clear();
+
+        mPageKeys.clear();
+        mPageKeys.addAll(refresh.pageKeys);
+        mPages.evictAll();
+        for (Map.Entry<Integer, ForecastBatch> page : refresh.pages.entrySet()) {
+            mPages.put(page.getKey(), page.getValue());
+        }
+        mEndReached = refresh.endReached;
+
+        int oldCount = mItemCount;
+        mItemCount = refresh.itemCount;
+        int kept = Math.min(oldCount, mItemCount);
+        if (kept > 0) {
+            mListener.onDaysChanged(0, kept);
+        }
+        if (mItemCount > oldCount) {
+            mListener.onDaysAdded(oldCount, mItemCount - oldCount);
+        } else if (mItemCount < oldCount) {
+            mListener.onDaysRemoved(mItemCount, oldCount - mItemCount);
+        }
+    }
+
+    private void load(final int pageIndex) {
+        if (mLoading.contains(pageIndex) || mPages.get(pageIndex) != null
+                || mExecutor.isShutdown()) {
+            return;
+        }
+        mLoading.add(pageIndex);
+
+        final int generation = mGeneration;
+        final long afterDate = mPageKeys.get(pageIndex);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ForecastBatch page = queryPage(afterDate);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(generation, pageIndex, page);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int generation, int pageIndex, ForecastBatch page) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mLoading.remove(pageIndex);
+        if (page == null) {
+            return;
+        }
+        mPages.put(pageIndex, page);
+
+        int position = pageIndex * PAGE_SIZE;
+        if (pageIndex < mPageKeys.size() - 1) {
+            /* A page that was dropped, and has been loaded again */
+            mListener.onDaysLoaded(position, page.size());
+            return;
+        }
+
+        /* The last page known so far: its days may not be in the list yet */
+        int added = position + page.size() - mItemCount;
+        if (page.size() < PAGE_SIZE) {
+            mEndReached = true;
+        } else {
+            mPageKeys.add(page.getDate(page.size() - 1));
+        }
+        if (added > 0) {
+            mItemCount += added;
+            mListener.onDaysAdded(position + page.size() - added, added);
+        } else {
+            mListener.onDaysLoaded(position, page.size());
+        }
+    }
+
+    /**
+     * Runs on the background thread. Reads the pages from the top, up to the given number of pages
+     * or the end of the forecast. Only the pages that were cached are kept; of the others, only
+     * the key of the page after them is.
+     *
+     * @param pageCount   How many pages to read
+     * @param cachedPages The indices of the pages that were cached
+     * @return The pages, or null if one of them couldn't be read
+     */
+    private Refresh queryPages(int pageCount, Set<Integer> cachedPages) {
+        Refresh refresh = new Refresh();
+        long afterDate = SunshineDateUtils.getNormalizedUtcDateForToday() - 1;
+        refresh.pageKeys.add(afterDate);
+        for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+            ForecastBatch page = queryPage(afterDate);
+            if (page == null) {
+                return null;
+            }
+            if (pageIndex == 0 || cachedPages.contains(pageIndex)) {
+                refresh.pages.put(pageIndex, page);
+            }
+            refresh.itemCount += page.size();
+            if (page.size() < PAGE_SIZE) {
+                refresh.endReached = true;
+                break;
+            }
+            afterDate = page.getDate(page.size() - 1);
+            refresh.pageKeys.add(afterDate);
+        }
+        return refresh;
+    }
+
+    /**
+     * Runs on the background thread.
+     *
+     * @return The page, or null if it couldn't be read
+     */
+    private ForecastBatch queryPage(long afterDate) {
+        try {
+            return mForecastDao.queryPage(afterDate, PAGE_SIZE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Couldn't read the forecast after " + afterDate, e);
+            return null;
+        }
+    }
+
+    /**
+     * The pages read again by a refresh, handed from the background thread to the main thread.
+     */
+    private static class Refresh {
+        final List<Long> pageKeys = new ArrayList<Long>();
+        final Map<Integer, ForecastBatch> pages = new HashMap<Integer, ForecastBatch>();
+        int itemCount;
+        boolean endReached;
+    }
+}
@@ -74,6 +74,11 @@ public class MainActivity extends AppCompatActivity implements
     private static final int ID_FORECAST_LOADER = 44;
 
     private ForecastAdapter mForecastAdapter;
+
+    /* Only used when the forecast is paged, see R.bool.paged_forecast */
+    private ForecastPager mForecastPager;
+    /* Set when the pager is handed to the Activity created after a configuration change */
+    private boolean mForecastPagerRetained;
     private RecyclerView mRecyclerView;
     private int mPosition = RecyclerView.NO_POSITION;
 
@@ -145,17 +150,62 @@ public class MainActivity extends AppCompatActivity implements
 
         showLoading();
 
-        /*
-         * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
-         * created and (if the activity/fragment is currently started) starts the loader. Otherwise
-         * the last created loader is re-used.
-         */
-        getSupportLoaderManager().initLoader(ID_FORECAST_LOADER, null, this);
+        if (getResources().getBoolean(R.bool.paged_forecast)) {
+            /*
+             * Rather than loading the whole table into one Cursor, the pager loads the forecast
+             * a page at a time as the list is scrolled, and only keeps the last few pages.
+             */
+            mForecastAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    if (positionStart == 0) {
+                        /* The first days were loaded, as in onLoadFinished */
+                        if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
+                        mRecyclerView.smoothScrollToPosition(mPosition);
+                    }
+                    showWeatherDataView();
+                }
+            });
+            /*
+             * The pager is kept across configuration changes, so that the days it has loaded
+             * are displayed straight away, and the list keeps its scroll position.
+             */
+            mForecastPager = (ForecastPager) getLastCustomNonConfigurationInstance();
+            if (mForecastPager == null) {
+                mForecastPager = new ForecastPager(this, mForecastAdapter);
+                mForecastPager.start();
+            } else {
+                mForecastPager.setListener(mForecastAdapter);
+            }
+            mForecastAdapter.setPager(mForecastPager);
+            if (mForecastAdapter.getItemCount() != 0) showWeatherDataView();
+        } else {
+            /*
+             * Ensures a loader is initialized and active. If the loader doesn't already exist,
+             * one is created and (if the activity/fragment is currently started) starts the
+             * loader. Otherwise the last created loader is re-used.
+             */
+            getSupportLoaderManager().initLoader(ID_FORECAST_LOADER, null, this);
+        }
 
         SunshineSyncUtils.initialize(this);
 
     }
 
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        mForecastPagerRetained = mForecastPager != null;
+        return mForecastPager;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mForecastPager != null && !mForecastPagerRetained) {
+            mForecastPager.stop();
+        }
+    }
+
     /**
      * Uses the URI scheme for showing a location found on a map in conjunction with
      * an implicit Intent. This super-handy Intent is detailed in the "Common Intents" page of
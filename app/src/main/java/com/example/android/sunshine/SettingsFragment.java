@@ -102,6 +102,8 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            activity.getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.DAY_CHANGES_URI, null);
         }
         Preference preference = findPreference(key);
         if (null != preference) {
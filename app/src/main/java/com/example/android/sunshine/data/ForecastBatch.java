@@ -0,0 +1,319 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * The days of a forecast, stored column by column in parallel primitive arrays rather than as
+ * one ContentValues per day.
+ * <p>
+ * A ContentValues is a HashMap, so every day of the forecast used to cost a map, its entries and
+ * a boxed Long, Integer or Double for each of its columns. A batch costs one array per column no
+ * matter how many days it holds, which is what the parser produces, what the provider inserts,
+ * and what the notification and the wearable are built from. {@link #toContentValues()} is there
+ * for code that still needs ContentValues.
+ * <p>
+ * A batch is not thread safe. Once it has been filled, it can be read from any thread.
+ */
+public final class ForecastBatch {
+
+    /* Keys used to store the columns of a batch in a Bundle */
+    private static final String KEY_DATE = "date";
+    private static final String KEY_WEATHER_ID = "weather_id";
+    private static final String KEY_MIN_TEMP = "min";
+    private static final String KEY_MAX_TEMP = "max";
+    private static final String KEY_HUMIDITY = "humidity";
+    private static final String KEY_PRESSURE = "pressure";
+    private static final String KEY_WIND_SPEED = "wind";
+    private static final String KEY_DEGREES = "degrees";
+    private static final String KEY_UPDATED = "updated";
+
+    /* A forecast is 14 days long unless we're told otherwise */
+    private static final int DEFAULT_CAPACITY = 14;
+
+    private long[] mDate;
+    private int[] mWeatherId;
+    private double[] mMinTemp;
+    private double[] mMaxTemp;
+    private double[] mHumidity;
+    private double[] mPressure;
+    private double[] mWindSpeed;
+    private double[] mDegrees;
+    private int mSize;
+
+    private long mUpdated;
+
+    /**
+     * Creates an empty batch with room for a 14 day forecast.
+     */
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch. It grows as needed, but adding more days than its capacity means
+     * copying every column.
+     *
+     * @param capacity The number of days the batch can hold without growing
+     */
+    public ForecastBatch(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        }
+        mDate = new long[capacity];
+        mWeatherId = new int[capacity];
+        mMinTemp = new double[capacity];
+        mMaxTemp = new double[capacity];
+        mHumidity = new double[capacity];
+        mPressure = new double[capacity];
+        mWindSpeed = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Adds a day to the end of the batch.
+     *
+     * @param date      Normalized UTC date of the day
+     * @param weatherId Weather ID as returned by the API
+     * @param minTemp   Min temperature for the day
+     * @param maxTemp   Max temperature for the day
+     * @param humidity  Humidity as a percentage
+     * @param pressure  Atmospheric pressure
+     * @param windSpeed Wind speed
+     * @param degrees   Wind direction in meteorological degrees
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degrees) {
+        if (mSize == mDate.length) {
+            grow();
+        }
+        mDate[mSize] = date;
+        mWeatherId[mSize] = weatherId;
+        mMinTemp[mSize] = minTemp;
+        mMaxTemp[mSize] = maxTemp;
+        mHumidity[mSize] = humidity;
+        mPressure[mSize] = pressure;
+        mWindSpeed[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDate.length * 2);
+        mDate = Arrays.copyOf(mDate, capacity);
+        mWeatherId = Arrays.copyOf(mWeatherId, capacity);
+        mMinTemp = Arrays.copyOf(mMinTemp, capacity);
+        mMaxTemp = Arrays.copyOf(mMaxTemp, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * @return The number of days in the batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the batch holds no days
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getDate(int index) {
+        checkIndex(index);
+        return mDate[index];
+    }
+
+    public int getWeatherId(int index) {
+        checkIndex(index);
+        return mWeatherId[index];
+    }
+
+    public double getMinTemp(int index) {
+        checkIndex(index);
+        return mMinTemp[index];
+    }
+
+    public double getMaxTemp(int index) {
+        checkIndex(index);
+        return mMaxTemp[index];
+    }
+
+    public double getHumidity(int index) {
+        checkIndex(index);
+        return mHumidity[index];
+    }
+
+    public double getPressure(int index) {
+        checkIndex(index);
+        return mPressure[index];
+    }
+
+    public double getWindSpeed(int index) {
+        checkIndex(index);
+        return mWindSpeed[index];
+    }
+
+    public double getDegrees(int index) {
+        checkIndex(index);
+        return mDegrees[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+    }
+
+    /**
+     * @param date Normalized UTC date of a day
+     * @return The index of that day in the batch, or -1 if the batch doesn't hold it
+     */
+    public int indexOfDate(long date) {
+        for (int i = 0; i < mSize; i++) {
+            if (mDate[i] == date) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return When every day of the batch was downloaded (in milliseconds since the epoch), or
+     * 0 if WeatherProvider should use the time the batch is inserted
+     */
+    public long getUpdated() {
+        return mUpdated;
+    }
+
+    /**
+     * @param updated When every day of the batch was downloaded, in milliseconds since the epoch.
+     *                Use 0 to have WeatherProvider stamp the days with the time they are inserted.
+     */
+    public void setUpdated(long updated) {
+        mUpdated = updated;
+    }
+
+    /**
+     * Converts the batch to the ContentValues that {@link android.content.ContentResolver#bulkInsert}
+     * expects. This allocates everything the batch saves, so it should only be used where
+     * ContentValues are required.
+     *
+     * @return One ContentValues per day, in order
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDate[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidity[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressure[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeed[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemp[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemp[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherId[i]);
+            if (mUpdated != 0) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_UPDATED, mUpdated);
+            }
+            weatherContentValues[i] = weatherValues;
+        }
+        return weatherContentValues;
+    }
+
+    /**
+     * Stores the batch in a Bundle, one primitive array per column, so that it can be handed to
+     * {@link WeatherProvider#call}, or returned from it.
+     * <p>
+     * A batch that is exactly full hands its arrays to the Bundle as they are. Adding another
+     * day to it afterwards grows it into new arrays, so the Bundle never sees the change.
+     *
+     * @return A Bundle holding the batch
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLongArray(KEY_DATE, trim(mDate));
+        bundle.putIntArray(KEY_WEATHER_ID, trim(mWeatherId));
+        bundle.putDoubleArray(KEY_MIN_TEMP, trim(mMinTemp));
+        bundle.putDoubleArray(KEY_MAX_TEMP, trim(mMaxTemp));
+        bundle.putDoubleArray(KEY_HUMIDITY, trim(mHumidity));
+        bundle.putDoubleArray(KEY_PRESSURE, trim(mPressure));
+        bundle.putDoubleArray(KEY_WIND_SPEED, trim(mWindSpeed));
+        bundle.putDoubleArray(KEY_DEGREES, trim(mDegrees));
+        bundle.putLong(KEY_UPDATED, mUpdated);
+        return bundle;
+    }
+
+    private long[] trim(long[] column) {
+        return column.length == mSize ? column : Arrays.copyOf(column, mSize);
+    }
+
+    private int[] trim(int[] column) {
+        return column.length == mSize ? column : Arrays.copyOf(column, mSize);
+    }
+
+    private double[] trim(double[] column) {
+        return column.length == mSize ? column : Arrays.copyOf(column, mSize);
+    }
+
+    /**
+     * Reads a batch stored by {@link #toBundle()}. The arrays are used as they are, not copied.
+     *
+     * @param bundle A Bundle returned by {@link #toBundle()}
+     * @return The batch
+     * @throws IllegalArgumentException If the Bundle doesn't hold a batch
+     */
+    public static ForecastBatch fromBundle(Bundle bundle) {
+        long[] date = bundle == null ? null : bundle.getLongArray(KEY_DATE);
+        if (date == null) {
+            throw new IllegalArgumentException("Bundle doesn't hold a forecast batch");
+        }
+
+        ForecastBatch batch = new ForecastBatch(0);
+        batch.mDate = date;
+        batch.mWeatherId = bundle.getIntArray(KEY_WEATHER_ID);
+        batch.mMinTemp = bundle.getDoubleArray(KEY_MIN_TEMP);
+        batch.mMaxTemp = bundle.getDoubleArray(KEY_MAX_TEMP);
+        batch.mHumidity = bundle.getDoubleArray(KEY_HUMIDITY);
+        batch.mPressure = bundle.getDoubleArray(KEY_PRESSURE);
+        batch.mWindSpeed = bundle.getDoubleArray(KEY_WIND_SPEED);
+        batch.mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+        batch.mUpdated = bundle.getLong(KEY_UPDATED);
+        batch.mSize = date.length;
+
+        if (!hasLength(batch.mWeatherId, date.length) || !hasLength(batch.mMinTemp, date.length)
+                || !hasLength(batch.mMaxTemp, date.length)
+                || !hasLength(batch.mHumidity, date.length)
+                || !hasLength(batch.mPressure, date.length)
+                || !hasLength(batch.mWindSpeed, date.length)
+                || !hasLength(batch.mDegrees, date.length)) {
+            throw new IllegalArgumentException("Columns of the forecast batch differ in length");
+        }
+        return batch;
+    }
+
+    /**
+     * @param bundle Any Bundle
+     * @return The number of days of the batch stored in the Bundle by {@link #toBundle()}, or 0
+     * if it doesn't hold one
+     */
+    static int sizeOf(Bundle bundle) {
+        long[] date = bundle.getLongArray(KEY_DATE);
+        return date != null ? date.length : 0;
+    }
+
+    private static boolean hasLength(int[] column, int length) {
+        return column != null && column.length == length;
+    }
+
+    private static boolean hasLength(double[] column, int length) {
+        return column != null && column.length == length;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Reads the forecast for the app itself, straight from the database that {@link WeatherProvider}
+ * writes to, into a {@link ForecastBatch}.
+ * <p>
+ * The provider isn't exported, so every query the app sent through the ContentResolver was
+ * answered in the same process anyway, but it still paid for looking up the provider, wrapping
+ * the Cursor on the way out, and filling a CursorWindow that the caller copied into its own
+ * fields before closing it. The DAO runs the query on the shared {@link WeatherDbHelper}, copies
+ * each row into the batch as primitives, and closes the Cursor itself.
+ * <p>
+ * The DAO only reads. Every write still goes through WeatherProvider, which notifies observers
+ * and keeps its query cache up to date, so anything that has to be told when the forecast
+ * changes (Loaders, ContentObservers) keeps using the provider. Reading the database directly
+ * is safe alongside it: the DAO never sees a half written sync, as every write happens in a
+ * transaction.
+ * <p>
+ * Every method does disk I/O, and must be called off the main thread.
+ */
+public final class ForecastDao {
+
+    /*
+     * The columns a batch holds, as they are stored. They are decoded here rather than in SQL,
+     * see WeatherEncoding.
+     */
+    private static final String[] BATCH_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_DEGREES = 7;
+
+    private static final String SELECTION_DATE = WeatherEntry.COLUMN_DATE + " = ?";
+    private static final String SELECTION_FROM_DATE = WeatherEntry.COLUMN_DATE + " >= ?";
+    private static final String SELECTION_AFTER_DATE = WeatherEntry.COLUMN_DATE + " > ?";
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final WeatherDbHelper mOpenHelper;
+
+    /**
+     * @param context Used to open the database
+     */
+    public ForecastDao(Context context) {
+        mOpenHelper = WeatherDbHelper.getInstance(context);
+    }
+
+    /**
+     * @param date Normalized UTC date of a day
+     * @return The weather for that day, or an empty batch if the database doesn't hold it
+     */
+    public ForecastBatch queryDay(long date) {
+        return queryDays(mOpenHelper.getReadableDatabase(), SELECTION_DATE, date, 1);
+    }
+
+    /**
+     * @param startDate Normalized UTC date of the first day
+     * @param limit     The most days to return
+     * @return The weather from that day onwards, in order of date
+     */
+    public ForecastBatch queryForecast(long startDate, int limit) {
+        return queryForecast(mOpenHelper.getReadableDatabase(), startDate, limit);
+    }
+
+    /**
+     * Reads the forecast for {@link WeatherContract#METHOD_GET_FORECAST_PACKED}, on the
+     * database of WeatherProvider.
+     *
+     * @param db        The database to read
+     * @param startDate Normalized UTC date of the first day
+     * @param limit     The most days to return
+     * @return The weather from that day onwards, in order of date
+     */
+    static ForecastBatch queryForecast(SQLiteDatabase db, long startDate, int limit) {
+        return queryDays(db, SELECTION_FROM_DATE, startDate, limit);
+    }
+
+    /**
+     * Reads the page of the forecast that follows another one, the way
+     * {@link WeatherEntry#buildWeatherPageUri(long, int)} does.
+     *
+     * @param afterDate The last date of the page before, which this page starts after
+     * @param limit     The most days to return
+     * @return The weather after that day, in order of date
+     */
+    public ForecastBatch queryPage(long afterDate, int limit) {
+        return queryDays(mOpenHelper.getReadableDatabase(), SELECTION_AFTER_DATE, afterDate,
+                limit);
+    }
+
+    /**
+     * @param startDate Normalized UTC date of a day
+     * @return true if the database holds the weather for at least one day from that day onwards
+     */
+    public boolean hasForecastFrom(long startDate) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_DATE},
+                SELECTION_FROM_DATE, new String[]{Long.toString(startDate)}, null, null, null,
+                "1");
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Every day is read in one query, and copied into the columns of the batch. The query fills a
+     * CursorWindow first, as every SQLiteDatabase query does, and each day then takes one getter
+     * call per column: the DAO skips the provider, the projection map and a Cursor for the
+     * caller, not the window. The batch is sized to the Cursor, so it never grows, and toBundle
+     * can hand its arrays over without copying them.
+     */
+    private static ForecastBatch queryDays(SQLiteDatabase db, String selection, long date,
+                                           int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, BATCH_COLUMNS, selection,
+                new String[]{Long.toString(date)}, null, null, SORT_ORDER,
+                Integer.toString(limit));
+        try {
+            ForecastBatch batch = new ForecastBatch(cursor.getCount());
+            while (cursor.moveToNext()) {
+                batch.add(cursor.getLong(INDEX_DATE),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_MIN_TEMP)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_MAX_TEMP)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_HUMIDITY)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_PRESSURE)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_WIND_SPEED)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_DEGREES)));
+            }
+            return batch;
+        } finally {
+            cursor.close();
+        }
+    }
+}
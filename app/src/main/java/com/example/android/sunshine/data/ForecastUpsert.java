@@ -0,0 +1,263 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * Writes a {@link ForecastBatch} into the weather table by comparing it with what is already
+ * stored, rather than deleting the old rows and inserting every day again.
+ * <p>
+ * Most syncs download a forecast that is the same as the stored one for many of its days. Those
+ * days are left alone: only days whose weather changed are updated in place, days we didn't have
+ * are inserted, and days that fell out of the window the caller keeps are deleted. That saves
+ * SQLite from rewriting pages that didn't change, and tells the caller exactly which dates did
+ * change, so that only their observers have to be notified.
+ * <p>
+ * The updated column of unchanged days is still moved forward, as they have just been confirmed
+ * to be current. That is a single UPDATE over the dates of the batch, and isn't reported as a
+ * change, as nothing that is displayed has changed.
+ */
+final class ForecastUpsert {
+
+    /* The columns read back to compare the stored days with the batch */
+    private static final String[] STORED_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_DEGREES = 7;
+
+    private static final String SQL_UPDATE_WEATHER = "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+            + WeatherEntry.COLUMN_WEATHER_ID + " = ?, "
+            + WeatherEntry.COLUMN_MIN_TEMP + " = ?, "
+            + WeatherEntry.COLUMN_MAX_TEMP + " = ?, "
+            + WeatherEntry.COLUMN_HUMIDITY + " = ?, "
+            + WeatherEntry.COLUMN_PRESSURE + " = ?, "
+            + WeatherEntry.COLUMN_WIND_SPEED + " = ?, "
+            + WeatherEntry.COLUMN_DEGREES + " = ?, "
+            + WeatherEntry.COLUMN_UPDATED + " = ? "
+            + "WHERE " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String SQL_TOUCH_WEATHER = "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+            + WeatherEntry.COLUMN_UPDATED + " = ? "
+            + "WHERE " + WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ? "
+            + "AND " + WeatherEntry.COLUMN_UPDATED + " < ?";
+
+    private static final String SELECTION_OUTSIDE_WINDOW =
+            WeatherEntry.COLUMN_DATE + " < ? OR " + WeatherEntry.COLUMN_DATE + " > ?";
+
+    private static final String SELECTION_BETWEEN =
+            WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?";
+
+    int mRowsInserted;
+    int mRowsUpdated;
+    int mRowsUnchanged;
+    int mRowsDeleted;
+
+    /* The days that were inserted, updated or deleted */
+    final WeatherChanges mChanges = new WeatherChanges();
+
+    private ForecastUpsert() {
+    }
+
+    /**
+     * Writes a batch into the weather table in a single transaction.
+     *
+     * @param db           The database to write to
+     * @param batch        The days to write
+     * @param deleteBefore Stored days before this date are deleted. Long.MIN_VALUE keeps them.
+     * @param deleteAfter  Stored days after this date are deleted. Long.MAX_VALUE keeps them.
+     * @return What was written
+     * @throws IllegalArgumentException If the date of a day isn't normalized
+     */
+    static ForecastUpsert upsert(SQLiteDatabase db, ForecastBatch batch,
+                                 long deleteBefore, long deleteAfter) {
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (int i = 0; i < batch.size(); i++) {
+            long weatherDate = batch.getDate(i);
+            if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+            minDate = Math.min(minDate, weatherDate);
+            maxDate = Math.max(maxDate, weatherDate);
+        }
+
+        /* Like bulkInsert, days that don't say when they were downloaded are stamped with now */
+        long updated = batch.getUpdated() != 0 ? batch.getUpdated() : System.currentTimeMillis();
+
+        ForecastUpsert result = new ForecastUpsert();
+        WeatherInsertStatement insertStatement = new WeatherInsertStatement(db);
+        SQLiteStatement updateStatement = db.compileStatement(SQL_UPDATE_WEATHER);
+        ProviderMetrics.beginTransaction(db);
+        try {
+            if (deleteBefore != Long.MIN_VALUE || deleteAfter != Long.MAX_VALUE) {
+                result.deleteOutsideWindow(db, deleteBefore, deleteAfter);
+            }
+
+            if (!batch.isEmpty()) {
+                ForecastBatch stored = queryStored(db, minDate, maxDate);
+                for (int i = 0; i < batch.size(); i++) {
+                    result.write(batch, i, stored, updated, insertStatement, updateStatement);
+                }
+
+                if (result.mRowsUnchanged > 0) {
+                    touch(db, minDate, maxDate, updated);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            ProviderMetrics.endTransaction(db);
+            insertStatement.close();
+            updateStatement.close();
+        }
+        return result;
+    }
+
+    private void deleteOutsideWindow(SQLiteDatabase db, long deleteBefore, long deleteAfter) {
+        String[] selectionArgs = {Long.toString(deleteBefore), Long.toString(deleteAfter)};
+
+        /* The dates are read first, so their observers can be told they are gone */
+        mChanges.addRows(db, SELECTION_OUTSIDE_WINDOW, selectionArgs);
+
+        mRowsDeleted = db.delete(WeatherEntry.TABLE_NAME, SELECTION_OUTSIDE_WINDOW, selectionArgs);
+        if (mRowsDeleted > 0) {
+            mChanges.setMembershipChanged();
+        }
+    }
+
+    private void write(ForecastBatch batch, int i, ForecastBatch stored, long updated,
+                       WeatherInsertStatement insertStatement, SQLiteStatement updateStatement) {
+        long weatherDate = batch.getDate(i);
+        int storedIndex = indexOfDate(stored, weatherDate);
+
+        if (storedIndex < 0) {
+            if (insertStatement.insert(weatherDate, batch.getWeatherId(i),
+                    batch.getMinTemp(i), batch.getMaxTemp(i), batch.getHumidity(i),
+                    batch.getPressure(i), batch.getWindSpeed(i), batch.getDegrees(i),
+                    updated) != -1) {
+                mRowsInserted++;
+                mChanges.addDate(weatherDate);
+                mChanges.setMembershipChanged();
+            }
+            return;
+        }
+
+        if (sameWeather(batch, i, stored, storedIndex)) {
+            mRowsUnchanged++;
+            return;
+        }
+
+        updateStatement.bindLong(1, batch.getWeatherId(i));
+        updateStatement.bindLong(2, WeatherEncoding.encode(batch.getMinTemp(i)));
+        updateStatement.bindLong(3, WeatherEncoding.encode(batch.getMaxTemp(i)));
+        updateStatement.bindLong(4, WeatherEncoding.encode(batch.getHumidity(i)));
+        updateStatement.bindLong(5, WeatherEncoding.encode(batch.getPressure(i)));
+        updateStatement.bindLong(6, WeatherEncoding.encode(batch.getWindSpeed(i)));
+        updateStatement.bindLong(7, WeatherEncoding.encode(batch.getDegrees(i)));
+        updateStatement.bindLong(8, updated);
+        updateStatement.bindLong(9, weatherDate);
+        updateStatement.execute();
+        mRowsUpdated++;
+        mChanges.addDate(weatherDate);
+    }
+
+    /**
+     * Reads the stored days between two dates, sorted by date, decoded the way callers see them.
+     */
+    private static ForecastBatch queryStored(SQLiteDatabase db, long minDate, long maxDate) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, STORED_PROJECTION, SELECTION_BETWEEN,
+                new String[]{Long.toString(minDate), Long.toString(maxDate)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            ForecastBatch stored = new ForecastBatch(cursor.getCount());
+            while (cursor.moveToNext()) {
+                stored.add(cursor.getLong(INDEX_DATE),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_MIN_TEMP)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_MAX_TEMP)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_HUMIDITY)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_PRESSURE)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_WIND_SPEED)),
+                        WeatherEncoding.decode(cursor.getLong(INDEX_DEGREES)));
+            }
+            return stored;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Moves the updated column of every day between two dates forward, without rewriting the
+     * days that already have the newest time.
+     */
+    private static void touch(SQLiteDatabase db, long minDate, long maxDate, long updated) {
+        SQLiteStatement touchStatement = db.compileStatement(SQL_TOUCH_WEATHER);
+        try {
+            touchStatement.bindLong(1, updated);
+            touchStatement.bindLong(2, minDate);
+            touchStatement.bindLong(3, maxDate);
+            touchStatement.bindLong(4, updated);
+            touchStatement.execute();
+        } finally {
+            touchStatement.close();
+        }
+    }
+
+    /**
+     * Finds a date among the stored days, which are sorted by date.
+     *
+     * @return The index of the day, or -1 if it isn't stored
+     */
+    private static int indexOfDate(ForecastBatch stored, long date) {
+        int low = 0;
+        int high = stored.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleDate = stored.getDate(middle);
+            if (middleDate < date) {
+                low = middle + 1;
+            } else if (middleDate > date) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameWeather(ForecastBatch batch, int i, ForecastBatch stored, int j) {
+        /*
+         * The table only keeps two decimals, so the days are compared the way they would be
+         * stored. A change the table can't hold isn't worth writing.
+         */
+        return batch.getWeatherId(i) == stored.getWeatherId(j)
+                && sameStored(batch.getMinTemp(i), stored.getMinTemp(j))
+                && sameStored(batch.getMaxTemp(i), stored.getMaxTemp(j))
+                && sameStored(batch.getHumidity(i), stored.getHumidity(j))
+                && sameStored(batch.getPressure(i), stored.getPressure(j))
+                && sameStored(batch.getWindSpeed(i), stored.getWindSpeed(j))
+                && sameStored(batch.getDegrees(i), stored.getDegrees(j));
+    }
+
+    private static boolean sameStored(double value, double storedValue) {
+        return WeatherEncoding.encode(value) == WeatherEncoding.encode(storedValue);
+    }
+}
@@ -0,0 +1,446 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each operation of {@link WeatherProvider} takes, for each kind of URI it is
+ * called with: a histogram of latencies, the rows it read or wrote, and how long its
+ * transactions took and waited for the database lock.
+ * <p>
+ * Recording is off unless the app is debuggable, and can be turned off there too (see
+ * {@link WeatherContract#METHOD_SET_METRICS_ENABLED}). When it is off, timing an operation
+ * costs one read of a volatile boolean: {@link #start()} doesn't even read the clock.
+ * <p>
+ * Latencies are counted in buckets that double in width: bucket 0 holds operations that took
+ * less than 1µs, bucket i those that took from 2^(i-1) up to 2^i µs, and the last bucket
+ * everything slower. Percentiles are read from the buckets, so they are upper bounds, at most
+ * twice the real value.
+ * <p>
+ * Transactions are timed with {@link #beginTransaction(SQLiteDatabase)} and
+ * {@link #endTransaction(SQLiteDatabase)}. They are added to the operation that is running on
+ * the same thread, as every operation of the provider runs on the thread it was called on. Only
+ * the outermost of nested transactions is counted.
+ * <p>
+ * Every method is thread safe.
+ */
+final class ProviderMetrics {
+
+    /* The operations that are recorded */
+    static final int OPERATION_QUERY = 0;
+    static final int OPERATION_BULK_INSERT = 1;
+    static final int OPERATION_UPDATE = 2;
+    static final int OPERATION_DELETE = 3;
+    static final int OPERATION_CALL = 4;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "bulkInsert", "update", "delete", "call"
+    };
+
+    /* The kinds of URI operations are recorded for. call isn't given a URI. */
+    private static final int URI_WEATHER = 0;
+    private static final int URI_WEATHER_WITH_DATE = 1;
+    private static final int URI_HISTORY = 2;
+    private static final int URI_ROLLUPS = 3;
+    private static final int URI_NONE = 4;
+
+    private static final String[] URI_NAMES = {
+            WeatherContract.PATH_WEATHER,
+            WeatherContract.PATH_WEATHER + "/#",
+            WeatherContract.PATH_HISTORY,
+            WeatherContract.PATH_ROLLUPS,
+            "-"
+    };
+
+    /* Returned by start() when recording is off */
+    static final long NOT_RECORDED = Long.MIN_VALUE;
+
+    /* 1µs, 2µs, 4µs ... 2^25µs (about 33s), and everything slower in the last bucket */
+    private static final int BUCKETS = 27;
+
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    private static volatile boolean sEnabled;
+
+    private static final Stats[][] sStats = newStats();
+
+    /* The transactions of the operation running on each thread, see Transactions */
+    private static final ThreadLocal<Transactions> sTransactions =
+            new ThreadLocal<Transactions>() {
+                @Override
+                protected Transactions initialValue() {
+                    return new Transactions();
+                }
+            };
+
+    private ProviderMetrics() {
+    }
+
+    private static Stats[][] newStats() {
+        Stats[][] stats = new Stats[OPERATION_NAMES.length][URI_NAMES.length];
+        for (int operation = 0; operation < stats.length; operation++) {
+            for (int uri = 0; uri < URI_NAMES.length; uri++) {
+                stats[operation][uri] = new Stats();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return Whether operations are being recorded
+     */
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Starts or stops recording. What was recorded so far is kept.
+     *
+     * @param enabled Whether to record operations from now on
+     */
+    static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Forgets every operation recorded so far.
+     */
+    static void reset() {
+        for (Stats[] operationStats : sStats) {
+            for (Stats stats : operationStats) {
+                stats.reset();
+            }
+        }
+    }
+
+    /**
+     * Called when an operation starts.
+     *
+     * @return The time the operation started, to pass to one of the end methods, or
+     * {@link #NOT_RECORDED} if recording is off
+     */
+    static long start() {
+        if (!sEnabled) {
+            return NOT_RECORDED;
+        }
+        sTransactions.get().reset();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when a query returns. The rows of the Cursor are only counted when recording is
+     * on. Counting them runs the query there and then, rather than when the caller first moves
+     * the Cursor.
+     *
+     * @param uriCode The code WeatherProvider's UriMatcher matched the URI with
+     * @param start   What {@link #start()} returned
+     * @param cursor  The result of the query
+     */
+    static void endQuery(int uriCode, long start, Cursor cursor) {
+        if (start == NOT_RECORDED) {
+            return;
+        }
+        end(OPERATION_QUERY, uriCode, start, cursor.getCount());
+    }
+
+    /**
+     * Called when an operation returns.
+     *
+     * @param operation One of the OPERATION constants
+     * @param uriCode   The code WeatherProvider's UriMatcher matched the URI with, or -1 if the
+     *                  operation isn't given a URI
+     * @param start     What {@link #start()} returned
+     * @param rows      The number of rows the operation read or wrote
+     */
+    static void end(int operation, int uriCode, long start, int rows) {
+        if (start == NOT_RECORDED) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        Transactions transactions = sTransactions.get();
+        sStats[operation][uriIndex(uriCode)].add(nanos, rows, transactions);
+        transactions.reset();
+    }
+
+    /**
+     * Called when {@link WeatherProvider#call} returns. The rows are the ones its result says
+     * were written, or the days of the forecast it read.
+     *
+     * @param start  What {@link #start()} returned
+     * @param result The result of the method
+     */
+    static void endCall(long start, Bundle result) {
+        if (start == NOT_RECORDED) {
+            return;
+        }
+        int rows = 0;
+        if (result != null) {
+            rows = result.getInt(WeatherContract.EXTRA_ROWS_INSERTED)
+                    + result.getInt(WeatherContract.EXTRA_ROWS_UPDATED)
+                    + result.getInt(WeatherContract.EXTRA_ROWS_DELETED)
+                    + result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED)
+                    + ForecastBatch.sizeOf(result);
+        }
+        end(OPERATION_CALL, -1, start, rows);
+    }
+
+    private static int uriIndex(int uriCode) {
+        switch (uriCode) {
+            case WeatherProvider.CODE_WEATHER:
+                return URI_WEATHER;
+            case WeatherProvider.CODE_WEATHER_WITH_DATE:
+                return URI_WEATHER_WITH_DATE;
+            case WeatherProvider.CODE_HISTORY:
+            case WeatherProvider.CODE_HISTORY_WITH_DATE:
+                return URI_HISTORY;
+            case WeatherProvider.CODE_WEEK_ROLLUPS:
+            case WeatherProvider.CODE_WEEK_ROLLUP_WITH_DATE:
+            case WeatherProvider.CODE_MONTH_ROLLUPS:
+            case WeatherProvider.CODE_MONTH_ROLLUP_WITH_DATE:
+                return URI_ROLLUPS;
+            default:
+                return URI_NONE;
+        }
+    }
+
+    /**
+     * Begins a transaction, timing how long it waits for the database lock.
+     *
+     * @param db The database to begin a transaction on
+     */
+    static void beginTransaction(SQLiteDatabase db) {
+        if (!sEnabled) {
+            db.beginTransaction();
+            return;
+        }
+        Transactions transactions = sTransactions.get();
+        if (transactions.mDepth++ > 0) {
+            db.beginTransaction();
+            return;
+        }
+        long start = System.nanoTime();
+        db.beginTransaction();
+        transactions.mBegan = System.nanoTime();
+        transactions.mLockWaitNanos += transactions.mBegan - start;
+    }
+
+    /**
+     * Ends a transaction begun with {@link #beginTransaction(SQLiteDatabase)}, timing it from
+     * the moment it got the lock until it was committed or rolled back.
+     *
+     * @param db The database to end the transaction on
+     */
+    static void endTransaction(SQLiteDatabase db) {
+        db.endTransaction();
+        if (!sEnabled) {
+            return;
+        }
+        Transactions transactions = sTransactions.get();
+        /* Recording may have been turned on while the transaction was running */
+        if (transactions.mDepth == 0 || --transactions.mDepth > 0) {
+            return;
+        }
+        transactions.mCount++;
+        transactions.mNanos += System.nanoTime() - transactions.mBegan;
+    }
+
+    /**
+     * @return One row per operation and kind of URI that was recorded at least once, with the
+     * columns of {@link MetricsEntry}
+     */
+    static Cursor query() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                MetricsEntry.COLUMN_OPERATION,
+                MetricsEntry.COLUMN_URI,
+                MetricsEntry.COLUMN_COUNT,
+                MetricsEntry.COLUMN_ROWS,
+                MetricsEntry.COLUMN_MEAN_MICROS,
+                MetricsEntry.COLUMN_P50_MICROS,
+                MetricsEntry.COLUMN_P90_MICROS,
+                MetricsEntry.COLUMN_P99_MICROS,
+                MetricsEntry.COLUMN_MAX_MICROS,
+                MetricsEntry.COLUMN_TRANSACTIONS,
+                MetricsEntry.COLUMN_TRANSACTION_MICROS,
+                MetricsEntry.COLUMN_LOCK_WAIT_MICROS
+        });
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < URI_NAMES.length; uri++) {
+                Stats stats = sStats[operation][uri].copy();
+                if (stats.mCount == 0) {
+                    continue;
+                }
+                cursor.addRow(new Object[]{
+                        OPERATION_NAMES[operation],
+                        URI_NAMES[uri],
+                        stats.mCount,
+                        stats.mRows,
+                        micros(stats.mNanos / stats.mCount),
+                        stats.percentileMicros(PERCENTILES[0]),
+                        stats.percentileMicros(PERCENTILES[1]),
+                        stats.percentileMicros(PERCENTILES[2]),
+                        micros(stats.mMaxNanos),
+                        stats.mTransactions,
+                        micros(stats.mTransactionNanos),
+                        micros(stats.mLockWaitNanos)
+                });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Writes what was recorded, for {@link WeatherProvider#dump}.
+     *
+     * @param writer Where to write it
+     */
+    static void dump(PrintWriter writer) {
+        writer.println("Provider metrics (" + (sEnabled ? "recording" : "not recording") + ")");
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < URI_NAMES.length; uri++) {
+                Stats stats = sStats[operation][uri].copy();
+                if (stats.mCount == 0) {
+                    continue;
+                }
+                writer.println("  " + OPERATION_NAMES[operation] + " " + URI_NAMES[uri]
+                        + ": count=" + stats.mCount
+                        + " rows=" + stats.mRows
+                        + " mean=" + micros(stats.mNanos / stats.mCount) + "us"
+                        + " p50<=" + stats.percentileMicros(PERCENTILES[0]) + "us"
+                        + " p90<=" + stats.percentileMicros(PERCENTILES[1]) + "us"
+                        + " p99<=" + stats.percentileMicros(PERCENTILES[2]) + "us"
+                        + " max=" + micros(stats.mMaxNanos) + "us"
+                        + " transactions=" + stats.mTransactions
+                        + " transaction=" + micros(stats.mTransactionNanos) + "us"
+                        + " lockWait=" + micros(stats.mLockWaitNanos) + "us");
+                writer.println("    histogram: " + stats.histogram());
+            }
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * @return The bucket of a latency
+     */
+    private static int bucket(long nanos) {
+        long micros = micros(nanos);
+        if (micros == 0) {
+            return 0;
+        }
+        /* The number of bits micros needs is the bucket: 1µs is in bucket 1, 2-3µs in 2 ... */
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * The transactions of the operation running on a thread, added up until the operation ends.
+     */
+    private static final class Transactions {
+        int mDepth;
+        long mBegan;
+        int mCount;
+        long mNanos;
+        long mLockWaitNanos;
+
+        void reset() {
+            mDepth = 0;
+            mCount = 0;
+            mNanos = 0;
+            mLockWaitNanos = 0;
+        }
+    }
+
+    /**
+     * What was recorded for one operation and kind of URI.
+     */
+    private static final class Stats {
+        long mCount;
+        long mRows;
+        long mNanos;
+        long mMaxNanos;
+        long mTransactions;
+        long mTransactionNanos;
+        long mLockWaitNanos;
+        final long[] mBuckets = new long[BUCKETS];
+
+        synchronized void add(long nanos, int rows, Transactions transactions) {
+            mCount++;
+            mRows += rows;
+            mNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+            mTransactions += transactions.mCount;
+            mTransactionNanos += transactions.mNanos;
+            mLockWaitNanos += transactions.mLockWaitNanos;
+            mBuckets[bucket(nanos)]++;
+        }
+
+        synchronized void reset() {
+            mCount = 0;
+            mRows = 0;
+            mNanos = 0;
+            mMaxNanos = 0;
+            mTransactions = 0;
+            mTransactionNanos = 0;
+            mLockWaitNanos = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets[i] = 0;
+            }
+        }
+
+        synchronized Stats copy() {
+            Stats copy = new Stats();
+            copy.mCount = mCount;
+            copy.mRows = mRows;
+            copy.mNanos = mNanos;
+            copy.mMaxNanos = mMaxNanos;
+            copy.mTransactions = mTransactions;
+            copy.mTransactionNanos = mTransactionNanos;
+            copy.mLockWaitNanos = mLockWaitNanos;
+            System.arraycopy(mBuckets, 0, copy.mBuckets, 0, BUCKETS);
+            return copy;
+        }
+
+        /**
+         * @param percentile From 1 to 100
+         * @return The upper bound of the bucket the percentile falls in, in microseconds
+         */
+        long percentileMicros(int percentile) {
+            long rank = (mCount * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    /* The last bucket has no upper bound, so use the slowest operation */
+                    return i == BUCKETS - 1 ? micros(mMaxNanos) : 1L << i;
+                }
+            }
+            return micros(mMaxNanos);
+        }
+
+        /**
+         * @return The buckets that aren't empty, as "<upper bound in µs>:<count>"
+         */
+        String histogram() {
+            StringBuilder histogram = new StringBuilder();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (mBuckets[i] == 0) {
+                    continue;
+                }
+                if (histogram.length() > 0) {
+                    histogram.append(' ');
+                }
+                histogram.append(i == BUCKETS - 1 ? "more" : "<" + (1L << i) + "us")
+                        .append(':').append(mBuckets[i]);
+            }
+            return histogram.toString();
+        }
+    }
+}
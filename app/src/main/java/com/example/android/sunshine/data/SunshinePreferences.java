@@ -31,6 +31,23 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /* The URL the forecast currently in the database was downloaded from */
+    private static final String PREF_FORECAST_URL = "forecast_url";
+
+    /* The state of the sync's circuit breaker */
+    private static final String PREF_SYNC_FAILURE_COUNT = "sync_failure_count";
+    private static final String PREF_SYNC_CIRCUIT_OPEN_UNTIL = "sync_circuit_open_until";
+
+    /*
+     * The validators (ETag and Last-Modified) the weather server sent with its last forecast
+     * response are kept per request URL, so that we can ask the server to only send us the
+     * forecast again if it has changed. As there is one entry per URL, these live in their own
+     * SharedPreferences file rather than in the default one.
+     */
+    private static final String PREFS_RESPONSE_VALIDATORS = "response_validators";
+    private static final String PREF_ETAG_PREFIX = "etag:";
+    private static final String PREF_LAST_MODIFIED_PREFIX = "last_modified:";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -185,6 +202,24 @@ public final class SunshinePreferences {
         return shouldDisplayNotifications;
     }
 
+    /**
+     * Returns true if the user wants to keep the weather of past days, false if it should be
+     * deleted once it is in the past. This preference can be changed by the user within the
+     * SettingsFragment.
+     *
+     * @param context Used to access SharedPreferences
+     * @return true if past days should be archived into the weather history
+     */
+    public static boolean isHistoryEnabled(Context context) {
+        String keepHistoryKey = context.getString(R.string.pref_keep_history_key);
+        boolean keepHistoryByDefault = context
+                .getResources()
+                .getBoolean(R.bool.keep_history_by_default);
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getBoolean(keepHistoryKey, keepHistoryByDefault);
+    }
+
     /**
      * Returns the last time that a notification was shown (in UNIX time)
      *
@@ -242,4 +277,136 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the ETag that the weather server sent with the last response for the given URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL of the request
+     * @return The ETag of the last response for that URL, or null if there isn't one
+     */
+    public static String getResponseEtag(Context context, String url) {
+        SharedPreferences sp = context.getSharedPreferences(
+                PREFS_RESPONSE_VALIDATORS, Context.MODE_PRIVATE);
+        return sp.getString(PREF_ETAG_PREFIX + url, null);
+    }
+
+    /**
+     * Returns the Last-Modified date that the weather server sent with the last response for the
+     * given URL, exactly as it was sent.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL of the request
+     * @return The Last-Modified header of the last response for that URL, or null if there isn't
+     * one
+     */
+    public static String getResponseLastModified(Context context, String url) {
+        SharedPreferences sp = context.getSharedPreferences(
+                PREFS_RESPONSE_VALIDATORS, Context.MODE_PRIVATE);
+        return sp.getString(PREF_LAST_MODIFIED_PREFIX + url, null);
+    }
+
+    /**
+     * Saves the validators the weather server sent with a response. Passing null for either
+     * validator removes any previously stored value for it.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param url          The URL of the request
+     * @param etag         The ETag header of the response
+     * @param lastModified The Last-Modified header of the response
+     */
+    public static void saveResponseValidators(Context context, String url, String etag,
+                                              String lastModified) {
+        SharedPreferences sp = context.getSharedPreferences(
+                PREFS_RESPONSE_VALIDATORS, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sp.edit();
+
+        if (etag != null) {
+            editor.putString(PREF_ETAG_PREFIX + url, etag);
+        } else {
+            editor.remove(PREF_ETAG_PREFIX + url);
+        }
+
+        if (lastModified != null) {
+            editor.putString(PREF_LAST_MODIFIED_PREFIX + url, lastModified);
+        } else {
+            editor.remove(PREF_LAST_MODIFIED_PREFIX + url);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators stored for the given URL, so that the next request for it will
+     * always receive the full response.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL of the request
+     */
+    public static void clearResponseValidators(Context context, String url) {
+        saveResponseValidators(context, url, null, null);
+    }
+
+    /**
+     * Returns the URL that the forecast currently stored in the database was downloaded from.
+     * After the location changes, this no longer matches the URL the sync requests.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The URL of the stored forecast, or null if we haven't stored one yet
+     */
+    public static String getForecastUrl(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getString(PREF_FORECAST_URL, null);
+    }
+
+    /**
+     * Saves the URL that the forecast stored in the database was downloaded from.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL of the stored forecast
+     */
+    public static void setForecastUrl(Context context, String url) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putString(PREF_FORECAST_URL, url);
+        editor.apply();
+    }
+
+    /**
+     * Returns how many syncs in a row have failed to reach the weather server.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The number of consecutive failed syncs
+     */
+    public static int getSyncFailureCount(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getInt(PREF_SYNC_FAILURE_COUNT, 0);
+    }
+
+    /**
+     * Returns the time until which syncs shouldn't try to reach the weather server.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The time in milliseconds since the epoch, 0 if syncs may run
+     */
+    public static long getSyncCircuitOpenUntil(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_SYNC_CIRCUIT_OPEN_UNTIL, 0);
+    }
+
+    /**
+     * Saves the state of the sync's circuit breaker.
+     *
+     * @param context   Used to access SharedPreferences
+     * @param failures  The number of consecutive failed syncs
+     * @param openUntil The time until which syncs shouldn't try to reach the weather server
+     */
+    public static void saveSyncCircuitState(Context context, int failures, long openUntil) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putInt(PREF_SYNC_FAILURE_COUNT, failures);
+        editor.putLong(PREF_SYNC_CIRCUIT_OPEN_UNTIL, openUntil);
+        editor.apply();
+    }
+}
@@ -0,0 +1,440 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Keeps the weather of past days once they leave the forecast, and summaries of it by week and
+ * by month. See {@link WeatherContract.HistoryEntry} and {@link RollupEntry}.
+ * <p>
+ * SQLite has no partitioned tables, so the history is partitioned by hand: every month is stored
+ * in a table of its own, named after it (history_201609 for September 2016), with the columns of
+ * the weather table. The date is the row ID of those tables too, so a day is a single lookup in
+ * the table of its month. Dropping a month that is too old to keep is a DROP TABLE, which frees
+ * its pages at once, rather than a DELETE that visits every day and leaves the table's pages to
+ * be reused.
+ * <p>
+ * The rollup tables hold the lowest and highest temperatures of every week and month that has
+ * history, and the sums of the daily temperatures their averages are computed from. They are
+ * updated as each day is archived, and never recomputed from the history. The monthly rollup
+ * also tells which month tables exist: a month has a table exactly when it has a rollup row.
+ * <p>
+ * Temperatures are stored in hundredths, like in the weather table (see {@link WeatherEncoding}).
+ */
+final class WeatherArchive {
+
+    /* How many months of history are kept, counting the current one, unless asked otherwise */
+    static final int DEFAULT_HISTORY_MONTHS = 12;
+
+    private static final String HISTORY_TABLE_PREFIX = "history_";
+
+    /* The sums of the daily min and max temperatures of a week or month, for their averages */
+    private static final String COLUMN_SUM_MIN_TEMP = "sum_min";
+    private static final String COLUMN_SUM_MAX_TEMP = "sum_max";
+
+    /* The columns copied from the weather table, all of them INTEGERs */
+    private static final String[] HISTORY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_UPDATED
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+
+    /* The columns of a query on the history that doesn't give a projection */
+    private static final String[] ALL_HISTORY_COLUMNS =
+            WeatherEncoding.PROJECTION_MAP.keySet().toArray(new String[0]);
+
+    /* Decodes the rollup tables into the columns of RollupEntry */
+    private static final Map<String, String> ROLLUP_PROJECTION_MAP = buildRollupProjectionMap();
+
+    /* The projection map of queries on the decoded rollup tables */
+    private static final Map<String, String> ROLLUP_DECODED_PROJECTION_MAP =
+            WeatherEncoding.identityProjectionMap(ROLLUP_PROJECTION_MAP.keySet());
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private WeatherArchive() {
+    }
+
+    private static Map<String, String> buildRollupProjectionMap() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put(RollupEntry._ID, RollupEntry.COLUMN_PERIOD_START + " AS " + RollupEntry._ID);
+        map.put(RollupEntry.COLUMN_PERIOD_START, RollupEntry.COLUMN_PERIOD_START);
+        map.put(RollupEntry.COLUMN_DAYS, RollupEntry.COLUMN_DAYS);
+        map.put(RollupEntry.COLUMN_MIN_TEMP, WeatherEncoding.decode(RollupEntry.COLUMN_MIN_TEMP)
+                + " AS " + RollupEntry.COLUMN_MIN_TEMP);
+        map.put(RollupEntry.COLUMN_MAX_TEMP, WeatherEncoding.decode(RollupEntry.COLUMN_MAX_TEMP)
+                + " AS " + RollupEntry.COLUMN_MAX_TEMP);
+        map.put(RollupEntry.COLUMN_AVG_MIN_TEMP, "CAST(" + COLUMN_SUM_MIN_TEMP + " / ("
+                + RollupEntry.COLUMN_DAYS + " * " + WeatherEncoding.SCALE + ".0) AS REAL) AS "
+                + RollupEntry.COLUMN_AVG_MIN_TEMP);
+        map.put(RollupEntry.COLUMN_AVG_MAX_TEMP, "CAST(" + COLUMN_SUM_MAX_TEMP + " / ("
+                + RollupEntry.COLUMN_DAYS + " * " + WeatherEncoding.SCALE + ".0) AS REAL) AS "
+                + RollupEntry.COLUMN_AVG_MAX_TEMP);
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Creates the rollup tables of a new database. The month tables are created as days are
+     * archived into them.
+     *
+     * @param db The database
+     */
+    static void createRollupTables(SQLiteDatabase db) {
+        db.execSQL(buildCreateRollupTable(RollupEntry.TABLE_WEEKS));
+        db.execSQL(buildCreateRollupTable(RollupEntry.TABLE_MONTHS));
+    }
+
+    private static String buildCreateRollupTable(String table) {
+        return "CREATE TABLE " + table + " ("
+                + RollupEntry.COLUMN_PERIOD_START + " INTEGER PRIMARY KEY, "
+                + RollupEntry.COLUMN_DAYS + " INTEGER NOT NULL, "
+                + RollupEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, "
+                + RollupEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, "
+                + COLUMN_SUM_MIN_TEMP + " INTEGER NOT NULL, "
+                + COLUMN_SUM_MAX_TEMP + " INTEGER NOT NULL)";
+    }
+
+    private static void createHistoryTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + table + " ("
+                + WeatherEntry.COLUMN_DATE + " INTEGER PRIMARY KEY, "
+                + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_DEGREES + " INTEGER NOT NULL, "
+                + WeatherEntry.COLUMN_UPDATED + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    /**
+     * Copies the days of the weather table before a date into the history, and adds them to the
+     * rollups of their week and month. Days that are already in the history are left alone, and
+     * aren't counted again. The days stay in the weather table: deleting them is up to the
+     * caller. Must be called in a transaction.
+     *
+     * @param db         The database
+     * @param beforeDate The days before this normalized date are archived
+     * @return The number of days archived
+     */
+    static int archive(SQLiteDatabase db, long beforeDate) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, HISTORY_COLUMNS,
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(beforeDate)},
+                null, null, WeatherEntry.COLUMN_DATE);
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return 0;
+        }
+
+        Rollup weeks = new Rollup(db, RollupEntry.TABLE_WEEKS);
+        Rollup months = new Rollup(db, RollupEntry.TABLE_MONTHS);
+        String table = null;
+        SQLiteStatement insert = null;
+        int rowsArchived = 0;
+        try {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(INDEX_DATE);
+
+                /* The days are in order of date, so each month's statement is compiled once */
+                String dayTable = getHistoryTable(date);
+                if (!dayTable.equals(table)) {
+                    if (insert != null) {
+                        insert.close();
+                    }
+                    table = dayTable;
+                    createHistoryTable(db, table);
+                    insert = db.compileStatement(buildInsertHistory(table));
+                }
+
+                insert.clearBindings();
+                for (int i = 0; i < HISTORY_COLUMNS.length; i++) {
+                    insert.bindLong(i + 1, cursor.getLong(i));
+                }
+                if (insert.executeInsert() == -1) {
+                    continue;
+                }
+
+                long minTemp = cursor.getLong(INDEX_MIN_TEMP);
+                long maxTemp = cursor.getLong(INDEX_MAX_TEMP);
+                weeks.add(getWeekStart(date), minTemp, maxTemp);
+                months.add(getMonthStart(date, 0), minTemp, maxTemp);
+                rowsArchived++;
+            }
+        } finally {
+            cursor.close();
+            if (insert != null) {
+                insert.close();
+            }
+            weeks.close();
+            months.close();
+        }
+        return rowsArchived;
+    }
+
+    private static String buildInsertHistory(String table) {
+        StringBuilder sql = new StringBuilder("INSERT OR IGNORE INTO ").append(table).append(" (");
+        for (int i = 0; i < HISTORY_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(HISTORY_COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < HISTORY_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * Drops the months of history before the last ones the caller keeps, along with their
+     * rollups, and the rollups of the weeks that end in them. A week that straddles the first
+     * month kept keeps its rollup, days of the dropped month included, as its later days are
+     * still in the history. Must be called in a transaction.
+     *
+     * @param db     The database
+     * @param months How many months to keep, counting the month of today. Must be positive.
+     * @param today  Today's normalized date
+     * @return The number of months dropped
+     */
+    static int prune(SQLiteDatabase db, int months, long today) {
+        long cutoff = getMonthStart(today, 1 - months);
+        String[] selectionArgs = {Long.toString(cutoff)};
+        String selection = RollupEntry.COLUMN_PERIOD_START + " < ?";
+
+        Cursor cursor = db.query(RollupEntry.TABLE_MONTHS,
+                new String[]{RollupEntry.COLUMN_PERIOD_START}, selection, selectionArgs,
+                null, null, null);
+        int monthsDropped = 0;
+        try {
+            while (cursor.moveToNext()) {
+                db.execSQL("DROP TABLE IF EXISTS " + getHistoryTable(cursor.getLong(0)));
+                monthsDropped++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (monthsDropped > 0) {
+            db.delete(RollupEntry.TABLE_MONTHS, selection, selectionArgs);
+            /* Only the weeks whose seven days are all before the cutoff */
+            db.delete(RollupEntry.TABLE_WEEKS, RollupEntry.COLUMN_PERIOD_START + " <= ?",
+                    new String[]{Long.toString(cutoff - 7 * SunshineDateUtils.DAY_IN_MILLIS)});
+        }
+        return monthsDropped;
+    }
+
+    /**
+     * Reads the history of a day from the table of its month.
+     *
+     * @param db         The database
+     * @param projection The columns to return, or null for all of them
+     * @param date       The normalized date of the day
+     * @return The day, or an empty Cursor if it isn't in the history
+     */
+    static Cursor queryDay(SQLiteDatabase db, String[] projection, long date) {
+        if (!hasMonth(db, getMonthStart(date, 0))) {
+            return new MatrixCursor(projection != null ? projection : ALL_HISTORY_COLUMNS);
+        }
+        return newHistoryQueryBuilder(getHistoryTable(date)).query(db, projection,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(date)},
+                null, null, null);
+    }
+
+    /**
+     * Reads the history between two dates from the tables of the months they span, one query
+     * per month, and returns the days of all of them in order of date.
+     *
+     * @param db            The database
+     * @param projection    The columns to return, or null for all of them
+     * @param selection     Narrows down the days further, or null
+     * @param selectionArgs Values for the ?s in selection
+     * @param startDate     The first normalized date to return
+     * @param endDate       The last normalized date to return
+     * @return The days between both dates, inclusive
+     */
+    static Cursor queryRange(SQLiteDatabase db, String[] projection, String selection,
+                             String[] selectionArgs, long startDate, long endDate) {
+        Cursor months = db.query(RollupEntry.TABLE_MONTHS,
+                new String[]{RollupEntry.COLUMN_PERIOD_START},
+                RollupEntry.COLUMN_PERIOD_START + " BETWEEN ? AND ?",
+                new String[]{Long.toString(getMonthStart(startDate, 0)), Long.toString(endDate)},
+                null, null, RollupEntry.COLUMN_PERIOD_START);
+
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        try {
+            while (months.moveToNext()) {
+                SQLiteQueryBuilder builder = newHistoryQueryBuilder(
+                        getHistoryTable(months.getLong(0)));
+                builder.appendWhere(WeatherEntry.COLUMN_DATE + " BETWEEN " + startDate
+                        + " AND " + endDate);
+                cursors.add(builder.query(db, projection, selection, selectionArgs,
+                        null, null, WeatherEntry.COLUMN_DATE));
+            }
+        } finally {
+            months.close();
+        }
+
+        if (cursors.isEmpty()) {
+            return new MatrixCursor(projection != null ? projection : ALL_HISTORY_COLUMNS);
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+    }
+
+    /**
+     * Reads the rollups of weeks or months.
+     *
+     * @param db            The database
+     * @param table         {@link RollupEntry#TABLE_WEEKS} or {@link RollupEntry#TABLE_MONTHS}
+     * @param projection    The columns to return, or null for all of them
+     * @param selection     Which rows to return, or null for all of them
+     * @param selectionArgs Values for the ?s in selection
+     * @param sortOrder     How to sort the rows, or null to sort them by date
+     * @return The rollups
+     */
+    static Cursor queryRollups(SQLiteDatabase db, String table, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder) {
+        /* Read decoded, so that the selection and sort order see temperatures in °C */
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(WeatherEncoding.decodedTable(table, ROLLUP_PROJECTION_MAP));
+        builder.setProjectionMap(ROLLUP_DECODED_PROJECTION_MAP);
+        return builder.query(db, projection, selection, selectionArgs, null, null,
+                sortOrder != null ? sortOrder : RollupEntry.COLUMN_PERIOD_START);
+    }
+
+    /**
+     * @return The rollup of the week or month that starts on a date
+     */
+    static Cursor queryRollup(SQLiteDatabase db, String table, String[] projection,
+                              long periodStart) {
+        return queryRollups(db, table, projection, RollupEntry.COLUMN_PERIOD_START + " = ?",
+                new String[]{Long.toString(periodStart)}, null);
+    }
+
+    private static boolean hasMonth(SQLiteDatabase db, long monthStart) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + RollupEntry.TABLE_MONTHS
+                + " WHERE " + RollupEntry.COLUMN_PERIOD_START + " = ?",
+                new String[]{Long.toString(monthStart)}) > 0;
+    }
+
+    /**
+     * The history tables store what the weather table stores, so the weather table's
+     * projection map decodes them too.
+     */
+    private static SQLiteQueryBuilder newHistoryQueryBuilder(String table) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(WeatherEncoding.decodedTable(table, WeatherEncoding.PROJECTION_MAP));
+        builder.setProjectionMap(WeatherEncoding.DECODED_PROJECTION_MAP);
+        return builder;
+    }
+
+    /**
+     * @param date A date in milliseconds
+     * @return The name of the table that holds the history of the date's month
+     */
+    static String getHistoryTable(long date) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(date);
+        int month = calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+        return HISTORY_TABLE_PREFIX + month;
+    }
+
+    /**
+     * @param date A date in milliseconds, after the epoch
+     * @return The normalized date of the Monday of the date's week
+     */
+    static long getWeekStart(long date) {
+        long day = date / SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* The epoch was a Thursday, 3 days after a Monday */
+        return (day - (day + 3) % 7) * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * @param date        A date in milliseconds
+     * @param monthsToAdd How many months to move from the date's month, possibly negative
+     * @return The normalized date of the first day of the month
+     */
+    static long getMonthStart(long date, int monthsToAdd) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(SunshineDateUtils.normalizeDate(date));
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.add(Calendar.MONTH, monthsToAdd);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Adds archived days to the rollups of one table. A period that has no row yet gets one
+     * with no days, which the UPDATE then adds the day to like any other.
+     */
+    private static final class Rollup {
+
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mUpdate;
+
+        Rollup(SQLiteDatabase db, String table) {
+            mInsert = db.compileStatement("INSERT OR IGNORE INTO " + table + " ("
+                    + RollupEntry.COLUMN_PERIOD_START + ", "
+                    + RollupEntry.COLUMN_DAYS + ", "
+                    + RollupEntry.COLUMN_MIN_TEMP + ", "
+                    + RollupEntry.COLUMN_MAX_TEMP + ", "
+                    + COLUMN_SUM_MIN_TEMP + ", "
+                    + COLUMN_SUM_MAX_TEMP + ") VALUES (?, 0, ?, ?, 0, 0)");
+            mUpdate = db.compileStatement("UPDATE " + table + " SET "
+                    + RollupEntry.COLUMN_DAYS + " = " + RollupEntry.COLUMN_DAYS + " + 1, "
+                    + RollupEntry.COLUMN_MIN_TEMP + " = MIN(" + RollupEntry.COLUMN_MIN_TEMP
+                    + ", ?), "
+                    + RollupEntry.COLUMN_MAX_TEMP + " = MAX(" + RollupEntry.COLUMN_MAX_TEMP
+                    + ", ?), "
+                    + COLUMN_SUM_MIN_TEMP + " = " + COLUMN_SUM_MIN_TEMP + " + ?, "
+                    + COLUMN_SUM_MAX_TEMP + " = " + COLUMN_SUM_MAX_TEMP + " + ? "
+                    + "WHERE " + RollupEntry.COLUMN_PERIOD_START + " = ?");
+        }
+
+        void add(long periodStart, long minTemp, long maxTemp) {
+            mInsert.bindLong(1, periodStart);
+            mInsert.bindLong(2, minTemp);
+            mInsert.bindLong(3, maxTemp);
+            mInsert.executeInsert();
+
+            mUpdate.bindLong(1, minTemp);
+            mUpdate.bindLong(2, maxTemp);
+            mUpdate.bindLong(3, minTemp);
+            mUpdate.bindLong(4, maxTemp);
+            mUpdate.bindLong(5, periodStart);
+            mUpdate.execute();
+        }
+
+        void close() {
+            mInsert.close();
+            mUpdate.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Collects the days of the weather table that a write touched, so that only the observers of
+ * those days are notified once the write is done.
+ * <p>
+ * Every day that was inserted, updated or deleted is notified on its own URI, built with
+ * {@link WeatherEntry#buildDayChangesUri(long)}. A DetailActivity looking at one day only reloads
+ * when that day changes.
+ * <p>
+ * Observers of the whole table, like the forecast list, are notified once per write, on
+ * {@link WeatherEntry#CONTENT_URI}, however many days it touched. The URIs of the days aren't
+ * below it, so they don't reach those observers a second time.
+ */
+public final class WeatherChanges {
+
+    private long[] mDates = new long[16];
+    private int mCount;
+    private boolean mMembershipChanged;
+
+    /**
+     * Records that the weather of a day was inserted, updated or deleted.
+     *
+     * @param date The normalized date of the day
+     */
+    public void addDate(long date) {
+        if (mCount == mDates.length) {
+            mDates = Arrays.copyOf(mDates, mCount * 2);
+        }
+        mDates[mCount++] = date;
+    }
+
+    /**
+     * Records that days were inserted into or deleted from the table, rather than only updated.
+     */
+    public void setMembershipChanged() {
+        mMembershipChanged = true;
+    }
+
+    /**
+     * Records the dates of the rows a selection matches. Call this before the rows are deleted
+     * or updated, in the same transaction.
+     *
+     * @param db            The database to read from
+     * @param selection     The selection of the rows, or null for all of them
+     * @param selectionArgs Values for the ?s in selection
+     */
+    void addRows(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                addDate(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Whether any day was touched
+     */
+    public boolean isEmpty() {
+        return mCount == 0 && !mMembershipChanged;
+    }
+
+    /**
+     * @return Whether days were inserted or deleted
+     */
+    public boolean isMembershipChanged() {
+        return mMembershipChanged;
+    }
+
+    /**
+     * @return The dates of the days that were touched, sorted and without duplicates
+     */
+    public long[] getDates() {
+        Arrays.sort(mDates, 0, mCount);
+        int distinct = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (distinct == 0 || mDates[i] != mDates[distinct - 1]) {
+                mDates[distinct++] = mDates[i];
+            }
+        }
+        mCount = distinct;
+        return Arrays.copyOf(mDates, mCount);
+    }
+
+    /**
+     * Notifies the observers of the days that were touched, and the observers of the table once,
+     * if anything was touched at all.
+     *
+     * @param contentResolver Used to notify the observers
+     */
+    public void notifyObservers(ContentResolver contentResolver) {
+        if (isEmpty()) {
+            return;
+        }
+        for (long date : getDates()) {
+            contentResolver.notifyChange(WeatherEntry.buildDayChangesUri(date), null);
+        }
+        contentResolver.notifyChange(WeatherEntry.CONTENT_URI, null);
+    }
+}
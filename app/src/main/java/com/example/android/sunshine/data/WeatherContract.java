@@ -17,7 +17,6 @@ package com.example.android.sunshine.data;
 
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
@@ -59,6 +58,102 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * The path the changes of single days are notified on, see WeatherEntry.DAY_CHANGES_URI. It
+     * can't be queried.
+     */
+    public static final String PATH_DAY_CHANGES = "weather_day";
+
+    /*
+     * The path of the timings WeatherProvider records of its own operations, see MetricsEntry.
+     * It only exists in debuggable builds of the app.
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /*
+     * The paths of the weather that is archived rather than deleted once it is in the past, see
+     * HistoryEntry, and of its summaries by week and by month, see RollupEntry.
+     */
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_ROLLUPS = "rollups";
+    public static final String PATH_WEEK = "week";
+    public static final String PATH_MONTH = "month";
+
+    /*
+     * Methods that can be passed to ContentResolver.call for Sunshine's content provider.
+     *
+     * METHOD_INSERT_FORECAST inserts a ForecastBatch, stored in the extras with
+     * ForecastBatch.toBundle(), without converting it to ContentValues first. It does the same
+     * as a bulkInsert on WeatherEntry.CONTENT_URI, and returns the number of rows inserted in
+     * the EXTRA_ROWS_INSERTED int of the result.
+     *
+     * METHOD_REPLACE_FORECAST deletes the weather data and inserts a ForecastBatch in a single
+     * transaction. If the extras hold an EXTRA_DELETE_BEFORE_DATE long, only the days before
+     * that normalized date are deleted. The number of rows deleted is returned in the
+     * EXTRA_ROWS_DELETED int of the result.
+     *
+     * METHOD_UPSERT_FORECAST compares a ForecastBatch with the stored weather data by date.
+     * Unchanged days are left alone, changed days are updated in place and new days inserted.
+     * Stored days before EXTRA_DELETE_BEFORE_DATE and after EXTRA_DELETE_AFTER_DATE are deleted,
+     * if the extras hold those longs. The result holds the EXTRA_ROWS_INSERTED,
+     * EXTRA_ROWS_UPDATED, EXTRA_ROWS_UNCHANGED and EXTRA_ROWS_DELETED ints, and the dates that
+     * changed in the EXTRA_CHANGED_DATES long array. EXTRA_MEMBERSHIP_CHANGED tells whether
+     * any of them were inserted or deleted, rather than only updated.
+     *
+     * If the extras of METHOD_UPSERT_FORECAST also hold EXTRA_ARCHIVE set to true, the days it
+     * deletes before EXTRA_DELETE_BEFORE_DATE are first copied into the history (see
+     * HistoryEntry), if they are before today, and the history of the months before the last
+     * EXTRA_HISTORY_MONTHS (an int, 12 by default) is dropped. The number of days archived is
+     * returned in the EXTRA_ROWS_ARCHIVED int of the result.
+     *
+     * All of them notify the URIs of the dates they changed (built with
+     * WeatherEntry.buildWeatherUriWithDate), and CONTENT_URI only when days were inserted or
+     * deleted, unless the extras hold EXTRA_NOTIFY_CHANGE set to false. Callers that write a
+     * forecast in several calls use that to notify once when they are done.
+     *
+     * METHOD_GET_QUERY_CACHE_STATS takes no extras, and returns how many queries the provider
+     * answered from its cache of recent results, and how many had to read the database, in
+     * the EXTRA_CACHE_HITS and EXTRA_CACHE_MISSES longs of the result. Queries that can't be
+     * cached (see WeatherQueryCache) count as neither.
+     *
+     * METHOD_GET_FORECAST_PACKED reads EXTRA_COUNT days of weather from the EXTRA_START_DATE
+     * long onwards, in order of date, and returns them as a ForecastBatch stored with
+     * ForecastBatch.toBundle(): one primitive array per column, filled by a single query. Read
+     * it with ForecastBatch.fromBundle(). The provider still reads the days through a Cursor of
+     * its own; the caller gets the arrays without one. It is meant for callers that want a whole
+     * forecast at once, and have no use for a Cursor. EXTRA_COUNT is an int, and must be
+     * positive.
+     *
+     * METHOD_SET_METRICS_ENABLED starts or stops recording the timings of MetricsEntry,
+     * depending on the EXTRA_METRICS_ENABLED boolean. Recording starts on its own in debuggable
+     * builds. METHOD_RESET_METRICS forgets what was recorded so far. Both only exist in
+     * debuggable builds, like MetricsEntry.CONTENT_URI, and return no result.
+     */
+    public static final String METHOD_INSERT_FORECAST = "insertForecast";
+    public static final String METHOD_REPLACE_FORECAST = "replaceForecast";
+    public static final String METHOD_UPSERT_FORECAST = "upsertForecast";
+    public static final String EXTRA_DELETE_BEFORE_DATE = "delete_before_date";
+    public static final String EXTRA_DELETE_AFTER_DATE = "delete_after_date";
+    public static final String EXTRA_NOTIFY_CHANGE = "notify_change";
+    public static final String EXTRA_ROWS_INSERTED = "rows_inserted";
+    public static final String EXTRA_ROWS_UPDATED = "rows_updated";
+    public static final String EXTRA_ROWS_UNCHANGED = "rows_unchanged";
+    public static final String EXTRA_ROWS_DELETED = "rows_deleted";
+    public static final String EXTRA_CHANGED_DATES = "changed_dates";
+    public static final String EXTRA_MEMBERSHIP_CHANGED = "membership_changed";
+    public static final String EXTRA_ARCHIVE = "archive";
+    public static final String EXTRA_HISTORY_MONTHS = "history_months";
+    public static final String EXTRA_ROWS_ARCHIVED = "rows_archived";
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "getQueryCacheStats";
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+    public static final String METHOD_GET_FORECAST_PACKED = "getForecastPacked";
+    public static final String EXTRA_START_DATE = "start_date";
+    public static final String EXTRA_COUNT = "count";
+    public static final String METHOD_SET_METRICS_ENABLED = "setMetricsEnabled";
+    public static final String EXTRA_METRICS_ENABLED = "metrics_enabled";
+    public static final String METHOD_RESET_METRICS = "resetMetrics";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -67,7 +162,14 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
-        /* Used internally as the name of our weather table. */
+        /*
+         * Used internally as the name of our weather table.
+         *
+         * The table is keyed on the date, and stores the floats below as INTEGER hundredths.
+         * WeatherProvider reads and writes them as floats, so callers don't need to know:
+         * selections and sort orders compare them as floats too (for example "min < 5" for
+         * below 5°C). _id is the same as the date.
+         */
         public static final String TABLE_NAME = "weather";
 
         /*
@@ -112,6 +214,14 @@ public class WeatherContract {
          */
         public static final String COLUMN_DEGREES = "degrees";
 
+        /*
+         * The time (in milliseconds since the epoch) at which the weather for this day was last
+         * downloaded or confirmed to be current. The sync uses it to decide which days of the
+         * forecast need to be downloaded again. WeatherProvider fills it in on insert if it
+         * isn't provided.
+         */
+        public static final String COLUMN_UPDATED = "updated";
+
         /**
          * Builds a URI that adds the weather date to the end of the forecast content URI path.
          * This is used to query details about a single weather entry by date. This is what we
@@ -126,20 +236,102 @@ public class WeatherContract {
                     .build();
         }
 
+        /*
+         * The URIs the changes of single days are notified on. A query of
+         * buildWeatherUriWithDate watches the URI of its day here, so a DetailActivity only
+         * reloads when its own day changes.
+         *
+         * They aren't below CONTENT_URI on purpose: cursors watch the descendants of their URI,
+         * so notifying every changed day below CONTENT_URI would call every observer of the
+         * whole table, like the forecast list, once per day. CONTENT_URI is notified once per
+         * write instead. Notifying DAY_CHANGES_URI reaches the observers of every day.
+         */
+        public static final Uri DAY_CHANGES_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_DAY_CHANGES)
+                .build();
+
+        /**
+         * Builds the URI the changes of a day are notified on.
+         *
+         * @param date Normalized date in milliseconds
+         * @return Uri to observe the changes of that day
+         */
+        public static Uri buildDayChangesUri(long date) {
+            return DAY_CHANGES_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /*
+         * Query parameters that narrow a query on CONTENT_URI down to a range of days, so that
+         * only the rows the caller needs are read from the database. Both dates are normalized
+         * and inclusive. The limit caps the number of rows returned, counted from the first day
+         * in the sort order of the query (by date, if the query doesn't give one).
+         *
+         * The after date is exclusive, and is meant for paging through the forecast: the next
+         * page starts after the last date of the page before it. Unlike an OFFSET, SQLite seeks
+         * straight to that date in the index, however far down the table the page is.
+         */
+        public static final String QUERY_PARAMETER_START_DATE = "date";
+        public static final String QUERY_PARAMETER_END_DATE = "end_date";
+        public static final String QUERY_PARAMETER_AFTER_DATE = "after_date";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Builds a URI to query the weather from a date onwards.
+         *
+         * @param startDate Date in milliseconds. It is normalized to the start of its UTC day.
+         * @return Uri to query the weather from that day onwards
+         */
         public static Uri buildWeatherWithStartDate(long startDate) {
-            long normalizedDate = normalizeDate(startDate);
             return CONTENT_URI.buildUpon()
-                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
+                    .appendQueryParameter(QUERY_PARAMETER_START_DATE,
+                            Long.toString(SunshineDateUtils.normalizeDate(startDate)))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to query the weather for a number of days from a date onwards. For
+         * instance, a limit of 1 with today's normalized date only returns today's weather.
+         *
+         * @param startDate Date in milliseconds. It is normalized to the start of its UTC day.
+         * @param limit     The maximum number of days to return
+         * @return Uri to query the weather for up to limit days from that day onwards
+         */
+        public static Uri buildWeatherWithStartDate(long startDate, int limit) {
+            return buildWeatherWithStartDate(startDate).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to query a page of the forecast. The days are sorted by date, unless the
+         * query asks for another order.
+         *
+         * @param afterDate The last date of the page before, or the day before the first page.
+         *                  Only the days after it are returned.
+         * @param pageSize  The maximum number of days to return
+         * @return Uri to query up to pageSize days after afterDate
+         */
+        public static Uri buildWeatherPageUri(long afterDate, int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(pageSize))
+                    .build();
         }
 
-        // To make it easy to query for the exact date, we normalize all dates that go into
-        // the database to the start of the the Julian day at UTC.
-        public static long normalizeDate(long startDate) {
-            // normalize the start date to the beginning of the (UTC) day
-            Time time = new Time();
-            time.set(startDate);
-            int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-            return time.setJulianDay(julianDay);
+        /**
+         * Builds a URI to query the weather between two dates.
+         *
+         * @param startDate The first date in milliseconds, normalized to the start of its day
+         * @param endDate   The last date in milliseconds, normalized to the start of its day
+         * @return Uri to query the weather from the first day up to and including the last day
+         */
+        public static Uri buildWeatherWithDateRange(long startDate, long endDate) {
+            return buildWeatherWithStartDate(startDate).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_END_DATE,
+                            Long.toString(SunshineDateUtils.normalizeDate(endDate)))
+                    .build();
         }
 
         /**
@@ -154,4 +346,159 @@ public class WeatherContract {
             return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * The weather of past days, when the sync archives them instead of deleting them (see
+     * EXTRA_ARCHIVE). The history has the columns of WeatherEntry, and is queried the same way:
+     * a day with buildHistoryUriWithDate, or the days between the QUERY_PARAMETER_START_DATE and
+     * QUERY_PARAMETER_END_DATE of WeatherEntry. Days are always returned in order of date. The
+     * history can only be queried.
+     *
+     * Every month of history is stored in a table of its own, so that a month that is too old
+     * to keep can be dropped all at once. A day is read from the table of its month alone, and
+     * a range of days from the tables of the months it spans, so reading a day takes the same
+     * time however many months are kept.
+     */
+    public static final class HistoryEntry {
+
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HISTORY)
+                .build();
+
+        /**
+         * Builds a URI to query the archived weather of a day.
+         *
+         * @param date Normalized date in milliseconds
+         * @return Uri to query the history of that day
+         */
+        public static Uri buildHistoryUriWithDate(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to query the archived weather between two dates.
+         *
+         * @param startDate The first date in milliseconds, normalized to the start of its day
+         * @param endDate   The last date in milliseconds, normalized to the start of its day
+         * @return Uri to query the history from the first day up to and including the last day
+         */
+        public static Uri buildHistoryWithDateRange(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(WeatherEntry.QUERY_PARAMETER_START_DATE,
+                            Long.toString(SunshineDateUtils.normalizeDate(startDate)))
+                    .appendQueryParameter(WeatherEntry.QUERY_PARAMETER_END_DATE,
+                            Long.toString(SunshineDateUtils.normalizeDate(endDate)))
+                    .build();
+        }
+    }
+
+    /*
+     * Summaries of the history, one row per week and one per month that has archived days.
+     * Weeks start on Monday, and weeks and months both start at midnight UTC, like the dates of
+     * WeatherEntry. The summaries are updated as each day is archived, rather than computed from
+     * the history when they are read, so reading the summary of a week or a month is a single
+     * lookup by the date it starts on. They can only be queried.
+     *
+     * A week is dropped once all of its days are in months dropped from the history. A week that
+     * straddles the first month kept is kept whole, with the days of the month before it.
+     */
+    public static final class RollupEntry implements BaseColumns {
+
+        /* The parent of both URIs below. Observers of it are told about changes to either. */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_ROLLUPS)
+                .build();
+
+        /* Every week, or every month, in order of date unless the query asks otherwise */
+        public static final Uri WEEK_CONTENT_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEEK)
+                .build();
+        public static final Uri MONTH_CONTENT_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_MONTH)
+                .build();
+
+        /* Used internally as the names of the tables of the summaries */
+        public static final String TABLE_WEEKS = "rollup_week";
+        public static final String TABLE_MONTHS = "rollup_month";
+
+        /* The normalized date of the first day of the week or month. _id is the same. */
+        public static final String COLUMN_PERIOD_START = "period_start";
+
+        /* How many days of the week or month were archived */
+        public static final String COLUMN_DAYS = "days";
+
+        /* The lowest and highest temperatures of those days in °C */
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        /* The averages of the daily min and max temperatures of those days in °C */
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+
+        /**
+         * Builds a URI to query the summary of the week a day falls in.
+         *
+         * @param date Date in milliseconds, of any day of the week
+         * @return Uri to query the summary of that week
+         */
+        public static Uri buildWeekUriWithDate(long date) {
+            return WEEK_CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to query the summary of the month a day falls in.
+         *
+         * @param date Date in milliseconds, of any day of the month
+         * @return Uri to query the summary of that month
+         */
+        public static Uri buildMonthUriWithDate(long date) {
+            return MONTH_CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+    }
+
+    /*
+     * The timings WeatherProvider records of its own operations, one row per operation (query,
+     * bulkInsert, update, delete or call) and kind of URI it was called with. They can only be
+     * queried, and only in debuggable builds of the app. The same timings, with the whole
+     * latency histogram of each row, are written by "adb shell dumpsys activity provider
+     * com.example.android.sunshine/.data.WeatherProvider".
+     */
+    public static final class MetricsEntry {
+
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_METRICS)
+                .build();
+
+        /* The name of the operation, and the path of the URI, or "-" for call */
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_URI = "uri";
+
+        /* How many times the operation was called, and the rows it read or wrote in total */
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ROWS = "rows";
+
+        /*
+         * How long the operation took, in µs. The percentiles are upper bounds, read from a
+         * histogram whose buckets double in width.
+         */
+        public static final String COLUMN_MEAN_MICROS = "mean_us";
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P90_MICROS = "p90_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+
+        /*
+         * How many transactions the operation ran, how long they took once they had the database
+         * lock, and how long they waited for it, in µs in total
+         */
+        public static final String COLUMN_TRANSACTIONS = "transactions";
+        public static final String COLUMN_TRANSACTION_MICROS = "transaction_us";
+        public static final String COLUMN_LOCK_WAIT_MICROS = "lock_wait_us";
+    }
+}
@@ -15,14 +15,23 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p>
+ * From Honeycomb onwards, the database uses write-ahead logging. With the default rollback
+ * journal, SQLite gives a transaction the whole database, and every Cursor the forecast list,
+ * the detail screen, the notification and the wearable ask for waits until a sync has finished
+ * writing. With write-ahead logging, a transaction appends to a separate log instead, and
+ * queries keep reading the last committed forecast on their own connections while it runs.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
@@ -42,11 +51,85 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Every version from 3 onwards has to be migrated to the next one by WeatherDbMigrations,
+     * so that upgrading the app keeps the weather that is stored.
+     */
+    static final int DATABASE_VERSION = 6;
+
+    /*
+     * How many pages the write-ahead log may grow to before a commit copies it back into the
+     * database. Android lowers SQLite's default of 1000 to 100, which checkpoints after almost
+     * every sync. The whole table is only a few dozen pages, so 1000 still keeps the log to a
+     * few MB, and the log is checkpointed once every few syncs instead.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /* The helper WeatherProvider and ForecastDao share, see getInstance */
+    private static WeatherDbHelper sInstance;
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Returns the helper of the app's weather database, creating it the first time.
+     * <p>
+     * WeatherProvider writes through this helper, and {@link ForecastDao} reads through it. One
+     * helper means one SQLiteDatabase, so the DAO's queries use the same pool of connections as
+     * the provider, and see every write the provider has committed.
+     *
+     * @param context Any Context. Only its application Context is kept.
+     * @return The shared helper
+     */
+    public static synchronized WeatherDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Called every time the database is opened. Before Jelly Bean, SQLiteOpenHelper can't be
+     * told to use write-ahead logging, so it is turned on here.
+     * <p>
+     * The checkpoint policy is set here too. It only matters on the connection that writes,
+     * which is the one this is called with: the connections Android opens for reading never
+     * checkpoint.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging(db);
+        }
+
+        /* This PRAGMA returns the new value, so it has to be run as a query, and stepped */
+        Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES,
+                null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
     }
 
     /**
@@ -67,47 +150,57 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
 
                 /*
-                 * WeatherEntry did not explicitly declare a column called "_ID". However,
-                 * WeatherEntry implements the interface, "BaseColumns", which does have a field
-                 * named "_ID". We use that here to designate our table's primary key.
+                 * The date is the primary key of the table. A column declared INTEGER PRIMARY
+                 * KEY is the row ID of the table, so rows are stored in order of date, and a day
+                 * is looked up without a separate index on its date. Declaring it "ON CONFLICT
+                 * REPLACE" keeps one weather entry per date: if we insert weather for a date we
+                 * already have, the old weather entry is replaced.
+                 *
+                 * Android's SQLite only supports WITHOUT ROWID tables from Lollipop onwards,
+                 * but for a table keyed on a single INTEGER, a rowid table is just as compact.
                  */
-                WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-
-                WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_DATE       + " INTEGER PRIMARY KEY ON CONFLICT REPLACE, " +
 
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+                /*
+                 * Everything below is stored in hundredths, as an INTEGER rather than an 8 byte
+                 * REAL. WeatherProvider converts them, see WeatherEncoding.
+                 */
+                WeatherEntry.COLUMN_MIN_TEMP   + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_MAX_TEMP   + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_HUMIDITY   + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_PRESSURE   + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_DEGREES    + " INTEGER NOT NULL, "                 +
 
-                /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
-                 */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                WeatherEntry.COLUMN_UPDATED    + " INTEGER NOT NULL DEFAULT 0);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        /*
+         * The summaries of the weather history by week and month. The history itself gets a
+         * table per month as days are archived, see WeatherArchive.
+         */
+        WeatherArchive.createRollupTables(sqLiteDatabase);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Upgrades the database one version at a time with {@link WeatherDbMigrations}, keeping the
+     * weather that is stored, so that the forecast can be displayed right after the app is
+     * updated. Note that this only fires if you change the version number for your database (in
+     * our case, DATABASE_VERSION). It does NOT depend on the version number for your application
+     * found in your app/build.gradle file.
+     * <p>
+     * This database is only a cache for online data, so if there is no migration from the old
+     * version (it is older than any we know of), the data is discarded and onCreate is called
+     * to recreate the table.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,6 +208,9 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            return;
+        }
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
@@ -0,0 +1,158 @@
+package com.example.android.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Upgrades the weather database from one version to the next without losing the weather it
+ * holds, so that updating the app doesn't leave the forecast list empty until a sync finishes.
+ * <p>
+ * Every version has a step that takes a database of that version to the next one. An upgrade
+ * runs the steps one after the other: a database at version 3 goes through the steps of 3, 4
+ * and 5 to get to version 6. {@link android.database.sqlite.SQLiteOpenHelper} runs the whole
+ * upgrade in a single transaction, so if a step fails, the database is left as it was.
+ * <p>
+ * The steps run while the database is being opened, before anything can be displayed, so they
+ * should change the schema in place (ALTER TABLE, CREATE INDEX) rather than copy the table
+ * whenever they can.
+ * <p>
+ * Each step spells out the SQL of the schema it migrates to, rather than using the constants of
+ * {@link WeatherContract}, so that it keeps creating that version when the contract changes.
+ * <p>
+ * When you bump {@link WeatherDbHelper}'s version, add a step for the version before it to
+ * {@link #migrateStep(SQLiteDatabase, int)}, and the schema of that version to the test harness
+ * in TestDatabaseMigrations.
+ */
+final class WeatherDbMigrations {
+
+    /* The oldest version we know how to migrate from. Anything older is recreated. */
+    private static final int OLDEST_MIGRATED_VERSION = 3;
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * Upgrades a database one step at a time. Must be called in a transaction.
+     *
+     * @param db         The database to upgrade
+     * @param oldVersion The version the database is at
+     * @param newVersion The version to upgrade it to
+     * @return false, without changing anything, if there is no step for one of the versions in
+     * between. The database then has to be recreated.
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            if (!hasStep(version)) {
+                return false;
+            }
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            migrateStep(db, version);
+        }
+        return true;
+    }
+
+    private static boolean hasStep(int fromVersion) {
+        return fromVersion >= OLDEST_MIGRATED_VERSION
+                && fromVersion < WeatherDbHelper.DATABASE_VERSION;
+    }
+
+    /**
+     * Takes a database from one version to the next.
+     *
+     * @param db          The database to upgrade
+     * @param fromVersion The version the database is at
+     */
+    private static void migrateStep(SQLiteDatabase db, int fromVersion) {
+        switch (fromVersion) {
+
+            case 3:
+                migrate3To4(db);
+                break;
+
+            case 4:
+                migrate4To5(db);
+                break;
+
+            case 5:
+                migrate5To6(db);
+                break;
+
+            default:
+                throw new IllegalStateException("No migration from version " + fromVersion);
+        }
+    }
+
+    /**
+     * Version 4 records when every day was downloaded. Days that were stored before then are
+     * marked as never downloaded, so that the next sync refreshes them first.
+     * <p>
+     * Adding a column with a constant default only changes the schema: SQLite doesn't rewrite
+     * the rows, which read the default until they are next written.
+     */
+    private static void migrate3To4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE weather ADD COLUMN updated INTEGER NOT NULL DEFAULT 0");
+    }
+
+    /**
+     * Version 5 keys the table on the date instead of an _id, and stores everything but the
+     * date, weather ID and updated time as INTEGER hundredths rather than REALs (see
+     * {@link WeatherEncoding}).
+     * <p>
+     * SQLite can't change the primary key or the type of a column in place, so the days are
+     * copied into a new table, which then takes the place of the old one. The forecast is a
+     * few dozen days, so that is still quick.
+     */
+    private static void migrate4To5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE weather_v5 ("
+                + "date INTEGER PRIMARY KEY ON CONFLICT REPLACE, "
+                + "weather_id INTEGER NOT NULL, "
+                + "min INTEGER NOT NULL, "
+                + "max INTEGER NOT NULL, "
+                + "humidity INTEGER NOT NULL, "
+                + "pressure INTEGER NOT NULL, "
+                + "wind INTEGER NOT NULL, "
+                + "degrees INTEGER NOT NULL, "
+                + "updated INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("INSERT INTO weather_v5 "
+                + "(date, weather_id, min, max, humidity, pressure, wind, degrees, updated) "
+                + "SELECT date, weather_id, "
+                + toHundredths("min") + ", "
+                + toHundredths("max") + ", "
+                + toHundredths("humidity") + ", "
+                + toHundredths("pressure") + ", "
+                + toHundredths("wind") + ", "
+                + toHundredths("degrees") + ", "
+                + "updated FROM weather");
+        db.execSQL("DROP TABLE weather");
+        db.execSQL("ALTER TABLE weather_v5 RENAME TO weather");
+    }
+
+    /**
+     * Version 6 can archive past days instead of deleting them (see {@link WeatherArchive}).
+     * The monthly tables of the history are created as days are archived, so only the tables
+     * of the weekly and monthly rollups are added here, empty.
+     */
+    private static void migrate5To6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE rollup_week ("
+                + "period_start INTEGER PRIMARY KEY, "
+                + "days INTEGER NOT NULL, "
+                + "min INTEGER NOT NULL, "
+                + "max INTEGER NOT NULL, "
+                + "sum_min INTEGER NOT NULL, "
+                + "sum_max INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE rollup_month ("
+                + "period_start INTEGER PRIMARY KEY, "
+                + "days INTEGER NOT NULL, "
+                + "min INTEGER NOT NULL, "
+                + "max INTEGER NOT NULL, "
+                + "sum_min INTEGER NOT NULL, "
+                + "sum_max INTEGER NOT NULL)");
+    }
+
+    /**
+     * @return SQL that converts a REAL column into INTEGER hundredths
+     */
+    private static String toHundredths(String column) {
+        return "CAST(ROUND(" + column + " * 100) AS INTEGER)";
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Converts the weather between what {@link WeatherProvider}'s callers see and what the weather
+ * table stores.
+ * <p>
+ * Callers read and write temperatures, humidity, pressure, wind speed and wind direction as
+ * doubles. The table stores each of them as an INTEGER in hundredths: 21.37°C is stored as
+ * 2137. SQLite stores a REAL in 8 bytes, but an INTEGER in as few bytes as its value needs, so
+ * most of these take 2 or 3 bytes. Two decimals is more than OpenWeatherMap gives us, and more
+ * than we display.
+ * <p>
+ * Values are encoded on their way into the table, and decoded in SQL, so no caller ever sees a
+ * stored value. Queries don't read the table itself but {@link #DECODED_TABLE}, a subselect that
+ * decodes every column, so that selections and sort orders see the values callers expect: "max >
+ * 20" means above 20°C, not above 0.20°C. SQLite flattens the subselect into the query, so a
+ * selection on the date still uses the primary key. Updates and deletes can't run on a subselect,
+ * so their selections are turned into a lookup of the dates it matches, see
+ * {@link #decodeSelection(String)}.
+ */
+final class WeatherEncoding {
+
+    /* Every scaled column is stored in hundredths of the unit callers use */
+    static final int SCALE = 100;
+
+    /* The columns stored in hundredths */
+    private static final String[] SCALED_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * The projection map of queries on the weather table. A query without a projection gets
+     * every column, in this order.
+     * <p>
+     * The date of a day is its row ID, so _id is kept for callers that expect one, as another
+     * name for the date.
+     */
+    static final Map<String, String> PROJECTION_MAP = buildProjectionMap();
+
+    /* The weather table as callers see it, with every column decoded */
+    static final String DECODED_TABLE = decodedTable(WeatherEntry.TABLE_NAME, PROJECTION_MAP);
+
+    /* The projection map of queries on DECODED_TABLE, whose columns are already decoded */
+    static final Map<String, String> DECODED_PROJECTION_MAP =
+            identityProjectionMap(PROJECTION_MAP.keySet());
+
+    private WeatherEncoding() {
+    }
+
+    /**
+     * @param value A temperature, humidity, pressure, wind speed or wind direction
+     * @return The value as it is stored in the weather table
+     */
+    static long encode(double value) {
+        return Math.round(value * SCALE);
+    }
+
+    /**
+     * @param stored A temperature, humidity, pressure, wind speed or wind direction as it is
+     *               stored in the weather table
+     * @return The value callers see
+     */
+    static double decode(long stored) {
+        /* The same division the projection does in SQL, so both give the same double */
+        return stored / (double) SCALE;
+    }
+
+    /**
+     * @param column A column of the weather table
+     * @return Whether the column is stored in hundredths, and read as a double
+     */
+    static boolean isScaled(String column) {
+        for (String scaledColumn : SCALED_COLUMNS) {
+            if (scaledColumn.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds a subselect that reads a table as callers see it, for the FROM clause of a query.
+     * It keeps the name of the table, so that callers can still qualify its columns.
+     *
+     * @param table         The table to read
+     * @param projectionMap Decodes the columns of the table, like {@link #PROJECTION_MAP}
+     * @return The subselect
+     */
+    static String decodedTable(String table, Map<String, String> projectionMap) {
+        StringBuilder sql = new StringBuilder("(SELECT ");
+        boolean first = true;
+        for (String column : projectionMap.values()) {
+            sql.append(first ? "" : ", ").append(column);
+            first = false;
+        }
+        return sql.append(" FROM ").append(table).append(") AS ").append(table).toString();
+    }
+
+    /**
+     * @param columns The columns of a subselect built by {@link #decodedTable(String, Map)}
+     * @return A projection map that reads each of them as it is
+     */
+    static Map<String, String> identityProjectionMap(Collection<String> columns) {
+        Map<String, String> projectionMap = new LinkedHashMap<String, String>();
+        for (String column : columns) {
+            projectionMap.put(column, column);
+        }
+        return Collections.unmodifiableMap(projectionMap);
+    }
+
+    /**
+     * Turns the selection of an update or delete on the weather table into one that compares the
+     * scaled columns as callers see them, by looking up the dates it matches in
+     * {@link #DECODED_TABLE}. The date is the primary key, so the lookup is cheap.
+     *
+     * @param selection A selection on the weather table, or null
+     * @return The selection on the stored table, or null if there was none
+     */
+    static String decodeSelection(String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return WeatherEntry.COLUMN_DATE + " IN (SELECT " + WeatherEntry.COLUMN_DATE + " FROM "
+                + DECODED_TABLE + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Encodes the scaled columns of a row on its way into the weather table. Values that aren't
+     * numbers are left alone, so that SQLite rejects them the way it would have.
+     *
+     * @param values The row as callers give it
+     * @return A copy of the row as it is stored, or the row itself if it has no scaled columns
+     */
+    static ContentValues encode(ContentValues values) {
+        ContentValues encoded = null;
+        for (String column : SCALED_COLUMNS) {
+            Object value = values.get(column);
+            if (value instanceof Number) {
+                if (encoded == null) {
+                    encoded = new ContentValues(values);
+                }
+                encoded.put(column, encode(((Number) value).doubleValue()));
+            }
+        }
+        return encoded != null ? encoded : values;
+    }
+
+    /**
+     * @param expression A stored value, or an expression of stored values, in SQL
+     * @return The value callers see, in SQL. The CAST gives it REAL affinity, like a column, so
+     * that it compares with a number passed as a String selection argument as a number.
+     */
+    static String decode(String expression) {
+        return "CAST(" + expression + " / " + SCALE + ".0 AS REAL)";
+    }
+
+    private static Map<String, String> buildProjectionMap() {
+        Map<String, String> projectionMap = new LinkedHashMap<String, String>();
+        projectionMap.put(WeatherEntry._ID, WeatherEntry.COLUMN_DATE + " AS " + WeatherEntry._ID);
+        projectionMap.put(WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_DATE);
+        projectionMap.put(WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_WEATHER_ID);
+        for (String column : SCALED_COLUMNS) {
+            projectionMap.put(column, decode(column) + " AS " + column);
+        }
+        projectionMap.put(WeatherEntry.COLUMN_UPDATED, WeatherEntry.COLUMN_UPDATED);
+        return Collections.unmodifiableMap(projectionMap);
+    }
+}
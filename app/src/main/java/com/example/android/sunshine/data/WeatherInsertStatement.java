@@ -0,0 +1,144 @@
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * A compiled INSERT OR REPLACE statement for the weather table.
+ * <p>
+ * SQLiteDatabase.insert builds the SQL for every row it inserts, compiles it, and copies every
+ * value out of the ContentValues. This statement is compiled once and then reused for every row
+ * of a bulk insert, with the values of each row bound straight from primitives.
+ * <p>
+ * Rows are given the way callers see them, and encoded for the table with
+ * {@link WeatherEncoding} as they are bound.
+ * <p>
+ * Like a SQLiteStatement, it must be used on one thread at a time, inside the transaction of the
+ * database it was compiled for, and closed once the caller is done with it.
+ */
+final class WeatherInsertStatement {
+
+    /*
+     * The columns a row must consist of to be bound to this statement. The updated column is
+     * optional, the others are all NOT NULL.
+     */
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_UPDATED
+    };
+
+    /* Bind indices of the columns above. SQLite counts them from 1. */
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND_SPEED = 7;
+    private static final int INDEX_DEGREES = 8;
+    private static final int INDEX_UPDATED = 9;
+
+    private static final String SQL_INSERT_WEATHER = buildInsertSql();
+
+    private final SQLiteStatement mStatement;
+
+    /**
+     * @param db The database to compile the statement for
+     */
+    WeatherInsertStatement(SQLiteDatabase db) {
+        mStatement = db.compileStatement(SQL_INSERT_WEATHER);
+    }
+
+    /**
+     * Inserts a day of weather, replacing the day with the same date if there is one.
+     *
+     * @return The row ID of the new row, or -1 if it couldn't be inserted
+     */
+    long insert(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                double pressure, double windSpeed, double degrees, long updated) {
+        mStatement.bindLong(INDEX_DATE, date);
+        mStatement.bindLong(INDEX_WEATHER_ID, weatherId);
+        mStatement.bindLong(INDEX_MIN_TEMP, WeatherEncoding.encode(minTemp));
+        mStatement.bindLong(INDEX_MAX_TEMP, WeatherEncoding.encode(maxTemp));
+        mStatement.bindLong(INDEX_HUMIDITY, WeatherEncoding.encode(humidity));
+        mStatement.bindLong(INDEX_PRESSURE, WeatherEncoding.encode(pressure));
+        mStatement.bindLong(INDEX_WIND_SPEED, WeatherEncoding.encode(windSpeed));
+        mStatement.bindLong(INDEX_DEGREES, WeatherEncoding.encode(degrees));
+        mStatement.bindLong(INDEX_UPDATED, updated);
+        return mStatement.executeInsert();
+    }
+
+    /**
+     * Inserts a row given as ContentValues. Use {@link #canInsert(ContentValues)} first.
+     *
+     * @param value          The row to insert
+     * @param defaultUpdated The value of the updated column if the row doesn't have one
+     * @return The row ID of the new row, or -1 if it couldn't be inserted
+     */
+    long insert(ContentValues value, long defaultUpdated) {
+        Long updated = value.getAsLong(WeatherEntry.COLUMN_UPDATED);
+        return insert(
+                value.getAsLong(WeatherEntry.COLUMN_DATE),
+                value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                value.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                value.getAsDouble(WeatherEntry.COLUMN_DEGREES),
+                updated != null ? updated : defaultUpdated);
+    }
+
+    /**
+     * Checks whether a row can be bound to this statement: it must have a number for every
+     * column of the weather table (the updated column may be left out), and nothing else.
+     * Anything else has to go through SQLiteDatabase.insert, which knows what to do with it
+     * (or fails the way callers expect).
+     *
+     * @param value The row to check
+     * @return true if the row can be inserted with {@link #insert(ContentValues, long)}
+     */
+    static boolean canInsert(ContentValues value) {
+        int columns = 0;
+        for (String column : COLUMNS) {
+            Object columnValue = value.get(column);
+            if (columnValue instanceof Number) {
+                columns++;
+            } else if (columnValue != null || !WeatherEntry.COLUMN_UPDATED.equals(column)) {
+                return false;
+            }
+        }
+        return columns == value.size();
+    }
+
+    /**
+     * Releases the compiled statement.
+     */
+    void close() {
+        mStatement.close();
+    }
+
+    private static String buildInsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(WeatherEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+}
@@ -17,21 +17,28 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.UriMatcher;
+import android.content.pm.ApplicationInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * bulkInsert data, query data, update data, and delete data.
  * <p>
  * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
+ * perform single inserts, and the ability to get the type of the data from a URI.
  * However, here, they are not implemented for the sake of brevity and simplicity. If you would
  * like, you may implement them on your own. However, we are not going to be teaching how to do
  * so in this course.
@@ -45,6 +52,13 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_METRICS = 200;
+    public static final int CODE_HISTORY = 300;
+    public static final int CODE_HISTORY_WITH_DATE = 301;
+    public static final int CODE_WEEK_ROLLUPS = 310;
+    public static final int CODE_WEEK_ROLLUP_WITH_DATE = 311;
+    public static final int CODE_MONTH_ROLLUPS = 320;
+    public static final int CODE_MONTH_ROLLUP_WITH_DATE = 321;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +68,12 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /* Recent results of queries, so that repeating one doesn't read the database */
+    private final WeatherQueryCache mQueryCache = new WeatherQueryCache();
+
+    /* Whether the app is debuggable, which is the only time ProviderMetrics can be read */
+    private boolean mMetricsAvailable;
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +116,21 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/metrics, see ProviderMetrics */
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, CODE_METRICS);
+
+        /* The archived weather, and its summaries by week and month, see WeatherArchive */
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, CODE_HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/#", CODE_HISTORY_WITH_DATE);
+
+        String weekPath = WeatherContract.PATH_ROLLUPS + "/" + WeatherContract.PATH_WEEK;
+        matcher.addURI(authority, weekPath, CODE_WEEK_ROLLUPS);
+        matcher.addURI(authority, weekPath + "/#", CODE_WEEK_ROLLUP_WITH_DATE);
+
+        String monthPath = WeatherContract.PATH_ROLLUPS + "/" + WeatherContract.PATH_MONTH;
+        matcher.addURI(authority, monthPath, CODE_MONTH_ROLLUPS);
+        matcher.addURI(authority, monthPath + "/#", CODE_MONTH_ROLLUP_WITH_DATE);
+
         return matcher;
     }
 
@@ -119,9 +154,15 @@ public class WeatherProvider extends ContentProvider {
         /*
          * As noted in the comment above, onCreate is run on the main thread, so performing any
          * lengthy operations will cause lag in your app. Since WeatherDbHelper's constructor is
-         * very lightweight, we are safe to perform that initialization here.
+         * very lightweight, we are safe to perform that initialization here. The helper is
+         * shared with ForecastDao, which reads the database directly for the app itself.
          */
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mOpenHelper = WeatherDbHelper.getInstance(getContext());
+
+        /* The timings of our operations are only recorded, and readable, while debugging */
+        mMetricsAvailable = (getContext().getApplicationInfo().flags
+                & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        ProviderMetrics.setEnabled(mMetricsAvailable);
         return true;
     }
 
@@ -145,30 +186,24 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
-                int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
+                long start = ProviderMetrics.start();
+                int rowsInserted = bulkInsertWeather(db, values);
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    /*
+                     * We don't know which of the days replaced a day we already had, so we
+                     * assume that days were added.
+                     */
+                    WeatherChanges changes = new WeatherChanges();
+                    for (ContentValues value : values) {
+                        changes.addDate(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                    }
+                    changes.setMembershipChanged();
+                    onWeatherChanged(changes, true);
                 }
 
+                ProviderMetrics.end(ProviderMetrics.OPERATION_BULK_INSERT, CODE_WEATHER, start,
+                        rowsInserted);
                 return rowsInserted;
 
             default:
@@ -176,6 +211,315 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Handles the provider specific methods defined in {@link WeatherContract}. Both of them
+     * take a {@link ForecastBatch} and insert it straight from its primitive arrays. Converting
+     * the batch to ContentValues just so bulkInsert can read them back would cost a HashMap and
+     * eight boxed values for every day of the forecast.
+     * <p>
+     * {@link WeatherContract#METHOD_INSERT_FORECAST} only inserts the batch.
+     * {@link WeatherContract#METHOD_REPLACE_FORECAST} also deletes the old weather data first,
+     * in the same transaction, so nobody ever sees the table empty (or half filled) in between.
+     * {@link WeatherContract#METHOD_UPSERT_FORECAST} only writes the days that changed (see
+     * {@link ForecastUpsert}).
+     * <p>
+     * Observers of the days that were written or deleted are notified after the transaction
+     * (see {@link WeatherChanges}), unless the caller asks us not to with
+     * {@link WeatherContract#EXTRA_NOTIFY_CHANGE}.
+     * <p>
+     * Within the app's own process, the extras are handed over as they are, so the arrays of
+     * the batch are not even copied.
+     * <p>
+     * In debuggable builds, {@link WeatherContract#METHOD_SET_METRICS_ENABLED} and
+     * {@link WeatherContract#METHOD_RESET_METRICS} control the timings of {@link ProviderMetrics}.
+     * Every other method is timed.
+     *
+     * @param method The name of the method to call
+     * @param arg    Not used
+     * @param extras The arguments of the method
+     * @return The result of the method
+     */
+    @Override
+    @TargetApi(11)
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (mMetricsAvailable && WeatherContract.METHOD_SET_METRICS_ENABLED.equals(method)) {
+            ProviderMetrics.setEnabled(extras != null
+                    && extras.getBoolean(WeatherContract.EXTRA_METRICS_ENABLED));
+            return null;
+        }
+        if (mMetricsAvailable && WeatherContract.METHOD_RESET_METRICS.equals(method)) {
+            ProviderMetrics.reset();
+            return null;
+        }
+
+        long start = ProviderMetrics.start();
+        Bundle result = callWeather(method, arg, extras);
+        ProviderMetrics.endCall(start, result);
+        return result;
+    }
+
+    /**
+     * Runs the methods of {@link #call} that read or write the weather table.
+     */
+    @TargetApi(11)
+    private Bundle callWeather(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_UPSERT_FORECAST.equals(method)) {
+            return upsertForecast(extras);
+        }
+        if (WeatherContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.EXTRA_CACHE_HITS, mQueryCache.getHits());
+            result.putLong(WeatherContract.EXTRA_CACHE_MISSES, mQueryCache.getMisses());
+            return result;
+        }
+        if (WeatherContract.METHOD_GET_FORECAST_PACKED.equals(method)) {
+            return getForecastPacked(extras);
+        }
+
+        boolean replace = WeatherContract.METHOD_REPLACE_FORECAST.equals(method);
+        if (!replace && !WeatherContract.METHOD_INSERT_FORECAST.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+
+        ForecastBatch batch = ForecastBatch.fromBundle(extras);
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        WeatherChanges changes = new WeatherChanges();
+        int rowsDeleted = 0;
+        int rowsInserted;
+        ProviderMetrics.beginTransaction(db);
+        try {
+            if (replace) {
+                rowsDeleted = deleteForReplace(db, extras, changes);
+            }
+            rowsInserted = insertForecast(db, batch);
+            db.setTransactionSuccessful();
+        } finally {
+            ProviderMetrics.endTransaction(db);
+        }
+
+        if (rowsInserted > 0) {
+            for (int i = 0; i < batch.size(); i++) {
+                changes.addDate(batch.getDate(i));
+            }
+        }
+        if (rowsDeleted > 0 || rowsInserted > 0) {
+            changes.setMembershipChanged();
+        }
+        onWeatherChanged(changes, extras.getBoolean(WeatherContract.EXTRA_NOTIFY_CHANGE, true));
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_INSERTED, rowsInserted);
+        result.putInt(WeatherContract.EXTRA_ROWS_DELETED, rowsDeleted);
+        return result;
+    }
+
+    /**
+     * Reads a forecast for {@link WeatherContract#METHOD_GET_FORECAST_PACKED}. This is still a
+     * Cursor query inside the provider: SQLite fills a CursorWindow with the days, and they are
+     * copied out of it with one getter call per column of every row, eight per day. What the
+     * method saves is on the caller's side, which gets one array per column through the Binder
+     * instead of a Cursor and a window of its own. Unlike a query, it doesn't go through the
+     * query cache: the Bundle is new on every call.
+     *
+     * @param extras The arguments of the method
+     * @return The forecast, stored with {@link ForecastBatch#toBundle()}
+     * @throws IllegalArgumentException If the extras don't hold a start date, or the count
+     *                                  isn't positive
+     */
+    private Bundle getForecastPacked(Bundle extras) {
+        if (extras == null || !extras.containsKey(WeatherContract.EXTRA_START_DATE)) {
+            throw new IllegalArgumentException(
+                    WeatherContract.METHOD_GET_FORECAST_PACKED + " needs a start date");
+        }
+        long startDate = SunshineDateUtils.normalizeDate(
+                extras.getLong(WeatherContract.EXTRA_START_DATE));
+        int count = extras.getInt(WeatherContract.EXTRA_COUNT);
+        if (count <= 0) {
+            throw new IllegalArgumentException("Count must be positive: " + count);
+        }
+
+        return ForecastDao.queryForecast(mOpenHelper.getReadableDatabase(), startDate, count)
+                .toBundle();
+    }
+
+    /**
+     * Writes a forecast for {@link WeatherContract#METHOD_UPSERT_FORECAST}.
+     * <p>
+     * If the caller asks for the past days to be archived, they are copied into the history
+     * and the history is pruned in the same transaction as the upsert that deletes them, so a
+     * day is never in both tables, nor in neither, as far as anyone reading can tell.
+     *
+     * @param extras The arguments of the method
+     * @return The number of rows written, and the dates that changed
+     * @throws IllegalArgumentException If the number of months of history to keep isn't
+     *                                  positive
+     */
+    private Bundle upsertForecast(Bundle extras) {
+        ForecastBatch batch = ForecastBatch.fromBundle(extras);
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long deleteBefore = extras.getLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE,
+                Long.MIN_VALUE);
+        long deleteAfter = extras.getLong(WeatherContract.EXTRA_DELETE_AFTER_DATE,
+                Long.MAX_VALUE);
+
+        ForecastUpsert upsert;
+        int rowsArchived = 0;
+        if (extras.getBoolean(WeatherContract.EXTRA_ARCHIVE) && deleteBefore != Long.MIN_VALUE) {
+            int historyMonths = extras.getInt(WeatherContract.EXTRA_HISTORY_MONTHS,
+                    WeatherArchive.DEFAULT_HISTORY_MONTHS);
+            if (historyMonths <= 0) {
+                throw new IllegalArgumentException(
+                        "Months of history must be positive: " + historyMonths);
+            }
+
+            /* Days of the forecast that are dropped aren't history, only the days before today */
+            long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+            int monthsDropped;
+            ProviderMetrics.beginTransaction(db);
+            try {
+                rowsArchived = WeatherArchive.archive(db, Math.min(deleteBefore, today));
+                monthsDropped = WeatherArchive.prune(db, historyMonths, today);
+                upsert = ForecastUpsert.upsert(db, batch, deleteBefore, deleteAfter);
+                db.setTransactionSuccessful();
+            } finally {
+                ProviderMetrics.endTransaction(db);
+            }
+
+            if (rowsArchived > 0 || monthsDropped > 0) {
+                onHistoryChanged();
+            }
+        } else {
+            upsert = ForecastUpsert.upsert(db, batch, deleteBefore, deleteAfter);
+        }
+
+        onWeatherChanged(upsert.mChanges,
+                extras.getBoolean(WeatherContract.EXTRA_NOTIFY_CHANGE, true));
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_INSERTED, upsert.mRowsInserted);
+        result.putInt(WeatherContract.EXTRA_ROWS_UPDATED, upsert.mRowsUpdated);
+        result.putInt(WeatherContract.EXTRA_ROWS_UNCHANGED, upsert.mRowsUnchanged);
+        result.putInt(WeatherContract.EXTRA_ROWS_DELETED, upsert.mRowsDeleted);
+        result.putInt(WeatherContract.EXTRA_ROWS_ARCHIVED, rowsArchived);
+        result.putLongArray(WeatherContract.EXTRA_CHANGED_DATES, upsert.mChanges.getDates());
+        result.putBoolean(WeatherContract.EXTRA_MEMBERSHIP_CHANGED,
+                upsert.mChanges.isMembershipChanged());
+        return result;
+    }
+
+    /**
+     * Deletes the weather data a forecast replaces: every row, or only the rows before
+     * {@link WeatherContract#EXTRA_DELETE_BEFORE_DATE} if the caller gave one.
+     *
+     * @param db      The database to delete from
+     * @param extras  The arguments of {@link WeatherContract#METHOD_REPLACE_FORECAST}
+     * @param changes Collects the dates that are deleted
+     * @return The number of rows deleted
+     */
+    private static int deleteForReplace(SQLiteDatabase db, Bundle extras,
+                                        WeatherChanges changes) {
+        /* Passing "1" deletes every row and still tells us how many there were */
+        String selection = "1";
+        String[] selectionArgs = null;
+        if (extras.containsKey(WeatherContract.EXTRA_DELETE_BEFORE_DATE)) {
+            selection = WeatherContract.WeatherEntry.COLUMN_DATE + " < ?";
+            selectionArgs = new String[]{Long.toString(
+                    extras.getLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE))};
+        }
+
+        changes.addRows(db, selection, selectionArgs);
+        return db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+    }
+
+    /**
+     * Inserts rows into the weather table in a single transaction. The INSERT statement is
+     * compiled once for the whole transaction, and every row is bound to it, unless the row has
+     * columns the statement doesn't know about. Those rows go through SQLiteDatabase.insert.
+     * <p>
+     * Rows that don't say when they were downloaded are stamped with the current time.
+     *
+     * @param db     The database to insert into
+     * @param values The rows to insert
+     * @return The number of rows inserted
+     * @throws IllegalArgumentException If the date of a row isn't normalized
+     */
+    static int bulkInsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        long now = System.currentTimeMillis();
+
+        WeatherInsertStatement statement = new WeatherInsertStatement(db);
+        int rowsInserted = 0;
+        ProviderMetrics.beginTransaction(db);
+        try {
+            for (ContentValues value : values) {
+                long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                long _id;
+                if (WeatherInsertStatement.canInsert(value)) {
+                    _id = statement.insert(value, now);
+                } else {
+                    if (!value.containsKey(WeatherContract.WeatherEntry.COLUMN_UPDATED)) {
+                        value = new ContentValues(value);
+                        value.put(WeatherContract.WeatherEntry.COLUMN_UPDATED, now);
+                    }
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                            WeatherEncoding.encode(value));
+                }
+
+                if (_id != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            ProviderMetrics.endTransaction(db);
+            statement.close();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts every day of a batch into the weather table in a single transaction, binding the
+     * primitives of the batch straight to one compiled statement.
+     *
+     * @param db    The database to insert into
+     * @param batch The days to insert
+     * @return The number of rows inserted
+     * @throws IllegalArgumentException If the date of a day isn't normalized
+     */
+    static int insertForecast(SQLiteDatabase db, ForecastBatch batch) {
+        /* Like bulkInsert, days that don't say when they were downloaded are stamped with now */
+        long updated = batch.getUpdated() != 0 ? batch.getUpdated() : System.currentTimeMillis();
+
+        WeatherInsertStatement statement = new WeatherInsertStatement(db);
+        int rowsInserted = 0;
+        ProviderMetrics.beginTransaction(db);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                long weatherDate = batch.getDate(i);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                long _id = statement.insert(weatherDate, batch.getWeatherId(i),
+                        batch.getMinTemp(i), batch.getMaxTemp(i), batch.getHumidity(i),
+                        batch.getPressure(i), batch.getWindSpeed(i), batch.getDegrees(i),
+                        updated);
+                if (_id != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            ProviderMetrics.endTransaction(db);
+            statement.close();
+        }
+        return rowsInserted;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -196,12 +540,20 @@ public class WeatherProvider extends ContentProvider {
                         String[] selectionArgs, String sortOrder) {
 
         Cursor cursor;
+        Uri notificationUri = uri;
+        int match = sUriMatcher.match(uri);
+
+        /* The timings of our own operations aren't an operation on the weather table */
+        if (match == CODE_METRICS && mMetricsAvailable) {
+            return ProviderMetrics.query();
+        }
+        long start = ProviderMetrics.start();
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -233,9 +585,7 @@ public class WeatherProvider extends ContentProvider {
                  */
                 String[] selectionArguments = new String[]{normalizedUtcDateString};
 
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        /* Table we are going to query */
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                cursor = queryWeather(
                         /*
                          * A projection designates the columns we want returned in our Cursor.
                          * Passing null will return all columns of data within the Cursor.
@@ -254,10 +604,14 @@ public class WeatherProvider extends ContentProvider {
                          */
                         WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
                         selectionArguments,
+                        sortOrder,
                         null,
-                        null,
-                        sortOrder);
+                        /* Lets the query cache drop this result only when this day changes */
+                        Long.parseLong(normalizedUtcDateString));
 
+                /* Only the changes of this day reload it, see WeatherEntry.DAY_CHANGES_URI */
+                notificationUri = WeatherContract.WeatherEntry.buildDayChangesUri(
+                        Long.parseLong(normalizedUtcDateString));
                 break;
             }
 
@@ -270,18 +624,71 @@ public class WeatherProvider extends ContentProvider {
              * to return all of the weather in our weather table.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * in our weather table, or only the range of days the query parameters of the URI
+             * ask for (see WeatherEntry.QUERY_PARAMETER_START_DATE).
              */
             case CODE_WEATHER: {
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherRange range = WeatherRange.fromUri(uri);
+                cursor = queryWeather(
                         projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+                        range.appendSelection(selection),
+                        range.appendSelectionArgs(selectionArgs),
+                        range.getSortOrder(sortOrder),
+                        range.getLimit(),
+                        null);
+
+                break;
+            }
+
+            /*
+             * The history of a day is read from the table of its month, and a range of days
+             * from the tables of the months it spans, in order of date. The sort order of the
+             * query is ignored.
+             */
+            case CODE_HISTORY_WITH_DATE: {
+                cursor = WeatherArchive.queryDay(mOpenHelper.getReadableDatabase(), projection,
+                        Long.parseLong(uri.getLastPathSegment()));
+                break;
+            }
 
+            case CODE_HISTORY: {
+                String startDate = uri.getQueryParameter(
+                        WeatherContract.WeatherEntry.QUERY_PARAMETER_START_DATE);
+                String endDate = uri.getQueryParameter(
+                        WeatherContract.WeatherEntry.QUERY_PARAMETER_END_DATE);
+                cursor = WeatherArchive.queryRange(mOpenHelper.getReadableDatabase(), projection,
+                        selection, selectionArgs,
+                        startDate != null ? Long.parseLong(startDate) : 0,
+                        endDate != null ? Long.parseLong(endDate) : Long.MAX_VALUE);
+                break;
+            }
+
+            /* A week or month is looked up by the date it starts on, whichever day is asked for */
+            case CODE_WEEK_ROLLUP_WITH_DATE: {
+                cursor = WeatherArchive.queryRollup(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.RollupEntry.TABLE_WEEKS, projection,
+                        WeatherArchive.getWeekStart(Long.parseLong(uri.getLastPathSegment())));
+                break;
+            }
+
+            case CODE_MONTH_ROLLUP_WITH_DATE: {
+                cursor = WeatherArchive.queryRollup(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.RollupEntry.TABLE_MONTHS, projection,
+                        WeatherArchive.getMonthStart(Long.parseLong(uri.getLastPathSegment()), 0));
+                break;
+            }
+
+            case CODE_WEEK_ROLLUPS: {
+                cursor = WeatherArchive.queryRollups(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.RollupEntry.TABLE_WEEKS, projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            }
+
+            case CODE_MONTH_ROLLUPS: {
+                cursor = WeatherArchive.queryRollups(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.RollupEntry.TABLE_MONTHS, projection, selection,
+                        selectionArgs, sortOrder);
                 break;
             }
 
@@ -289,10 +696,51 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        ProviderMetrics.endQuery(match, start, cursor);
         return cursor;
     }
 
+    /**
+     * Queries the weather table, or answers from the query cache if the same query was run
+     * since the days it asks for last changed. Results of queries that can be cached are copied
+     * into the cache before they are returned.
+     *
+     * @param date The day a query of a single day asks for, or null
+     * @return The result of the query
+     */
+    private Cursor queryWeather(String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder, String limit, Long date) {
+        if (!WeatherQueryCache.isCacheable(projection)) {
+            return newWeatherQueryBuilder().query(mOpenHelper.getReadableDatabase(), projection,
+                    selection, selectionArgs, null, null, sortOrder, limit);
+        }
+
+        WeatherQueryCache.Key key = new WeatherQueryCache.Key(
+                projection, selection, selectionArgs, sortOrder, limit, date);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        int generation = mQueryCache.getGeneration();
+        cursor = newWeatherQueryBuilder().query(mOpenHelper.getReadableDatabase(), projection,
+                selection, selectionArgs, null, null, sortOrder, limit);
+        return mQueryCache.put(key, generation, cursor);
+    }
+
+    /**
+     * Every query on the weather table goes through a builder that reads the values the table
+     * stores as the values callers expect, so that its selection and sort order see them too
+     * (see {@link WeatherEncoding}).
+     */
+    private static SQLiteQueryBuilder newWeatherQueryBuilder() {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(WeatherEncoding.DECODED_TABLE);
+        builder.setProjectionMap(WeatherEncoding.DECODED_PROJECTION_MAP);
+        return builder;
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -306,6 +754,7 @@ public class WeatherProvider extends ContentProvider {
 
         /* Users of the delete method will expect the number of rows deleted to be returned. */
         int numRowsDeleted;
+        WeatherChanges changes = new WeatherChanges();
 
         /*
          * If we pass null as the selection to SQLiteDatabase#delete, our entire table will be
@@ -314,15 +763,26 @@ public class WeatherProvider extends ContentProvider {
          * passing "1" for the selection will delete all rows and return the number of rows
          * deleted, which is what the caller of this method expects.
          */
+        selection = WeatherEncoding.decodeSelection(selection);
         if (null == selection) selection = "1";
 
+        long start = ProviderMetrics.start();
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                ProviderMetrics.beginTransaction(db);
+                try {
+                    /* The dates are read first, so their observers can be told they are gone */
+                    changes.addRows(db, selection, selectionArgs);
+                    numRowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            selection,
+                            selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    ProviderMetrics.endTransaction(db);
+                }
 
                 break;
 
@@ -330,11 +790,14 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
+        /* If we actually deleted any rows, notify the observers of the days that are gone */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            changes.setMembershipChanged();
+            onWeatherChanged(changes, true);
         }
 
+        ProviderMetrics.end(ProviderMetrics.OPERATION_DELETE, CODE_WEATHER, start,
+                numRowsDeleted);
         return numRowsDeleted;
     }
 
@@ -370,9 +833,104 @@ public class WeatherProvider extends ContentProvider {
                 "We are not implementing insert in Sunshine. Use bulkInsert instead");
     }
 
+    /**
+     * Handles requests to update rows of the weather table. The sync uses this to mark days of
+     * the forecast as current when the server tells us they haven't changed.
+     *
+     * @param uri           The URI of the update request. Only the weather table is supported.
+     * @param values        The column_name/value pairs to set
+     * @param selection     Which rows to update. If null, all rows are updated.
+     * @param selectionArgs Values for the ?s in selection
+     * @return The number of rows updated
+     */
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+        int numRowsUpdated;
+        WeatherChanges changes = new WeatherChanges();
+
+        long start = ProviderMetrics.start();
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                /* The scaled columns are compared as callers see them */
+                selection = WeatherEncoding.decodeSelection(selection);
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                ProviderMetrics.beginTransaction(db);
+                try {
+                    changes.addRows(db, selection, selectionArgs);
+                    numRowsUpdated = db.update(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherEncoding.encode(values),
+                            selection,
+                            selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    ProviderMetrics.endTransaction(db);
+                }
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        /*
+         * If we actually updated any rows, notify the observers of those days. Nobody displays
+         * when a day was downloaded, so an update of only that column isn't worth a reload. The
+         * query cache never holds that column, so it doesn't need to drop anything either.
+         */
+        if (numRowsUpdated != 0 && !onlyUpdatesDownloadTime(values)) {
+            Long newDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (newDate != null) {
+                changes.addDate(newDate);
+                changes.setMembershipChanged();
+            }
+            onWeatherChanged(changes, true);
+        }
+
+        ProviderMetrics.end(ProviderMetrics.OPERATION_UPDATE, CODE_WEATHER, start,
+                numRowsUpdated);
+        return numRowsUpdated;
+    }
+
+    /**
+     * Called after every write to the weather table, once its transaction is over. Drops the
+     * cached query results the write may have changed, and notifies the observers of the days
+     * it touched.
+     *
+     * @param changes The days the write touched
+     * @param notify  Whether to notify observers. The cache is invalidated either way.
+     */
+    private void onWeatherChanged(WeatherChanges changes, boolean notify) {
+        mQueryCache.invalidate(changes);
+        if (notify) {
+            changes.notifyObservers(getContext().getContentResolver());
+        }
+    }
+
+    /**
+     * Called after days were archived or months of history dropped, once the transaction is
+     * over. The history isn't cached, so its observers only have to be notified.
+     */
+    private void onHistoryChanged() {
+        ContentResolver resolver = getContext().getContentResolver();
+        resolver.notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+        resolver.notifyChange(WeatherContract.RollupEntry.CONTENT_URI, null);
+    }
+
+    private static boolean onlyUpdatesDownloadTime(ContentValues values) {
+        return values.size() == 1
+                && values.containsKey(WeatherContract.WeatherEntry.COLUMN_UPDATED);
+    }
+
+    /**
+     * Writes the timings of our operations (see {@link ProviderMetrics}) for
+     * "adb shell dumpsys activity provider", in debuggable builds.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (mMetricsAvailable) {
+            ProviderMetrics.dump(writer);
+        }
     }
 
     /**
@@ -0,0 +1,300 @@
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of recent queries on the weather table in memory, so that asking for the
+ * same days again doesn't touch the database. The forecast list, the notification, the wearable
+ * and the detail screen ask for the same few queries over and over, and the forecast only
+ * changes when a sync writes it.
+ * <p>
+ * Results are keyed by the query {@link WeatherProvider} runs for a URI: its projection,
+ * selection (including the range the URI asks for), selection arguments, sort order and limit.
+ * Every hit is handed out as a new {@link MatrixCursor} holding a copy of the result, so callers
+ * can move and close it as they like. The cache holds at most {@link #MAX_ROWS} rows: the least
+ * recently used results are dropped to make room for new ones.
+ * <p>
+ * Only queries that name their columns are cached, and only if they don't ask for the updated
+ * column. The sync moves that column forward without changing anything that is displayed, and
+ * without invalidating the cache, so it always reads it from the database.
+ * <p>
+ * A write drops the results it may have changed, given the {@link WeatherChanges} of the write:
+ * <ul>
+ * <li>The results that hold one of the days that changed.</li>
+ * <li>If days were inserted or deleted, every result but those of single days, as a new day may
+ * belong in them.</li>
+ * <li>Results that don't have the date among their columns, as we can't tell which days they
+ * hold.</li>
+ * </ul>
+ * All methods are thread safe.
+ */
+final class WeatherQueryCache {
+
+    /* The most rows that are kept, over all results */
+    static final int MAX_ROWS = 500;
+
+    /* Least recently used first */
+    private final LinkedHashMap<Key, Result> mResults =
+            new LinkedHashMap<Key, Result>(16, 0.75f, true);
+    private int mRows;
+
+    /* Incremented by every invalidation, so results read before it aren't cached after it */
+    private int mGeneration;
+
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param projection The projection of a query
+     * @return Whether the result of the query can be cached
+     */
+    static boolean isCacheable(String[] projection) {
+        if (projection == null) {
+            return false;
+        }
+        for (String column : projection) {
+            if (!WeatherEncoding.PROJECTION_MAP.containsKey(column)
+                    || WeatherEntry.COLUMN_UPDATED.equals(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the result of a query.
+     *
+     * @param key The query
+     * @return A copy of the result, or null if it isn't cached
+     */
+    synchronized Cursor get(Key key) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return result.newCursor();
+    }
+
+    /**
+     * @return The generation to give {@link #put(Key, int, Cursor)}. Read it before querying the
+     * database.
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the result of a query, and caches it unless a write invalidated the cache since
+     * the query was run. The Cursor is closed.
+     *
+     * @param key        The query
+     * @param generation What {@link #getGeneration()} returned before the query was run
+     * @param cursor     The result of the query, from the database
+     * @return A copy of the result
+     */
+    Cursor put(Key key, int generation, Cursor cursor) {
+        Result result;
+        try {
+            result = new Result(key, cursor);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration && result.size() <= MAX_ROWS) {
+                Result previous = mResults.put(key, result);
+                if (previous != null) {
+                    mRows -= previous.size();
+                }
+                mRows += result.size();
+                trimToSize();
+            }
+        }
+        return result.newCursor();
+    }
+
+    /**
+     * Drops the results a write may have changed. Call this after the write's transaction, and
+     * whether or not observers are notified.
+     *
+     * @param changes The days the write touched
+     */
+    synchronized void invalidate(WeatherChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        mGeneration++;
+
+        long[] changedDates = changes.getDates();
+        boolean membershipChanged = changes.isMembershipChanged();
+        Iterator<Result> results = mResults.values().iterator();
+        while (results.hasNext()) {
+            Result result = results.next();
+            if (result.isChangedBy(changedDates, membershipChanged)) {
+                mRows -= result.size();
+                results.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The number of cacheable queries that were answered from the cache
+     */
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return The number of cacheable queries that had to read the database
+     */
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Key, Result>> results = mResults.entrySet().iterator();
+        while (mRows > MAX_ROWS && results.hasNext()) {
+            mRows -= results.next().getValue().size();
+            results.remove();
+        }
+    }
+
+    /**
+     * A query, as WeatherProvider runs it against the weather table.
+     */
+    static final class Key {
+
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final String mLimit;
+
+        /* The day the query asks for, for queries of a single day, or null */
+        private final Long mDate;
+
+        Key(String[] projection, String selection, String[] selectionArgs, String sortOrder,
+            String limit, Long date) {
+            mProjection = projection.clone();
+            mSelection = selection;
+            mSelectionArgs = selectionArgs != null ? selectionArgs.clone() : null;
+            mSortOrder = sortOrder;
+            mLimit = limit;
+            mDate = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Arrays.equals(mProjection, key.mProjection)
+                    && equal(mSelection, key.mSelection)
+                    && Arrays.equals(mSelectionArgs, key.mSelectionArgs)
+                    && equal(mSortOrder, key.mSortOrder)
+                    && equal(mLimit, key.mLimit)
+                    && equal(mDate, key.mDate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{Arrays.hashCode(mProjection), mSelection,
+                    Arrays.hashCode(mSelectionArgs), mSortOrder, mLimit, mDate});
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * A copy of the result of a query.
+     */
+    private static final class Result {
+
+        private final String[] mColumnNames;
+        private final Object[][] mRows;
+
+        /* The day a query of a single day asks for, or null */
+        private final Long mDate;
+
+        /* The dates of the rows, sorted, or null if the date isn't one of the columns */
+        private final long[] mDates;
+
+        Result(Key key, Cursor cursor) {
+            mColumnNames = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+            mDate = key.mDate;
+
+            /* _id is another name for the date */
+            int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            if (dateIndex == -1) {
+                dateIndex = cursor.getColumnIndex(WeatherEntry._ID);
+            }
+            mDates = dateIndex != -1 ? new long[mRows.length] : null;
+
+            for (int row = 0; cursor.moveToNext(); row++) {
+                Object[] values = new Object[mColumnNames.length];
+                for (int i = 0; i < values.length; i++) {
+                    /* Before Honeycomb, a Cursor can't tell us the type of a value */
+                    values[i] = WeatherEncoding.isScaled(mColumnNames[i])
+                            ? (Object) cursor.getDouble(i)
+                            : (Object) cursor.getLong(i);
+                }
+                mRows[row] = values;
+                if (mDates != null) {
+                    mDates[row] = cursor.getLong(dateIndex);
+                }
+            }
+            if (mDates != null) {
+                Arrays.sort(mDates);
+            }
+        }
+
+        int size() {
+            return mRows.length;
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumnNames, mRows.length);
+            for (Object[] row : mRows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        /**
+         * @param changedDates      The dates a write touched, sorted
+         * @param membershipChanged Whether the write inserted or deleted days
+         * @return Whether the write may have changed this result
+         */
+        boolean isChangedBy(long[] changedDates, boolean membershipChanged) {
+            if (mDate != null) {
+                return Arrays.binarySearch(changedDates, mDate) >= 0;
+            }
+            if (membershipChanged || mDates == null) {
+                return true;
+            }
+            for (long date : changedDates) {
+                if (Arrays.binarySearch(mDates, date) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.sunshine.data;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * The range of days a query on {@link WeatherEntry#CONTENT_URI} asks for with its query
+ * parameters. WeatherProvider adds the range to the selection and LIMIT of the SQL query, so
+ * that SQLite only reads the rows the caller needs (the date column is indexed, as it is
+ * unique), rather than the caller reading the whole table to find them.
+ */
+final class WeatherRange {
+
+    private static final WeatherRange ALL_DAYS = new WeatherRange(null, null, null, null);
+
+    private final String mStartDate;
+    private final String mEndDate;
+    private final String mAfterDate;
+    private final String mLimit;
+
+    private WeatherRange(String startDate, String endDate, String afterDate, String limit) {
+        mStartDate = startDate;
+        mEndDate = endDate;
+        mAfterDate = afterDate;
+        mLimit = limit;
+    }
+
+    /**
+     * Reads the range from the query parameters of a URI.
+     *
+     * @param uri The URI of the query
+     * @return The range of days to query
+     * @throws IllegalArgumentException If a query parameter isn't a number, or the limit isn't
+     *                                  positive
+     */
+    static WeatherRange fromUri(Uri uri) {
+        if (uri.getQuery() == null) {
+            return ALL_DAYS;
+        }
+
+        Long startDate = parseLong(uri, WeatherEntry.QUERY_PARAMETER_START_DATE);
+        Long endDate = parseLong(uri, WeatherEntry.QUERY_PARAMETER_END_DATE);
+        Long afterDate = parseLong(uri, WeatherEntry.QUERY_PARAMETER_AFTER_DATE);
+        Long limit = parseLong(uri, WeatherEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + uri);
+        }
+
+        return new WeatherRange(
+                startDate != null ? startDate.toString() : null,
+                endDate != null ? endDate.toString() : null,
+                afterDate != null ? afterDate.toString() : null,
+                limit != null ? limit.toString() : null);
+    }
+
+    /**
+     * @param selection The selection of the caller, or null
+     * @return The selection of the caller, restricted to the range
+     */
+    String appendSelection(String selection) {
+        StringBuilder rangeSelection = new StringBuilder();
+        appendCondition(rangeSelection, mStartDate, " >= ?");
+        appendCondition(rangeSelection, mEndDate, " <= ?");
+        appendCondition(rangeSelection, mAfterDate, " > ?");
+
+        if (rangeSelection.length() == 0) {
+            return selection;
+        }
+        if (selection == null || selection.length() == 0) {
+            return rangeSelection.toString();
+        }
+        /* The selection of the caller is put first, as its arguments come first */
+        return "(" + selection + ") AND " + rangeSelection;
+    }
+
+    /**
+     * @param selectionArgs The selection arguments of the caller, or null
+     * @return The selection arguments of the caller, followed by those of the range
+     */
+    String[] appendSelectionArgs(String[] selectionArgs) {
+        int rangeArgs = (mStartDate != null ? 1 : 0) + (mEndDate != null ? 1 : 0)
+                + (mAfterDate != null ? 1 : 0);
+        if (rangeArgs == 0) {
+            return selectionArgs;
+        }
+
+        int callerArgs = selectionArgs != null ? selectionArgs.length : 0;
+        String[] args = new String[callerArgs + rangeArgs];
+        if (callerArgs > 0) {
+            System.arraycopy(selectionArgs, 0, args, 0, callerArgs);
+        }
+        int i = callerArgs;
+        if (mStartDate != null) {
+            args[i++] = mStartDate;
+        }
+        if (mEndDate != null) {
+            args[i++] = mEndDate;
+        }
+        if (mAfterDate != null) {
+            args[i] = mAfterDate;
+        }
+        return args;
+    }
+
+    /**
+     * A limit is counted in the sort order of the query. Without one, SQLite is free to return
+     * any rows, so days are sorted by date.
+     *
+     * @param sortOrder The sort order of the caller, or null
+     * @return The sort order of the query
+     */
+    String getSortOrder(String sortOrder) {
+        if (mLimit != null && (sortOrder == null || sortOrder.length() == 0)) {
+            return WeatherEntry.COLUMN_DATE + " ASC";
+        }
+        return sortOrder;
+    }
+
+    /**
+     * @return The LIMIT clause of the query, or null to return every day in the range
+     */
+    String getLimit() {
+        return mLimit;
+    }
+
+    private static void appendCondition(StringBuilder selection, String date, String operator) {
+        if (date == null) {
+            return;
+        }
+        if (selection.length() > 0) {
+            selection.append(" AND ");
+        }
+        selection.append(WeatherEntry.COLUMN_DATE).append(operator);
+    }
+
+    private static Long parseLong(Uri uri, String parameter) {
+        String value = uri.getQueryParameter(parameter);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "Query parameter " + parameter + " must be a number: " + uri);
+        }
+    }
+}
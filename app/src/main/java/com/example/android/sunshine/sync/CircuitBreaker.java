@@ -0,0 +1,73 @@
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import java.util.Random;
+
+/**
+ * Stops the sync from hammering the weather server while it is down.
+ * <p>
+ * Every sync that fails even after retrying counts as a failure. Once there have been a number
+ * of them in a row, the breaker "opens" and requests are skipped for a while. When that time
+ * is up, the next request is let through as a trial: if it succeeds the breaker closes again,
+ * and if it fails the breaker opens straight away for another while.
+ * <p>
+ * The state is kept in SharedPreferences, because the sync runs in short lived jobs and
+ * services, and the process may well be gone between two of them.
+ */
+public class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+    private final Context mContext;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param context          Used to access SharedPreferences
+     * @param failureThreshold How many failures in a row open the breaker
+     * @param openMillis       How long the breaker stays open. Up to a quarter more is added at
+     *                         random, so devices don't all try again at the same moment.
+     */
+    public CircuitBreaker(Context context, int failureThreshold, long openMillis) {
+        mContext = context.getApplicationContext();
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @return true if a request may be made, false if the breaker is open
+     */
+    public boolean allowRequest() {
+        return System.currentTimeMillis()
+                >= SunshinePreferences.getSyncCircuitOpenUntil(mContext);
+    }
+
+    /**
+     * Records a successful request, which closes the breaker.
+     */
+    public void onSuccess() {
+        if (SunshinePreferences.getSyncFailureCount(mContext) != 0) {
+            SunshinePreferences.saveSyncCircuitState(mContext, 0, 0);
+        }
+    }
+
+    /**
+     * Records a failed request, which opens the breaker if there have been too many in a row.
+     */
+    public void onFailure() {
+        int failures = SunshinePreferences.getSyncFailureCount(mContext) + 1;
+        long openUntil = 0;
+        if (failures >= mFailureThreshold) {
+            long openMillis = mOpenMillis + (long) (mRandom.nextDouble() * mOpenMillis / 4);
+            openUntil = System.currentTimeMillis() + openMillis;
+            Log.w(TAG, failures + " failed syncs in a row, pausing syncs for "
+                    + openMillis / 1000 + "s");
+        }
+        SunshinePreferences.saveSyncCircuitState(mContext, failures, openUntil);
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads, parses and stores a forecast in three stages that run at the same time, instead of
+ * one after the other:
+ * <ol>
+ * <li>The fetch stage reads the response body (waiting on the network, decompressing it and
+ * copying it into the disk cache as it goes) and hands the bytes to the parser through a pipe.</li>
+ * <li>The parse stage, which runs on the calling thread, reads the forecast from the pipe and
+ * hands the days to the writer in chunks through a queue.</li>
+ * <li>The write stage stores every chunk as soon as it has been parsed.</li>
+ * </ol>
+ * Both the pipe and the queue are bounded. When a stage gets too far ahead of the next one, it
+ * blocks until that one catches up, so a slow database can't make us buffer a whole response.
+ * <p>
+ * The time each stage spent working, and spent blocked on the next one, is logged after every run.
+ */
+public class ForecastPipeline {
+
+    private static final String TAG = ForecastPipeline.class.getSimpleName();
+
+    /* How many bytes the fetch stage may get ahead of the parser */
+    private static final int PIPE_BUFFER_BYTES = 16 * 1024;
+
+    /* How many bytes the fetch stage reads from the response at a time */
+    private static final int READ_BUFFER_BYTES = 8 * 1024;
+
+    /* How many days the parser hands to the writer at a time */
+    private static final int CHUNK_DAYS = 7;
+
+    /* How many chunks the parser may get ahead of the writer */
+    private static final int QUEUE_CHUNKS = 2;
+
+    /* Tells the write stage that there are no more chunks to come */
+    private static final ForecastBatch END_OF_FORECAST = new ForecastBatch(0);
+
+    /**
+     * Stores the days of a forecast as the write stage receives them.
+     */
+    public interface Sink {
+
+        /**
+         * Called on the write stage's thread for every chunk of days, in order.
+         *
+         * @param chunk The next days of the forecast
+         */
+        void write(ForecastBatch chunk);
+    }
+
+    private final Context mContext;
+    private final Sink mSink;
+
+    /**
+     * @param context Used to store the location details of the forecast
+     * @param sink    Stores the parsed days
+     */
+    public ForecastPipeline(Context context, Sink sink) {
+        mContext = context;
+        mSink = sink;
+    }
+
+    /**
+     * Runs the pipeline over a response body. This returns once every stage has finished, even
+     * when one of them failed. By then every chunk that was parsed has been handed to the sink,
+     * so if this throws, the sink may already have stored the first days of the forecast.
+     *
+     * @param in The body of the response. It is read to the end, but not closed.
+     * @return Every day that was parsed, or null if the response held an error code
+     * @throws IOException   If the response couldn't be read
+     * @throws JSONException If the response couldn't be parsed
+     */
+    public ForecastBatch run(InputStream in) throws IOException, JSONException {
+        long startNanos = System.nanoTime();
+
+        PipedInputStream pipeIn = new PipedInputStream(PIPE_BUFFER_BYTES);
+        PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+        BlockingQueue<ForecastBatch> queue = new ArrayBlockingQueue<ForecastBatch>(QUEUE_CHUNKS);
+
+        FetchStage fetchStage = new FetchStage(in, pipeOut);
+        WriteStage writeStage = new WriteStage(queue, mSink);
+        ParseStage parseStage = new ParseStage(queue);
+
+        Thread fetchThread = new Thread(fetchStage, TAG + "-fetch");
+        Thread writeThread = new Thread(writeStage, TAG + "-write");
+        fetchThread.start();
+        writeThread.start();
+
+        ForecastBatch forecast = null;
+        IOException parseIOException = null;
+        JSONException parseJSONException = null;
+        RuntimeException parseRuntimeException = null;
+        try {
+            forecast = parseStage.parse(mContext, pipeIn);
+        } catch (IOException e) {
+            parseIOException = e;
+        } catch (JSONException e) {
+            parseJSONException = e;
+        } catch (RuntimeException e) {
+            parseRuntimeException = e;
+        } finally {
+            /* Stops the fetch stage if the parser gave up early */
+            closeQuietly(pipeIn);
+            putUninterruptibly(queue, END_OF_FORECAST);
+            joinUninterruptibly(fetchThread);
+            joinUninterruptibly(writeThread);
+        }
+
+        Log.d(TAG, String.format(Locale.US,
+                "Pipeline took %dms: fetch %dms (%dms blocked), parse %dms (%dms blocked), "
+                        + "write %dms",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                TimeUnit.NANOSECONDS.toMillis(fetchStage.mBusyNanos),
+                TimeUnit.NANOSECONDS.toMillis(fetchStage.mBlockedNanos),
+                TimeUnit.NANOSECONDS.toMillis(parseStage.mBusyNanos),
+                TimeUnit.NANOSECONDS.toMillis(parseStage.mBlockedNanos),
+                TimeUnit.NANOSECONDS.toMillis(writeStage.mBusyNanos)));
+
+        /*
+         * A response that couldn't be read usually also fails to parse, as it is cut short. The
+         * read error is the one that tells the caller what went wrong.
+         */
+        if (fetchStage.mError != null) {
+            throw fetchStage.mError;
+        }
+        if (parseIOException != null) {
+            throw parseIOException;
+        }
+        if (parseJSONException != null) {
+            throw parseJSONException;
+        }
+        if (parseRuntimeException != null) {
+            throw parseRuntimeException;
+        }
+        if (writeStage.mError != null) {
+            throw writeStage.mError;
+        }
+        return forecast;
+    }
+
+    /**
+     * Copies the response into the pipe. Only errors reading the response are recorded: the
+     * pipe only fails when the parser has stopped reading, and the parser reports why.
+     */
+    private static final class FetchStage implements Runnable {
+
+        private final InputStream mIn;
+        private final PipedOutputStream mPipe;
+
+        IOException mError;
+        long mBusyNanos;
+        long mBlockedNanos;
+
+        FetchStage(InputStream in, PipedOutputStream pipe) {
+            mIn = in;
+            mPipe = pipe;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[READ_BUFFER_BYTES];
+            try {
+                while (true) {
+                    long readStartNanos = System.nanoTime();
+                    int count;
+                    try {
+                        count = mIn.read(buffer);
+                    } catch (IOException e) {
+                        mError = e;
+                        return;
+                    } finally {
+                        mBusyNanos += System.nanoTime() - readStartNanos;
+                    }
+                    if (count == -1) {
+                        return;
+                    }
+
+                    long writeStartNanos = System.nanoTime();
+                    try {
+                        mPipe.write(buffer, 0, count);
+                        /* Wakes the parser up right away rather than when it polls the pipe */
+                        mPipe.flush();
+                    } catch (IOException e) {
+                        return;
+                    } finally {
+                        mBlockedNanos += System.nanoTime() - writeStartNanos;
+                    }
+                }
+            } finally {
+                closeQuietly(mPipe);
+            }
+        }
+    }
+
+    /**
+     * Parses the forecast from the pipe and cuts it into chunks for the write stage. It also
+     * collects every day into a single batch, which is what the pipeline returns.
+     */
+    private static final class ParseStage implements OpenWeatherJsonUtils.ForecastDayHandler {
+
+        private final BlockingQueue<ForecastBatch> mQueue;
+        private final ForecastBatch mForecast = new ForecastBatch();
+        private ForecastBatch mChunk = new ForecastBatch(CHUNK_DAYS);
+
+        long mBusyNanos;
+        long mBlockedNanos;
+
+        ParseStage(BlockingQueue<ForecastBatch> queue) {
+            mQueue = queue;
+        }
+
+        ForecastBatch parse(Context context, PipedInputStream pipe)
+                throws IOException, JSONException {
+            long startNanos = System.nanoTime();
+            try {
+                if (!OpenWeatherJsonUtils.parseWeatherFromStream(context, pipe, this)) {
+                    return null;
+                }
+                handOff();
+
+                /*
+                 * Read whatever follows the forecast, so the fetch stage gets to the end of the
+                 * response and the disk cache gets all of it.
+                 */
+                byte[] buffer = new byte[READ_BUFFER_BYTES];
+                while (pipe.read(buffer) != -1) {
+                    /* Nothing to do with it */
+                }
+                return mForecast;
+            } finally {
+                mBusyNanos = System.nanoTime() - startNanos - mBlockedNanos;
+            }
+        }
+
+        @Override
+        public void onForecastDay(long dateTimeMillis, int weatherId, double low, double high,
+                                  double humidity, double pressure, double windSpeed,
+                                  double windDirection) {
+            mForecast.add(dateTimeMillis, weatherId, low, high,
+                    humidity, pressure, windSpeed, windDirection);
+            mChunk.add(dateTimeMillis, weatherId, low, high,
+                    humidity, pressure, windSpeed, windDirection);
+            if (mChunk.size() == CHUNK_DAYS) {
+                handOff();
+            }
+        }
+
+        private void handOff() {
+            if (mChunk.isEmpty()) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            putUninterruptibly(mQueue, mChunk);
+            mBlockedNanos += System.nanoTime() - startNanos;
+            mChunk = new ForecastBatch(CHUNK_DAYS);
+        }
+    }
+
+    /**
+     * Hands every chunk to the sink. After the sink failed, the remaining chunks are still taken
+     * from the queue (and dropped), so the parser never blocks on a writer that has given up.
+     */
+    private static final class WriteStage implements Runnable {
+
+        private final BlockingQueue<ForecastBatch> mQueue;
+        private final Sink mSink;
+
+        RuntimeException mError;
+        long mBusyNanos;
+
+        WriteStage(BlockingQueue<ForecastBatch> queue, Sink sink) {
+            mQueue = queue;
+            mSink = sink;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ForecastBatch chunk = takeUninterruptibly(mQueue);
+                if (chunk == END_OF_FORECAST) {
+                    return;
+                }
+                if (mError != null) {
+                    continue;
+                }
+
+                long startNanos = System.nanoTime();
+                try {
+                    mSink.write(chunk);
+                } catch (RuntimeException e) {
+                    mError = e;
+                } finally {
+                    mBusyNanos += System.nanoTime() - startNanos;
+                }
+            }
+        }
+    }
+
+    /*
+     * The stages wait on each other, and each of them is guaranteed to make progress. Giving up
+     * halfway because of an interrupt could leave another stage waiting forever, so interrupts
+     * are only passed on once the wait is over.
+     */
+
+    private static void putUninterruptibly(BlockingQueue<ForecastBatch> queue,
+                                           ForecastBatch chunk) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(chunk);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ForecastBatch takeUninterruptibly(BlockingQueue<ForecastBatch> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            /* Nothing we can do */
+        }
+    }
+}
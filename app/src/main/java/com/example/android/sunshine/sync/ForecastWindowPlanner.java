@@ -0,0 +1,138 @@
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out how many days of the forecast the sync needs to download, based on what the
+ * database already holds.
+ * <p>
+ * Every day of the forecast gets a maximum age that grows with how far away it is: the weather
+ * for today and tomorrow changes often, while the weather for next week is a rough guess that
+ * won't get much better within a few hours. A day that is missing from the database, or older
+ * than its maximum age, needs a refresh. As the weather server can only send the first days of
+ * the forecast, the sync asks for every day up to the furthest one that needs a refresh.
+ */
+public class ForecastWindowPlanner {
+
+    /* Today and tomorrow */
+    private static final int NEAR_DAYS = 2;
+    private static final long NEAR_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(3);
+
+    /* The rest of this week */
+    private static final int MID_DAYS = 7;
+    private static final long MID_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    /* Everything further away */
+    private static final long FAR_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    /*
+     * Syncs are scheduled every few hours, but never exactly on time. Refreshing a day that is
+     * about to become stale avoids it staying stale until the sync after that.
+     */
+    private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final String[] WINDOW_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_UPDATED,
+    };
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_UPDATED = 1;
+
+    /**
+     * The days of the forecast a sync should ask for.
+     */
+    public static final class Window {
+
+        /* The number of days, starting today, to ask for. 0 if every day is fresh. */
+        public final int days;
+
+        /* Whether the database holds every one of those days */
+        public final boolean complete;
+
+        Window(int days, boolean complete) {
+            this.days = days;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Looks at when each day of the forecast in the database was last refreshed, and decides
+     * which days to ask for.
+     *
+     * @param context Used to access the ContentResolver
+     * @param maxDays The number of days in a full forecast
+     * @return The days to ask for
+     */
+    public static Window plan(Context context, int maxDays) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long[] updated = new long[maxDays];
+        boolean[] present = new boolean[maxDays];
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WINDOW_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{
+                        Long.toString(today),
+                        Long.toString(today + maxDays * SunshineDateUtils.DAY_IN_MILLIS)},
+                null);
+
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    int day = (int) ((cursor.getLong(INDEX_DATE) - today)
+                            / SunshineDateUtils.DAY_IN_MILLIS);
+                    present[day] = true;
+                    updated[day] = cursor.getLong(INDEX_UPDATED);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return plan(present, updated, System.currentTimeMillis());
+    }
+
+    /**
+     * Decides which days to ask for, given what the database holds.
+     *
+     * @param present Whether the database holds each day, starting today
+     * @param updated When each day, starting today, was last refreshed
+     * @param now     The current time in milliseconds since the epoch
+     * @return The days to ask for
+     */
+    static Window plan(boolean[] present, long[] updated, long now) {
+        int days = 0;
+        boolean complete = true;
+        for (int day = 0; day < present.length; day++) {
+            if (!present[day]) {
+                days = day + 1;
+                complete = false;
+            } else if (now - updated[day] > getMaxAgeMillis(day) - REFRESH_MARGIN_MILLIS) {
+                days = day + 1;
+            }
+        }
+        return new Window(days, complete);
+    }
+
+    /**
+     * @param day The day of the forecast, 0 being today
+     * @return How long the weather for that day may be kept before it needs a refresh
+     */
+    static long getMaxAgeMillis(int day) {
+        if (day < NEAR_DAYS) {
+            return NEAR_MAX_AGE_MILLIS;
+        }
+        if (day < MID_DAYS) {
+            return MID_MAX_AGE_MILLIS;
+        }
+        return FAR_MAX_AGE_MILLIS;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.android.sunshine.sync;
+
+import com.example.android.sunshine.utilities.HttpStatusException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Decides whether a failed request to the weather server should be tried again, and how long to
+ * wait before doing so.
+ * <p>
+ * The wait grows exponentially with every failed attempt, up to a cap, and uses "full jitter":
+ * the actual wait is a random time between zero and that exponential value. Without the jitter,
+ * every device that failed at the same moment (say, when the server went down during the
+ * scheduled sync) would retry at the same moments too, and keep the server down.
+ */
+public class RetryPolicy {
+
+    /* HTTP 429 isn't one of HttpURLConnection's constants */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param maxAttempts     How many times a request is made in total, including the first time
+     * @param baseDelayMillis The longest wait before the first retry
+     * @param maxDelayMillis  The longest wait before any retry
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return How many times a request is made in total, including the first time
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Returns how long to wait after a failed attempt before making the next one.
+     *
+     * @param failedAttempts How many attempts have failed so far, at least 1
+     * @return The time to wait, in milliseconds
+     */
+    public long getDelayMillis(int failedAttempts) {
+        /* Cap the shift as well, so a large number of attempts can't overflow */
+        int shift = Math.min(failedAttempts - 1, 30);
+        long ceiling = Math.min(mMaxDelayMillis, mBaseDelayMillis << shift);
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+
+    /**
+     * Classifies the failure of a request. Network errors, server errors (5xx) and being asked to
+     * slow down (429) may well go away on their own, so they are worth retrying. Any other HTTP
+     * error, or a response we can't parse, will fail the same way the next time.
+     *
+     * @param e What the request failed with
+     * @return true if trying again could succeed
+     */
+    public static boolean isRetryable(Exception e) {
+        if (e instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) e).getStatusCode();
+            return statusCode >= 500 || statusCode == HTTP_TOO_MANY_REQUESTS;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            /* The thread was interrupted, most likely because the job was stopped */
+            return false;
+        }
+        if (e instanceof JSONException) {
+            return false;
+        }
+        return e instanceof IOException;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.sunshine.sync;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls that would do the same work. The first caller for a key runs the
+ * work; every caller that asks for the same key while it is still running waits for it and
+ * receives the same result (or exception) instead of running the work again.
+ * <p>
+ * Once the work has finished, the next call for that key runs it again. Nothing is cached.
+ *
+ * @param <K> The type of the keys identifying the work
+ * @param <V> The type of the result of the work
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, FutureTask<V>> mInFlight =
+            new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /**
+     * Runs the work for a key, or waits for the run already in flight for that key.
+     *
+     * @param key  Identifies the work. Calls with equal keys share a single run.
+     * @param work The work to run if nothing is in flight for the key
+     * @return The result of the run
+     * @throws Exception Whatever the run threw
+     */
+    public V execute(K key, Callable<V> work) throws Exception {
+        FutureTask<V> task = new FutureTask<V>(work);
+        FutureTask<V> inFlight = mInFlight.putIfAbsent(key, task);
+
+        if (inFlight == null) {
+            /* We're first, so the work runs on this thread */
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+            inFlight = task;
+        }
+
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param key Identifies the work
+     * @return true if the work for that key is currently running
+     */
+    public boolean isInFlight(K key) {
+        return mInFlight.containsKey(key);
+    }
+}
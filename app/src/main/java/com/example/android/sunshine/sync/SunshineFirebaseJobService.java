@@ -26,7 +26,7 @@ import com.firebase.jobdispatcher.RetryStrategy;
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private AsyncTask<Void, Void, Integer> mFetchWeatherTask;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -41,18 +41,22 @@ public class SunshineFirebaseJobService extends JobService {
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
+        mFetchWeatherTask = new AsyncTask<Void, Void, Integer>(){
             @Override
-            protected Void doInBackground(Void... voids) {
+            protected Integer doInBackground(Void... voids) {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
+                return SunshineSyncTask.syncWeather(context);
             }
 
             @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
+            protected void onPostExecute(Integer syncStatus) {
+                /*
+                 * If the weather server couldn't be reached, ask the dispatcher to run the job
+                 * again according to the job's retry strategy. Any other outcome waits for the
+                 * next scheduled sync.
+                 */
+                boolean needsReschedule = syncStatus == SunshineSyncTask.SYNC_STATUS_RETRY;
+                jobFinished(jobParameters, needsReschedule);
             }
         };
 
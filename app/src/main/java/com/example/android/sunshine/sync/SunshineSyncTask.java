@@ -15,66 +15,220 @@
  */
 package com.example.android.sunshine.sync;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.ForecastDao;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherChanges;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.ForecastDiskCache;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.wearable.WearableDataService;
 
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /* A new forecast was downloaded and stored */
+    public static final int SYNC_STATUS_UPDATED = 0;
+    /* The server told us the forecast we already have is still current */
+    public static final int SYNC_STATUS_NOT_MODIFIED = 1;
+    /* The sync didn't get a usable forecast, and trying again won't help */
+    public static final int SYNC_STATUS_FAILED = 2;
+    /* The weather server couldn't be reached even after retrying, try again later */
+    public static final int SYNC_STATUS_RETRY = 3;
+    /* Too many syncs failed in a row, so this one didn't even try to reach the weather server */
+    public static final int SYNC_STATUS_CIRCUIT_OPEN = 4;
+
+    /*
+     * A failed request is tried up to 3 times in total, waiting up to 2 and then 4 seconds in
+     * between (see RetryPolicy for how the waits are spread out).
+     */
+    private static final int MAX_FETCH_ATTEMPTS = 3;
+    private static final long RETRY_BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long RETRY_MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /* After 5 failed syncs in a row, we leave the weather server alone for an hour */
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final RetryPolicy DEFAULT_RETRY_POLICY = new RetryPolicy(
+            MAX_FETCH_ATTEMPTS, RETRY_BASE_DELAY_MILLIS, RETRY_MAX_DELAY_MILLIS);
+
+    private static volatile RetryPolicy sRetryPolicy = DEFAULT_RETRY_POLICY;
+
+    /*
+     * Syncs can be started from several places at once: the empty check in SunshineSyncUtils,
+     * the settings screen, and the scheduled job. Concurrent syncs for the same URL share a
+     * single download, parse and write, and all of them receive its result.
+     */
+    private static final SingleFlight<String, Integer> sSyncsInFlight =
+            new SingleFlight<String, Integer>();
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * If a sync for the same location is already running, this waits for it to finish and
+     * returns its result rather than doing the same work a second time.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @return One of the SYNC_STATUS constants
+     */
+    public static int syncWeather(final Context context) {
+        /*
+         * The getUrl method will return the URL that we need to get the forecast JSON for the
+         * weather. It will decide whether to create a URL based off of the latitude and
+         * longitude or off of a simple location as a String. The URL of the full forecast
+         * identifies the location, even if the sync ends up asking for fewer days.
+         */
+        final URL locationUrl = NetworkUtils.getUrl(context);
+        if (locationUrl == null) {
+            return SYNC_STATUS_FAILED;
+        }
+
+        try {
+            return sSyncsInFlight.execute(locationUrl.toString(), new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return performSync(context, locationUrl);
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            return SYNC_STATUS_FAILED;
+        }
+    }
+
+    /**
+     * Does the actual work of {@link #syncWeather(Context)}. Syncs for different URLs still run
+     * one after the other, as each of them may replace the whole forecast in the database.
+     * <p>
+     * When the database already holds the forecast for this location, only the days that are
+     * due for a refresh are requested (see {@link ForecastWindowPlanner}), and the result is
+     * merged into the existing rows. Otherwise the full forecast is requested and replaces
+     * whatever the database held.
+     *
+     * @param context     Used to access utility methods and the ContentResolver
+     * @param locationUrl The URL of the full forecast for the location to sync
+     * @return One of the SYNC_STATUS constants
      */
-    synchronized public static void syncWeather(Context context) {
+    synchronized private static int performSync(final Context context, URL locationUrl) {
 
         try {
+            final String url = locationUrl.toString();
+
+            /* Every full forecast we download is kept on disk, so we can restore it offline */
+            final ForecastDiskCache cache = getForecastCache(context);
+
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * If the database has nothing from today onwards for this location (first run, the
+             * database was reset, or the location changed), we first try to restore the forecast
+             * from the disk cache.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            boolean haveForecast = hasForecastFromToday(context, url)
+                    || restoreFromCache(context, cache, url);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            URL weatherRequestUrl;
+            int windowDays;
+            if (haveForecast) {
+                ForecastWindowPlanner.Window window =
+                        ForecastWindowPlanner.plan(context, NetworkUtils.getMaxDays());
+                if (window.days == 0) {
+                    Log.d(TAG, "Every day of the forecast is still fresh, skipping update");
+                    return SYNC_STATUS_NOT_MODIFIED;
+                }
+                windowDays = window.days;
+                weatherRequestUrl = NetworkUtils.getUrl(context, windowDays);
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+                /*
+                 * A 304 Not Modified response is only useful if we have every day it refers to.
+                 * If some day in the window is missing, forget the validators so the server
+                 * sends us the days we need.
+                 */
+                if (!window.complete) {
+                    SunshinePreferences.clearResponseValidators(context,
+                            weatherRequestUrl.toString());
+                }
+            } else {
+                windowDays = 0;
+                weatherRequestUrl = locationUrl;
+                SunshinePreferences.clearResponseValidators(context, url);
+            }
+            boolean merge = windowDays != 0;
+
+            CircuitBreaker circuitBreaker = new CircuitBreaker(context,
+                    CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+            if (!circuitBreaker.allowRequest()) {
+                Log.d(TAG, "Too many failed syncs, not contacting the weather server");
+                return SYNC_STATUS_CIRCUIT_OPEN;
+            }
 
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * Use the URL to retrieve the JSON, parse it and store it in our ContentProvider. All
+             * three happen at the same time (see ForecastPipeline): days are parsed as the bytes
+             * arrive, and stored as soon as they are parsed. The request is conditional, so if the
+             * forecast hasn't changed since our last sync, nothing is downloaded or parsed. Only
+             * full forecasts are worth keeping in the disk cache.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
+            ForecastResponseHandler handler = new ForecastResponseHandler(context,
+                    weatherRequestUrl.equals(locationUrl) ? cache : null, url, merge);
+            ForecastBatch forecast;
+            try {
+                forecast = fetchWithRetry(context, weatherRequestUrl, handler);
+            } catch (Exception e) {
+                if (RetryPolicy.isRetryable(e)) {
+                    Log.w(TAG, "Weather server unavailable, sync will be retried", e);
+                    circuitBreaker.onFailure();
+                    return SYNC_STATUS_RETRY;
+                }
+                throw e;
+            }
+            circuitBreaker.onSuccess();
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+            if (handler.isNotModified()) {
+                /*
+                 * The forecast we already have is still current, so there is nothing to write
+                 * and nobody to notify. We only take note that the days we asked for are fresh.
+                 */
+                Log.d(TAG, "Forecast not modified, skipping update");
+                if (merge) {
+                    markForecastFresh(context, windowDays);
+                }
+                return SYNC_STATUS_NOT_MODIFIED;
+            }
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            /*
+             * In cases where our JSON contained an error code, the pipeline would have returned
+             * null, and stored nothing. We need to check for those cases here to prevent any
+             * NullPointerExceptions being thrown.
+             */
+            if (forecast != null && !forecast.isEmpty()) {
+                if (!merge) {
+                    SunshinePreferences.setForecastUrl(context, url);
+                }
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
@@ -101,16 +255,444 @@ public class SunshineSyncTask {
                  * haven't shown a notification in the past day.
                  */
                 if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
+                    NotificationUtils.notifyUserOfNewWeather(context, forecast);
                 }
 
-            /* If the code reaches this point, we have successfully performed our sync */
+                /* Hand today's weather to the wearable straight from what we just downloaded */
+                WearableDataService.sendTodaysWeather(context, forecast);
 
+                /* If the code reaches this point, we have successfully performed our sync */
+                return SYNC_STATUS_UPDATED;
             }
 
         } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+            /* Server probably invalid, trying again won't help */
+            Log.e(TAG, "Sync failed", e);
         }
+        return SYNC_STATUS_FAILED;
+    }
+
+    /**
+     * Requests the forecast, trying again according to the retry policy when the request fails
+     * in a way that might go away on its own.
+     *
+     * @param context           Used to access the stored validators
+     * @param weatherRequestUrl The URL to request the forecast from
+     * @param handler           Parses the response
+     * @return The parsed forecast, or null if the response held an error or the forecast wasn't
+     * modified
+     * @throws Exception What the last attempt failed with
+     */
+    private static ForecastBatch fetchWithRetry(Context context, URL weatherRequestUrl,
+                                                ForecastResponseHandler handler)
+            throws Exception {
+        RetryPolicy retryPolicy = sRetryPolicy;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return NetworkUtils.getResponseFromHttpUrl(context, weatherRequestUrl, handler);
+            } catch (Exception e) {
+                if (attempt >= retryPolicy.getMaxAttempts() || !RetryPolicy.isRetryable(e)) {
+                    throw e;
+                }
+                long delayMillis = retryPolicy.getDelayMillis(attempt);
+                Log.w(TAG, "Attempt " + attempt + " failed (" + e + "), retrying in "
+                        + delayMillis + "ms");
+                Thread.sleep(delayMillis);
+            }
+        }
+    }
+
+    /**
+     * Replaces the retry policy, so tests don't have to wait for real backoff delays.
+     *
+     * @param retryPolicy The retry policy to use for the following syncs, or null to go back to
+     *                    the default one
+     */
+    static void setRetryPolicy(RetryPolicy retryPolicy) {
+        sRetryPolicy = retryPolicy != null ? retryPolicy : DEFAULT_RETRY_POLICY;
+    }
+
+    /**
+     * Parses and stores the forecast response, copying it into the disk cache, and remembers
+     * whether the server told us the forecast hasn't changed.
+     */
+    private static class ForecastResponseHandler
+            implements NetworkUtils.ResponseHandler<ForecastBatch> {
+
+        private final Context mContext;
+        private final ForecastDiskCache mCache;
+        private final String mUrl;
+        private final boolean mMerge;
+        private boolean mNotModified;
+
+        ForecastResponseHandler(Context context, ForecastDiskCache cache, String url,
+                                boolean merge) {
+            mContext = context;
+            mCache = cache;
+            mUrl = url;
+            mMerge = merge;
+        }
+
+        @Override
+        public ForecastBatch onResponse(InputStream in, int contentLength)
+                throws IOException, JSONException {
+            return storeAndCache(mContext, mCache, mUrl, mMerge, in);
+        }
+
+        @Override
+        public ForecastBatch onNotModified() {
+            mNotModified = true;
+            return null;
+        }
+
+        boolean isNotModified() {
+            return mNotModified;
+        }
+    }
+
+    /**
+     * Parses a forecast response into our ContentProvider while copying it into the disk cache.
+     * The copy is only kept if the response could be parsed into a forecast.
+     *
+     * @param context Used to access utility methods and the ContentResolver
+     * @param cache   The disk cache, or null if it isn't available
+     * @param url     The URL the response was downloaded from
+     * @param merge   Whether the response should be merged into the stored forecast rather
+     *                than replace it
+     * @param in      The body of the response
+     * @return The parsed forecast, or null if the response held an error
+     */
+    private static ForecastBatch storeAndCache(Context context, ForecastDiskCache cache,
+                                               String url, boolean merge, InputStream in)
+            throws IOException, JSONException {
+        ForecastWriter writer = new ForecastWriter(context, merge);
+        boolean complete = false;
+        try {
+            ForecastBatch forecast =
+                    storeAndCache(context, cache, url, new ForecastPipeline(context, writer), in);
+            complete = forecast != null;
+            return forecast;
+        } finally {
+            /* Even a forecast that failed halfway may have changed what's stored */
+            writer.finish(complete);
+        }
+    }
+
+    private static ForecastBatch storeAndCache(Context context, ForecastDiskCache cache,
+                                               String url, ForecastPipeline pipeline,
+                                               InputStream in)
+            throws IOException, JSONException {
+
+        ForecastDiskCache.Editor editor = null;
+        if (cache != null) {
+            try {
+                editor = cache.edit(url);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to cache forecast", e);
+            }
+        }
+
+        if (editor == null) {
+            return pipeline.run(in);
+        }
+
+        boolean committed = false;
+        try {
+            ForecastBatch forecast = pipeline.run(editor.tee(in));
+            if (forecast != null && !forecast.isEmpty()) {
+                try {
+                    editor.commit();
+                    committed = true;
+                } catch (IOException e) {
+                    /* Not being able to cache the forecast shouldn't fail the sync */
+                    Log.w(TAG, "Unable to cache forecast", e);
+                }
+            }
+            return forecast;
+        } finally {
+            if (!committed) {
+                editor.abort();
+            }
+        }
+    }
+
+    /**
+     * Fills the database from the forecast cached for a URL. As the dates of a forecast are
+     * counted from the day it is parsed, only a forecast that was downloaded today can be used.
+     *
+     * @param context Used to access the ContentResolver
+     * @param cache   The disk cache, or null if it isn't available
+     * @param url     The URL of the forecast
+     * @return true if the database was filled from the cache
+     */
+    private static boolean restoreFromCache(Context context, ForecastDiskCache cache, String url) {
+        if (cache == null) {
+            return false;
+        }
+
+        long writtenAt = cache.getWrittenAt(url);
+        long writtenOnLocalDay = SunshineDateUtils.normalizeDate(
+                writtenAt + TimeZone.getDefault().getOffset(writtenAt));
+        if (writtenAt == 0
+                || writtenOnLocalDay != SunshineDateUtils.getNormalizedUtcDateForToday()) {
+            return false;
+        }
+
+        InputStream in = cache.get(url);
+        if (in == null) {
+            return false;
+        }
+
+        try {
+            ForecastBatch forecast = OpenWeatherJsonUtils.getForecastBatchFromStream(context, in);
+            if (forecast == null || forecast.isEmpty()) {
+                return false;
+            }
+
+            /* The forecast is only as fresh as the response it was restored from */
+            forecast.setUpdated(writtenAt);
+            replaceForecast(context, url, forecast);
+            Log.d(TAG, "Restored forecast from cache: " + url);
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to restore forecast from cache", e);
+            cache.remove(url);
+            return false;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                /* Nothing we can do */
+            }
+        }
+    }
+
+    /**
+     * Replaces the forecast in the database with a new one, in a single transaction. Only the
+     * days that differ from the stored forecast are written.
+     *
+     * @param context  Used to access the ContentResolver
+     * @param url      The URL the new forecast was downloaded from
+     * @param forecast The new forecast
+     */
+    private static void replaceForecast(Context context, String url, ForecastBatch forecast) {
+        /*
+         * Delete old weather data because we don't need to keep multiple days' data, and write
+         * our new weather data into Sunshine's ContentProvider.
+         */
+        writeForecast(context.getContentResolver(), forecast,
+                forecast.getDate(0), forecast.getDate(forecast.size() - 1),
+                SunshinePreferences.isHistoryEnabled(context), true);
+
+        SunshinePreferences.setForecastUrl(context, url);
+    }
+
+    /**
+     * Stores the chunks of a forecast as the pipeline parses them. Along with the first chunk,
+     * the days before the forecast are deleted: the days before its first day when it replaces
+     * what we had, or only the days before today when it is merged in. Once the whole forecast
+     * has been stored, a forecast that replaces what we had also deletes the days after its
+     * last day. Days that are already stored are only rewritten if their weather changed.
+     * <p>
+     * Observers aren't notified of every chunk. Call {@link #finish(boolean)} once the pipeline
+     * is done to notify them of the days that changed.
+     */
+    private static class ForecastWriter implements ForecastPipeline.Sink {
+
+        private final ContentResolver mContentResolver;
+        private final boolean mMerge;
+        private final boolean mArchive;
+        private final WeatherChanges mChanges = new WeatherChanges();
+        private volatile boolean mStarted;
+        private long mLastDate = Long.MIN_VALUE;
+
+        ForecastWriter(Context context, boolean merge) {
+            mContentResolver = context.getContentResolver();
+            mMerge = merge;
+            mArchive = SunshinePreferences.isHistoryEnabled(context);
+        }
+
+        @Override
+        public void write(ForecastBatch chunk) {
+            long deleteBefore = Long.MIN_VALUE;
+            if (!mStarted) {
+                deleteBefore = mMerge
+                        ? SunshineDateUtils.getNormalizedUtcDateForToday()
+                        : chunk.getDate(0);
+            }
+            addChanges(writeForecast(
+                    mContentResolver, chunk, deleteBefore, Long.MAX_VALUE, mArchive, false));
+            mStarted = true;
+
+            for (int i = 0; i < chunk.size(); i++) {
+                mLastDate = Math.max(mLastDate, chunk.getDate(i));
+            }
+        }
+
+        /**
+         * @param complete Whether the whole forecast was stored. A forecast that was cut short
+         *                 leaves the stored days after it alone.
+         */
+        void finish(boolean complete) {
+            if (!mStarted) {
+                return;
+            }
+            if (complete && !mMerge) {
+                addChanges(writeForecast(mContentResolver, new ForecastBatch(0),
+                        Long.MIN_VALUE, mLastDate, false, false));
+            }
+            mChanges.notifyObservers(mContentResolver);
+        }
+
+        private void addChanges(Bundle result) {
+            /* Without ContentResolver.call, the provider has already notified every observer */
+            if (result == null) {
+                return;
+            }
+            long[] changedDates = result.getLongArray(WeatherContract.EXTRA_CHANGED_DATES);
+            if (changedDates != null) {
+                for (long changedDate : changedDates) {
+                    mChanges.addDate(changedDate);
+                }
+            }
+            if (result.getBoolean(WeatherContract.EXTRA_MEMBERSHIP_CHANGED)) {
+                mChanges.setMembershipChanged();
+            }
+        }
+    }
+
+    /**
+     * Writes days of forecast into Sunshine's ContentProvider. WeatherProvider takes the batch as
+     * it is through ContentResolver.call, compares it with the stored days and only writes the
+     * days that changed. The days outside the window we keep are deleted in the same
+     * transaction, so nobody sees the table empty in between.
+     * <p>
+     * If the user keeps the weather history, the past days that are deleted are archived into it
+     * first, in the same transaction.
+     * <p>
+     * ContentResolver.call is only available from API 11 onwards. On older devices, we fall back
+     * to a delete followed by a bulkInsert of the batch converted to ContentValues, which notify
+     * observers themselves. No history is kept there.
+     *
+     * @param sunshineContentResolver Used to reach the ContentProvider
+     * @param forecast                The days of forecast to write
+     * @param deleteBefore            Stored days before this date are deleted. Long.MIN_VALUE
+     *                                keeps them.
+     * @param deleteAfter             Stored days after this date are deleted. Long.MAX_VALUE
+     *                                keeps them.
+     * @param archive                 Whether the deleted days before today should be archived
+     * @param notifyChange            Whether observers should be notified of the change
+     * @return The result of {@link WeatherContract#METHOD_UPSERT_FORECAST}, or null if the
+     * provider notified the observers itself
+     */
+    private static Bundle writeForecast(ContentResolver sunshineContentResolver,
+                                        ForecastBatch forecast, long deleteBefore,
+                                        long deleteAfter, boolean archive,
+                                        boolean notifyChange) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return callUpsertForecast(sunshineContentResolver, forecast,
+                    deleteBefore, deleteAfter, archive, notifyChange);
+        }
+
+        if (deleteBefore != Long.MIN_VALUE || deleteAfter != Long.MAX_VALUE) {
+            sunshineContentResolver.delete(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? OR "
+                            + WeatherContract.WeatherEntry.COLUMN_DATE + " > ?",
+                    new String[]{Long.toString(deleteBefore), Long.toString(deleteAfter)});
+        }
+        if (!forecast.isEmpty()) {
+            sunshineContentResolver.bulkInsert(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    forecast.toContentValues());
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle callUpsertForecast(ContentResolver sunshineContentResolver,
+                                             ForecastBatch forecast, long deleteBefore,
+                                             long deleteAfter, boolean archive,
+                                             boolean notifyChange) {
+        Bundle extras = forecast.toBundle();
+        extras.putBoolean(WeatherContract.EXTRA_NOTIFY_CHANGE, notifyChange);
+        extras.putBoolean(WeatherContract.EXTRA_ARCHIVE, archive);
+        if (deleteBefore != Long.MIN_VALUE) {
+            extras.putLong(WeatherContract.EXTRA_DELETE_BEFORE_DATE, deleteBefore);
+        }
+        if (deleteAfter != Long.MAX_VALUE) {
+            extras.putLong(WeatherContract.EXTRA_DELETE_AFTER_DATE, deleteAfter);
+        }
+
+        Bundle result = sunshineContentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_FORECAST,
+                null,
+                extras);
+        if (result == null) {
+            return new Bundle();
+        }
+
+        Log.d(TAG, "Forecast written: "
+                + result.getInt(WeatherContract.EXTRA_ROWS_INSERTED) + " inserted, "
+                + result.getInt(WeatherContract.EXTRA_ROWS_UPDATED) + " updated, "
+                + result.getInt(WeatherContract.EXTRA_ROWS_UNCHANGED) + " unchanged, "
+                + result.getInt(WeatherContract.EXTRA_ROWS_DELETED) + " deleted, "
+                + result.getInt(WeatherContract.EXTRA_ROWS_ARCHIVED) + " archived");
+        return result;
+    }
+
+    /**
+     * Records that the first days of the stored forecast were confirmed to be current.
+     *
+     * @param context Used to access the ContentResolver
+     * @param days    The number of days, starting today, that were confirmed
+     */
+    private static void markForecastFresh(Context context, int days) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentValues updated = new ContentValues();
+        updated.put(WeatherContract.WeatherEntry.COLUMN_UPDATED, System.currentTimeMillis());
+
+        context.getContentResolver().update(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                updated,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{
+                        Long.toString(today),
+                        Long.toString(today + days * SunshineDateUtils.DAY_IN_MILLIS)});
+    }
+
+    /**
+     * Opens the disk cache for forecast responses. The sync works without it, so failing to open
+     * it is only logged.
+     *
+     * @param context Used to find the cache directory
+     * @return The disk cache, or null if it couldn't be opened
+     */
+    private static ForecastDiskCache getForecastCache(Context context) {
+        try {
+            return ForecastDiskCache.getInstance(context);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to open forecast cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the database holds weather data from today onwards that was downloaded
+     * from the given URL.
+     *
+     * @param context Used to open the database
+     * @param url     The URL the sync is about to request
+     * @return true if there is at least one day of weather from today onwards for that URL
+     */
+    private static boolean hasForecastFromToday(Context context, String url) {
+        if (!url.equals(SunshinePreferences.getForecastUrl(context))) {
+            return false;
+        }
+
+        return new ForecastDao(context).hasForecastFrom(
+                SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
     }
-}
\ No newline at end of file
+}
@@ -7,6 +7,7 @@ import com.example.android.sunshine.data.WeatherContract;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry;
@@ -51,4 +52,43 @@ public class FakeDataUtils {
                 WeatherContract.WeatherEntry.CONTENT_URI,
                 fakeValues.toArray(new ContentValues[7]));
     }
+
+    /**
+     * Creates a forecast response in the same JSON format the weather server uses, filled with
+     * random weather data. Handy to exercise the parsing code without a network connection.
+     * @param numDays the number of days in the "list" array of the forecast
+     * @return forecast JSON for the given number of days
+     */
+    public static String createFakeForecastJson(int numDays) {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        StringBuilder json = new StringBuilder(256 + numDays * 320);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0107,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            double maxTemp = Math.random() * 40;
+            double minTemp = maxTemp - Math.random() * 10;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f," +
+                            "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f}," +
+                            "\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"Clear\"," +
+                            "\"description\":\"sky is clear\",\"icon\":\"01d\"}]," +
+                            "\"speed\":%.2f,\"deg\":%d,\"clouds\":0}",
+                    now + TimeUnit.DAYS.toSeconds(i),
+                    maxTemp, minTemp, maxTemp, minTemp, maxTemp, minTemp,
+                    870 + Math.random() * 100,
+                    (int) (Math.random() * 100),
+                    weatherIDs[(int) (Math.random() * 10) % 5],
+                    Math.random() * 10,
+                    (int) (Math.random() * 360)));
+        }
+        json.append("]}");
+        return json.toString();
+    }
 }
@@ -0,0 +1,473 @@
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the raw forecast responses we downloaded in the app's cache directory, keyed by the URL
+ * they were downloaded from. This lets the sync fill the database again (after a database
+ * upgrade dropped it, or when switching back to a location we've seen before) without going
+ * to the network.
+ * <p>
+ * The cache is bounded by a byte budget. When it grows past it, the least recently used
+ * responses are deleted first. The order in which responses were used is kept in a journal
+ * file, which is replayed when the cache is opened, so it survives the process being killed.
+ * <p>
+ * Writes are crash safe: a response is written to a temporary file, synced to disk, and only
+ * then renamed over the previous one. A reader therefore never sees a partially written
+ * response, and a crash in the middle of a write simply leaves the previous response in place.
+ */
+public class ForecastDiskCache {
+
+    private static final String TAG = ForecastDiskCache.class.getSimpleName();
+
+    /* The name of the directory, inside the app's cache directory, holding the responses */
+    private static final String CACHE_DIRECTORY = "forecast-responses";
+
+    /* A forecast response is around 5 to 10K, so this holds a few dozen of them */
+    private static final long DEFAULT_MAX_BYTES = 512 * 1024;
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /* Journal operations, one per line, followed by the key (and the size for WRITE) */
+    private static final String WRITE = "WRITE";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    /* The journal is rewritten once it has this many more lines than there are entries */
+    private static final int JOURNAL_COMPACT_THRESHOLD = 200;
+
+    private static ForecastDiskCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /* Entry sizes by key, in access order: the least recently used entry comes first */
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mSize;
+
+    private Writer mJournal;
+    private int mJournalLines;
+
+    /**
+     * Returns the cache Sunshine uses for its forecast responses, opening it if needed.
+     *
+     * @param context Used to find the app's cache directory
+     * @return The forecast response cache
+     * @throws IOException If the cache directory couldn't be used
+     */
+    public static synchronized ForecastDiskCache getInstance(Context context) throws IOException {
+        if (sInstance == null) {
+            File directory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+            sInstance = new ForecastDiskCache(directory, DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Opens a cache in the given directory. Only one ForecastDiskCache may use a directory at
+     * any time.
+     *
+     * @param directory The directory to keep the responses in. It is created if needed.
+     * @param maxBytes  How many bytes of responses the cache may hold
+     * @throws IOException If the directory couldn't be created or the journal couldn't be opened
+     */
+    public ForecastDiskCache(File directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + mDirectory);
+        }
+        readJournal();
+        rewriteJournal();
+        trimToSize();
+    }
+
+    /**
+     * Returns the cached response for a URL, and marks it as the most recently used one.
+     *
+     * @param url The URL the response was downloaded from
+     * @return The cached response, which the caller must close, or null if there isn't one
+     */
+    public synchronized InputStream get(String url) {
+        String key = getKey(url);
+        /* Unlike containsKey, get moves the entry to the end of the access order */
+        if (mEntries.get(key) == null) {
+            return null;
+        }
+
+        InputStream in;
+        try {
+            in = new FileInputStream(getEntryFile(key));
+        } catch (FileNotFoundException e) {
+            /* Somebody cleared our cache directory */
+            removeEntry(key);
+            return null;
+        }
+        appendToJournal(READ + ' ' + key);
+        return in;
+    }
+
+    /**
+     * Returns when the cached response for a URL was written.
+     *
+     * @param url The URL the response was downloaded from
+     * @return The time the response was written in milliseconds since the epoch, or 0 if there
+     * isn't one
+     */
+    public synchronized long getWrittenAt(String url) {
+        String key = getKey(url);
+        if (!mEntries.containsKey(key)) {
+            return 0;
+        }
+        return getEntryFile(key).lastModified();
+    }
+
+    /**
+     * Starts writing a new response for a URL. Whatever is read through
+     * {@link Editor#tee(InputStream)} ends up in the cache once {@link Editor#commit()} is
+     * called. Until then, {@link #get(String)} keeps returning the previous response.
+     *
+     * @param url The URL the response is being downloaded from
+     * @return An editor to write the response with
+     * @throws IOException If the temporary file couldn't be created
+     */
+    public Editor edit(String url) throws IOException {
+        String key = getKey(url);
+        File tmpFile = File.createTempFile(key, TMP_SUFFIX, mDirectory);
+        return new Editor(key, tmpFile);
+    }
+
+    /**
+     * Removes the cached response for a URL, if there is one.
+     *
+     * @param url The URL the response was downloaded from
+     */
+    public synchronized void remove(String url) {
+        removeEntry(getKey(url));
+    }
+
+    /**
+     * @return The number of bytes of responses the cache currently holds
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * @return The number of bytes of responses the cache may hold
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Writes a single response into the cache. Nothing is visible to readers until
+     * {@link #commit()} is called; {@link #abort()} throws the response away.
+     */
+    public final class Editor {
+
+        private final String mKey;
+        private final File mTmpFile;
+        private final FileOutputStream mOut;
+        private boolean mDone;
+
+        private Editor(String key, File tmpFile) throws IOException {
+            mKey = key;
+            mTmpFile = tmpFile;
+            mOut = new FileOutputStream(tmpFile);
+        }
+
+        /**
+         * Wraps a stream so that every byte read from it is also written into the cache.
+         *
+         * @param in The stream to copy into the cache
+         * @return A stream that reads from in and writes into the cache
+         */
+        public InputStream tee(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b != -1) {
+                        mOut.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = in.read(buffer, offset, length);
+                    if (read > 0) {
+                        mOut.write(buffer, offset, read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    byte[] buffer = new byte[(int) Math.min(n, 4096)];
+                    int read = read(buffer, 0, buffer.length);
+                    return read == -1 ? 0 : read;
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Makes the response written so far the cached response for its URL.
+         *
+         * @throws IOException If the response couldn't be written to disk
+         */
+        public void commit() throws IOException {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.flush();
+                mOut.getFD().sync();
+            } finally {
+                mOut.close();
+            }
+
+            synchronized (ForecastDiskCache.this) {
+                File entryFile = getEntryFile(mKey);
+                if (!mTmpFile.renameTo(entryFile)) {
+                    mTmpFile.delete();
+                    throw new IOException("Unable to rename " + mTmpFile + " to " + entryFile);
+                }
+
+                long size = entryFile.length();
+                Long previousSize = mEntries.put(mKey, size);
+                mSize += size - (previousSize == null ? 0 : previousSize);
+                appendToJournal(WRITE + ' ' + mKey + ' ' + size);
+                trimToSize();
+            }
+        }
+
+        /**
+         * Throws the response away, leaving the previously cached response in place.
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                /* We're deleting the file anyway */
+            }
+            mTmpFile.delete();
+        }
+    }
+
+    /**
+     * Rebuilds the list of entries from the journal, then reconciles it with the files that are
+     * actually on disk. Anything the journal doesn't know about is kept as the least recently
+     * used entries, so that it is the first to go.
+     */
+    private void readJournal() {
+        File journalFile = new File(mDirectory, JOURNAL_FILE);
+        if (journalFile.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(journalFile));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    readJournalLine(line);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read journal, rebuilding it from the cache directory", e);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        /* Nothing we can do */
+                    }
+                }
+            }
+        }
+
+        /* Only keep entries that still have a file of the expected size */
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File entryFile = getEntryFile(entry.getKey());
+            if (!entryFile.isFile() || entryFile.length() != entry.getValue()) {
+                iterator.remove();
+            }
+        }
+
+        LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(mEntries);
+        mEntries.clear();
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    /* Left behind by a write that never completed */
+                    file.delete();
+                } else if (name.endsWith(ENTRY_SUFFIX)) {
+                    String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+                    if (!entries.containsKey(key)) {
+                        mEntries.put(key, file.length());
+                    }
+                }
+            }
+        }
+        mEntries.putAll(entries);
+
+        mSize = 0;
+        for (long size : mEntries.values()) {
+            mSize += size;
+        }
+    }
+
+    private void readJournalLine(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            /* Most likely the last line, cut short by a crash */
+            return;
+        }
+
+        String key = parts[1];
+        if (WRITE.equals(parts[0]) && parts.length == 3) {
+            try {
+                mEntries.put(key, Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                /* Cut short by a crash */
+            }
+        } else if (READ.equals(parts[0])) {
+            mEntries.get(key);
+        } else if (REMOVE.equals(parts[0])) {
+            mEntries.remove(key);
+        }
+    }
+
+    /**
+     * Replaces the journal with one that only holds a WRITE line per entry, in access order.
+     * The new journal is written to a temporary file first, so a crash leaves the old one.
+     */
+    private void rewriteJournal() throws IOException {
+        if (mJournal != null) {
+            mJournal.close();
+        }
+
+        File journalFile = new File(mDirectory, JOURNAL_FILE);
+        File tmpFile = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new FileWriter(tmpFile));
+        try {
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(WRITE + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(journalFile)) {
+            throw new IOException("Unable to rename " + tmpFile + " to " + journalFile);
+        }
+
+        mJournal = new BufferedWriter(new FileWriter(journalFile, true));
+        mJournalLines = mEntries.size();
+    }
+
+    private void appendToJournal(String line) {
+        try {
+            mJournal.write(line + '\n');
+            mJournal.flush();
+            mJournalLines++;
+
+            if (mJournalLines - mEntries.size() > JOURNAL_COMPACT_THRESHOLD) {
+                rewriteJournal();
+            }
+        } catch (IOException e) {
+            /*
+             * Losing the journal only loses the access order, the entries themselves are found
+             * again from the directory listing the next time the cache is opened.
+             */
+            Log.w(TAG, "Unable to write to journal", e);
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSize -= size;
+            getEntryFile(key).delete();
+            appendToJournal(REMOVE + ' ' + key);
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its byte budget. An entry
+     * larger than the whole budget doesn't stay either.
+     */
+    private void trimToSize() {
+        while (mSize > mMaxBytes && !mEntries.isEmpty()) {
+            String eldestKey = mEntries.keySet().iterator().next();
+            removeEntry(eldestKey);
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(mDirectory, key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * URLs can't be used as file names, so we use the SHA-1 hash of the URL instead.
+     *
+     * @param url The URL a response was downloaded from
+     * @return The key of the entry for that URL
+     */
+    private static String getKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the weather server answers a request with an unsuccessful HTTP status code. The
+ * sync looks at the status code to decide whether trying again could help.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int mStatusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * @return The HTTP status code of the response
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.android.sunshine.utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The {@link WeatherTransport} used in production, built on HttpURLConnection.
+ * <p>
+ * HttpURLConnection keeps a pool of idle connections, but a connection only goes back into the
+ * pool once its response body has been read to the end and closed. Calling disconnect() instead
+ * closes the socket, which means every sync pays for a new TCP and TLS handshake. So this
+ * transport never disconnects a connection it could reuse: it drains what's left of the body
+ * (as long as that's small) and closes the stream.
+ * <p>
+ * Every request also gets connect and read timeouts, so a hung socket can't block the sync
+ * forever, and the number of requests in flight at once can be limited.
+ */
+public class HttpUrlConnectionTransport implements WeatherTransport {
+
+    /*
+     * If a caller gives up on a response with more than this left unread, it's cheaper to drop
+     * the connection than to download the rest of the body just to reuse it.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final Semaphore mRequestPermits;
+
+    /**
+     * @param connectTimeoutMillis  How long to wait for a connection to be established
+     * @param readTimeoutMillis     How long to wait for data once connected
+     * @param maxConcurrentRequests How many requests may be in flight at the same time. Further
+     *                              requests wait until one of them has been closed.
+     */
+    public HttpUrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis,
+                                      int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException(
+                    "maxConcurrentRequests must be at least 1: " + maxConcurrentRequests);
+        }
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mRequestPermits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    @Override
+    public Response execute(URL url, Map<String, String> requestHeaders) throws IOException {
+        try {
+            mRequestPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to request " + url);
+        }
+
+        HttpURLConnection urlConnection = null;
+        boolean connected = false;
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            /* Sends the request and waits for the status line and headers */
+            urlConnection.getResponseCode();
+            connected = true;
+            return new ConnectionResponse(urlConnection);
+        } finally {
+            if (!connected) {
+                if (urlConnection != null) {
+                    urlConnection.disconnect();
+                }
+                mRequestPermits.release();
+            }
+        }
+    }
+
+    /**
+     * A response backed by an HttpURLConnection. Holds one of the transport's request permits
+     * until it is closed.
+     */
+    private final class ConnectionResponse implements Response {
+
+        private final HttpURLConnection mConnection;
+        private InputStream mBody;
+        private boolean mClosed;
+
+        ConnectionResponse(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public int getContentLength() {
+            return mConnection.getContentLength();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                /* Error responses keep their body in the error stream */
+                InputStream body = mConnection.getResponseCode()
+                        >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream()
+                        : mConnection.getInputStream();
+                if (body != null) {
+                    mBody = new ReusableBodyStream(mConnection, body);
+                }
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                InputStream body = getBody();
+                if (body != null) {
+                    body.close();
+                }
+            } catch (IOException e) {
+                /* The connection is broken, make sure it isn't reused */
+                mConnection.disconnect();
+            } finally {
+                mRequestPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Wraps the body of a response so that closing it, whether that's done by the caller or by
+     * the response itself, hands the connection back to the pool instead of throwing it away.
+     */
+    private static final class ReusableBodyStream extends FilterInputStream {
+
+        private final HttpURLConnection mConnection;
+        private boolean mClosed;
+
+        ReusableBodyStream(HttpURLConnection connection, InputStream body) {
+            super(body);
+            mConnection = connection;
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (drain(in)) {
+                    in.close();
+                } else {
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                /* The connection is broken, make sure it isn't reused */
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads what's left of a response body, so that its connection can be reused.
+     *
+     * @param body The body to drain
+     * @return true if the body was read to the end, false if too much of it was left
+     * @throws IOException If reading failed
+     */
+    private static boolean drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            drained += read;
+            if (drained > MAX_DRAIN_BYTES) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
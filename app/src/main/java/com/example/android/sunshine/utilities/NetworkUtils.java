@@ -21,12 +21,21 @@ import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -83,9 +92,70 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /*
+     * Bounds for the buffer wrapped around the response stream. When the server tells us the
+     * Content-Length of the response, we size the buffer to fit the whole body (within reason).
+     */
+    private static final int MIN_RESPONSE_BUFFER_SIZE = 1024;
+    private static final int MAX_RESPONSE_BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_RESPONSE_BUFFER_SIZE = 8 * 1024;
+
+    /* Headers used to make conditional requests to the weather server */
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /*
+     * Forecast JSON compresses very well (5 to 10 times smaller), which matters on metered
+     * connections since we sync every few hours. Setting Accept-Encoding ourselves turns off
+     * HttpURLConnection's transparent gzip handling, so we decompress the body ourselves. That
+     * also lets us count the bytes on both sides of the decompressor.
+     */
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    /*
+     * Settings of the transport used when none has been set. Without timeouts, a hung socket
+     * would block the sync (and its lock) forever. We never need more than a couple of requests
+     * in flight at once.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int MAX_CONCURRENT_REQUESTS = 2;
+
+    private static volatile WeatherTransport sTransport;
+
+    /**
+     * Consumes the body of an HTTP response as it is being downloaded. This allows the body to
+     * be handed straight to a parser without first building one large String out of it.
+     *
+     * @param <T> The type of the value built from the response
+     */
+    public interface ResponseHandler<T> {
+
+        /**
+         * @param in            The body of the response. It is closed for you once this returns.
+         * @param contentLength The Content-Length of the response, or -1 if unknown
+         * @return The value built from the response
+         */
+        T onResponse(InputStream in, int contentLength) throws IOException, JSONException;
+
+        /**
+         * Called instead of {@link #onResponse(InputStream, int)} when the server responded to a
+         * conditional request with 304 Not Modified. There is no body to read in this case.
+         *
+         * @return The value to return for an unchanged response
+         */
+        T onNotModified() throws IOException, JSONException;
+    }
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
-     * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
+     * well as {@link #buildUrlWithLocationQuery(String, int)} is two fold.
      * <p>
      * 1) You should be able to just use one method when you need to create the URL within the
      * app instead of calling both methods.
@@ -98,32 +168,52 @@ public final class NetworkUtils {
      * @return URL to query weather service
      */
     public static URL getUrl(Context context) {
+        return getUrl(context, numDays);
+    }
+
+    /**
+     * Retrieves the URL to query for the first days of the weather forecast, starting today.
+     *
+     * @param context used to access other Utility methods
+     * @param days    The number of days of forecast to ask for, at most {@link #getMaxDays()}
+     * @return URL to query weather service
+     */
+    public static URL getUrl(Context context, int days) {
         if (SunshinePreferences.isLocationLatLonAvailable(context)) {
             double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
             double latitude = preferredCoordinates[0];
             double longitude = preferredCoordinates[1];
-            return buildUrlWithLatitudeLongitude(latitude, longitude);
+            return buildUrlWithLatitudeLongitude(latitude, longitude, days);
         } else {
             String locationQuery = SunshinePreferences.getPreferredWeatherLocation(context);
-            return buildUrlWithLocationQuery(locationQuery);
+            return buildUrlWithLocationQuery(locationQuery, days);
         }
     }
 
+    /**
+     * @return The number of days of forecast {@link #getUrl(Context)} asks for
+     */
+    public static int getMaxDays() {
+        return numDays;
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
      *
      * @param latitude  The latitude of the location
      * @param longitude The longitude of the location
+     * @param days      The number of days of forecast to ask for
      * @return The Url to use to query the weather server.
      */
-    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
+    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude,
+                                                     int days) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(days))
                 .build();
 
         try {
@@ -141,14 +231,15 @@ public final class NetworkUtils {
      * on the query capabilities of the weather provider that we are using.
      *
      * @param locationQuery The location that will be queried for.
+     * @param days          The number of days of forecast to ask for
      * @return The URL to use to query the weather server.
      */
-    private static URL buildUrlWithLocationQuery(String locationQuery) {
+    private static URL buildUrlWithLocationQuery(String locationQuery, int days) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
-                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(days))
                 .build();
 
         try {
@@ -161,30 +252,296 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Replaces the transport used to make requests to the weather server. Tests and benchmarks
+     * use this to plug in StubWeatherTransport, which lives with the instrumentation tests.
+     *
+     * @param transport The transport to use, or null to go back to the default one
+     */
+    public static void setTransport(WeatherTransport transport) {
+        sTransport = transport;
+    }
+
+    /**
+     * Returns the transport used to make requests to the weather server. Unless another one was
+     * set, this is an {@link HttpUrlConnectionTransport}, shared by all requests so that they can
+     * reuse each other's connections.
+     *
+     * @return The transport to make requests with
+     */
+    public static WeatherTransport getTransport() {
+        WeatherTransport transport = sTransport;
+        if (transport == null) {
+            synchronized (NetworkUtils.class) {
+                transport = sTransport;
+                if (transport == null) {
+                    transport = new HttpUrlConnectionTransport(CONNECT_TIMEOUT_MILLIS,
+                            READ_TIMEOUT_MILLIS, MAX_CONCURRENT_REQUESTS);
+                    sTransport = transport;
+                }
+            }
+        }
+        return transport;
+    }
+
     /**
      * This method returns the entire result from the HTTP response.
+     * <p>
+     * Prefer {@link #getResponseFromHttpUrl(URL, ResponseHandler)}, which doesn't need to hold
+     * the whole response in memory as a String.
      *
      * @param url The URL to fetch the HTTP response from.
      * @return The contents of the HTTP response, null if no response
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        WeatherTransport.Response response =
+                getTransport().execute(url, new HashMap<String, String>());
         try {
-            InputStream in = urlConnection.getInputStream();
+            checkResponseCode(url, response.getResponseCode());
+            InputStream body = response.getBody();
+            return body == null ? null : readResponseAsString(body);
+        } finally {
+            response.close();
+        }
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * Performs the HTTP request and hands the body of the response to the given handler as it
+     * streams in from the network. No intermediate String is ever built.
+     *
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the body of the response
+     * @param <T>     The type of the value the handler builds from the response
+     * @return Whatever the handler returned
+     * @throws IOException   Related to network and stream reading
+     * @throws JSONException If the handler was unable to parse the response
+     */
+    public static <T> T getResponseFromHttpUrl(URL url, ResponseHandler<T> handler)
+            throws IOException, JSONException {
+        return getResponseFromHttpUrl(null, url, handler);
+    }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+    /**
+     * Performs a conditional HTTP request. If we have validators (ETag or Last-Modified) stored
+     * from a previous response for this URL, they are sent along with the request. When the
+     * server tells us that nothing has changed (304 Not Modified), the handler's
+     * {@link ResponseHandler#onNotModified()} is called and no body is downloaded at all.
+     * <p>
+     * The validators of a new response are only stored once the handler has returned a non-null
+     * value for it, so a response that couldn't be used will never be reported as unchanged.
+     * <p>
+     * The request also asks for a gzip or deflate compressed body. The handler always receives
+     * the decompressed stream; in that case the content length it is given is -1, since the
+     * length the server reported is that of the compressed body.
+     *
+     * @param context Used to access the stored validators. If null, the request isn't
+     *                conditional.
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the body of the response
+     * @param <T>     The type of the value the handler builds from the response
+     * @return Whatever the handler returned
+     * @throws IOException   Related to network and stream reading
+     * @throws JSONException If the handler was unable to parse the response
+     */
+    public static <T> T getResponseFromHttpUrl(Context context, URL url,
+                                               ResponseHandler<T> handler)
+            throws IOException, JSONException {
+        return getResponseFromHttpUrl(context, url, handler, null);
+    }
+
+    /**
+     * Performs a conditional HTTP request like
+     * {@link #getResponseFromHttpUrl(Context, URL, ResponseHandler)}, and records how many bytes
+     * the response took on the wire and how many its body decoded to.
+     *
+     * @param context Used to access the stored validators. If null, the request isn't
+     *                conditional.
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the body of the response
+     * @param stats   Filled in once the handler has read the body, or null
+     * @param <T>     The type of the value the handler builds from the response
+     * @return Whatever the handler returned
+     * @throws IOException   Related to network and stream reading
+     * @throws JSONException If the handler was unable to parse the response
+     */
+    public static <T> T getResponseFromHttpUrl(Context context, URL url,
+                                               ResponseHandler<T> handler,
+                                               ResponseStats stats)
+            throws IOException, JSONException {
+        String urlString = url.toString();
+
+        Map<String, String> requestHeaders = new HashMap<String, String>();
+        requestHeaders.put(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+
+        if (context != null) {
+            String etag = SunshinePreferences.getResponseEtag(context, urlString);
+            String lastModified = SunshinePreferences.getResponseLastModified(context, urlString);
+
+            if (etag != null) {
+                requestHeaders.put(HEADER_IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                requestHeaders.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+
+        WeatherTransport.Response response = getTransport().execute(url, requestHeaders);
+        InputStream in = null;
+        try {
+            int responseCode = response.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.v(TAG, "Not modified: " + url);
+                return handler.onNotModified();
+            }
+            checkResponseCode(url, responseCode);
+
+            String contentEncoding = response.getHeader(HEADER_CONTENT_ENCODING);
+            boolean encoded = contentEncoding != null
+                    && !"identity".equalsIgnoreCase(contentEncoding);
+            int contentLength = encoded ? -1 : response.getContentLength();
+
+            InputStream body = response.getBody();
+            if (body == null) {
+                throw new IOException("Empty response from " + url);
+            }
+
+            CountingInputStream wireIn = new CountingInputStream(body);
+            in = wireIn;
+            CountingInputStream decodedIn = new CountingInputStream(
+                    decodeResponseStream(wireIn, contentEncoding));
+            in = new BufferedInputStream(decodedIn, getResponseBufferSize(contentLength));
+
+            T result = handler.onResponse(in, contentLength);
+
+            if (stats == null) {
+                stats = new ResponseStats();
+            }
+            stats.set(wireIn.getCount(), decodedIn.getCount(),
+                    encoded ? contentEncoding : "identity");
+            Log.d(TAG, url + ": " + stats);
+
+            if (context != null && result != null) {
+                SunshinePreferences.saveResponseValidators(context, urlString,
+                        response.getHeader(HEADER_ETAG),
+                        response.getHeader(HEADER_LAST_MODIFIED));
             }
-            scanner.close();
-            return response;
+            return result;
         } finally {
-            urlConnection.disconnect();
+            /*
+             * Closing the body lets the transport reuse the connection. Closing the response too
+             * covers the cases where we never got as far as reading the body.
+             */
+            if (in != null) {
+                in.close();
+            }
+            response.close();
+        }
+    }
+
+    /**
+     * Makes sure a response was successful, as HttpURLConnection would have done for us when
+     * asked for the body of an error response.
+     *
+     * @param url          The URL of the request, for the error message
+     * @param responseCode The HTTP status code of the response
+     * @throws HttpStatusException If the status code isn't a successful one
+     */
+    private static void checkResponseCode(URL url, int responseCode)
+            throws HttpStatusException {
+        if (responseCode < HttpURLConnection.HTTP_OK
+                || responseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
+            throw new HttpStatusException(responseCode, "HTTP " + responseCode + " from " + url);
+        }
+    }
+
+    /**
+     * Wraps the raw body of a response in a stream that undoes its Content-Encoding.
+     * <p>
+     * "deflate" is supposed to mean zlib-wrapped deflate data, but some servers send raw deflate
+     * data instead. We peek at the first two bytes to tell the two apart.
+     *
+     * @param in              The body of the response, as it comes off the wire
+     * @param contentEncoding The Content-Encoding header of the response, may be null
+     * @return A stream of the decoded body
+     * @throws IOException If the encoding isn't one we asked for, or the body is malformed
+     */
+    static InputStream decodeResponseStream(InputStream in, String contentEncoding)
+            throws IOException {
+        if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding)) {
+            return in;
+        }
+
+        if (ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(in, DEFAULT_RESPONSE_BUFFER_SIZE);
+        }
+
+        if (ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+            PushbackInputStream pushbackIn = new PushbackInputStream(in, 2);
+            byte[] header = new byte[2];
+            int read = 0;
+            while (read < header.length) {
+                int n = pushbackIn.read(header, read, header.length - read);
+                if (n == -1) {
+                    break;
+                }
+                read += n;
+            }
+            pushbackIn.unread(header, 0, read);
+
+            /* A zlib header has compression method 8 and is a multiple of 31 as a 16 bit value */
+            boolean zlibWrapped = read == 2
+                    && (header[0] & 0x0f) == 8
+                    && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+            final Inflater inflater = new Inflater(!zlibWrapped);
+            return new InflaterInputStream(pushbackIn, inflater, DEFAULT_RESPONSE_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    /* InflaterInputStream only releases Inflaters it created itself */
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    /**
+     * Returns the size of the buffer to wrap around a response stream, based on the
+     * Content-Length reported by the server.
+     *
+     * @param contentLength The Content-Length of the response, or -1 if unknown
+     * @return The buffer size to use, in bytes
+     */
+    static int getResponseBufferSize(int contentLength) {
+        if (contentLength < 0) {
+            return DEFAULT_RESPONSE_BUFFER_SIZE;
+        }
+        return Math.max(MIN_RESPONSE_BUFFER_SIZE,
+                Math.min(contentLength, MAX_RESPONSE_BUFFER_SIZE));
+    }
+
+    /**
+     * Reads an entire stream into a String using a Scanner. This is how Sunshine has always read
+     * its responses, and is kept around for {@link #getResponseFromHttpUrl(URL)}.
+     *
+     * @param in The stream to read. It is closed once read.
+     * @return The contents of the stream, null if the stream was empty
+     */
+    static String readResponseAsString(InputStream in) {
+        Scanner scanner = new Scanner(in);
+        scanner.useDelimiter("\\A");
+
+        boolean hasInput = scanner.hasNext();
+        String response = null;
+        if (hasInput) {
+            response = scanner.next();
         }
+        scanner.close();
+        return response;
     }
-}
\ No newline at end of file
+}
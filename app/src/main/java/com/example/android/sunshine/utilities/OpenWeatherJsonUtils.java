@@ -15,9 +15,14 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -25,6 +30,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,6 +69,33 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /* The charset used by the weather server for its JSON responses */
+    private static final String OWM_CHARSET = "UTF-8";
+
+    /**
+     * Receives each day of a forecast as soon as the streaming parser has read it. Using a
+     * callback with primitive arguments (rather than building a ContentValues for every day)
+     * allows callers to decide how, and if, they want to store the parsed data.
+     */
+    public interface ForecastDayHandler {
+
+        /**
+         * Called once for every day in the "list" array of the forecast, in order.
+         *
+         * @param dateTimeMillis Normalized UTC date of the day
+         * @param weatherId      Weather ID as returned by the API
+         * @param low            Min temperature for the day
+         * @param high           Max temperature for the day
+         * @param humidity       Humidity as a percentage
+         * @param pressure       Atmospheric pressure
+         * @param windSpeed      Wind speed
+         * @param windDirection  Wind direction in meteorological degrees
+         */
+        void onForecastDay(long dateTimeMillis, int weatherId, double low, double high,
+                           double humidity, double pressure, double windSpeed,
+                           double windDirection);
+    }
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +217,295 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Parses the forecast JSON directly from a stream, in a single forward pass. Unlike
+     * {@link #getWeatherContentValuesFromJson(Context, String)}, this never holds the whole
+     * response (nor a JSONObject tree of it) in memory. Each day is handed to the
+     * {@link ForecastDayHandler} as soon as it has been read.
+     * <p>
+     * android.util.JsonReader is only available from API 11 onwards. On older devices, we fall
+     * back to reading the stream into a String and parsing it with org.json.
+     *
+     * @param context     Used to store the location details of the forecast
+     * @param in          Stream containing the JSON response from the server. It is not closed.
+     * @param dayHandler  Receives every parsed day of the forecast
+     *
+     * @return true if the forecast was parsed, false if the server responded with an error code
+     *
+     * @throws IOException   If the stream could not be read
+     * @throws JSONException If the JSON data cannot be properly parsed
+     */
+    public static boolean parseWeatherFromStream(Context context, InputStream in,
+                                                 ForecastDayHandler dayHandler)
+            throws IOException, JSONException {
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            ContentValues[] weatherValues = getWeatherContentValuesFromJson(context,
+                    readStreamAsString(in));
+
+            if (weatherValues == null) {
+                return false;
+            }
+
+            for (ContentValues weatherValue : weatherValues) {
+                dayHandler.onForecastDay(
+                        weatherValue.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                        weatherValue.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                        weatherValue.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                        weatherValue.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                        weatherValue.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                        weatherValue.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                        weatherValue.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                        weatherValue.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+            }
+            return true;
+        }
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, OWM_CHARSET));
+        try {
+            return readForecast(context, reader, dayHandler);
+        } catch (IllegalStateException e) {
+            /* JsonReader reports unexpected tokens (such as a null value) this way */
+            throw new JSONException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. The
+     * days are collected into a {@link ForecastBatch} while the response is being read, so
+     * parsing a forecast allocates a handful of arrays rather than a ContentValues and boxed
+     * values for every day.
+     *
+     * @param context Used to store the location details of the forecast
+     * @param in      Stream containing the JSON response from the server. It is not closed.
+     *
+     * @return The weather values for each day, or null if the server responded with an error
+     *
+     * @throws IOException   If the stream could not be read
+     * @throws JSONException If the JSON data cannot be properly parsed
+     */
+    public static ForecastBatch getForecastBatchFromStream(Context context, InputStream in)
+            throws IOException, JSONException {
+
+        final ForecastBatch batch = new ForecastBatch();
+
+        boolean parsed = parseWeatherFromStream(context, in, new ForecastDayHandler() {
+            @Override
+            public void onForecastDay(long dateTimeMillis, int weatherId, double low,
+                                      double high, double humidity, double pressure,
+                                      double windSpeed, double windDirection) {
+                batch.add(dateTimeMillis, weatherId, low, high,
+                        humidity, pressure, windSpeed, windDirection);
+            }
+        });
+
+        return parsed ? batch : null;
+    }
+
+    /**
+     * Same as {@link #getForecastBatchFromStream(Context, InputStream)}, for callers that still
+     * need ContentValues.
+     *
+     * @param context Used to store the location details of the forecast
+     * @param in      Stream containing the JSON response from the server. It is not closed.
+     *
+     * @return The weather values for each day, or null if the server responded with an error
+     *
+     * @throws IOException   If the stream could not be read
+     * @throws JSONException If the JSON data cannot be properly parsed
+     */
+    public static ContentValues[] getWeatherContentValuesFromStream(Context context,
+                                                                    InputStream in)
+            throws IOException, JSONException {
+
+        ForecastBatch batch = getForecastBatchFromStream(context, in);
+        return batch == null ? null : batch.toContentValues();
+    }
+
+    /**
+     * Reads the top level forecast object. The location details are only stored once we know
+     * that the response didn't contain an error code, as the "cod" field isn't guaranteed to be
+     * sent before the "city" object.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean readForecast(Context context, JsonReader reader,
+                                        ForecastDayHandler dayHandler)
+            throws IOException, JSONException {
+
+        boolean hasList = false;
+        double[] cityCoord = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                /* Location invalid or server probably down */
+                if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                    return false;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                cityCoord = readCityCoord(reader);
+            } else if (OWM_LIST.equals(name)) {
+                readForecastList(reader, dayHandler);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (cityCoord == null) {
+            throw new JSONException("No value for " + OWM_COORD);
+        }
+
+        SunshinePreferences.setLocationDetails(context, cityCoord[0], cityCoord[1]);
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static double[] readCityCoord(JsonReader reader) throws IOException, JSONException {
+        double[] cityCoord = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName())) {
+                double latitude = Double.NaN;
+                double longitude = Double.NaN;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                    throw new JSONException("Incomplete " + OWM_COORD + " object");
+                }
+                cityCoord = new double[]{latitude, longitude};
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return cityCoord;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readForecastList(JsonReader reader, ForecastDayHandler dayHandler)
+            throws IOException, JSONException {
+
+        /* See getWeatherContentValuesFromJson for why we compute the dates ourselves */
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        int day = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            double pressure = Double.NaN;
+            double humidity = Double.NaN;
+            double windSpeed = Double.NaN;
+            double windDirection = Double.NaN;
+            double high = Double.NaN;
+            double low = Double.NaN;
+            int weatherId = -1;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (OWM_PRESSURE.equals(name)) {
+                    pressure = reader.nextDouble();
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    humidity = (int) reader.nextDouble();
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    windSpeed = reader.nextDouble();
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    windDirection = reader.nextDouble();
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String temperatureName = reader.nextName();
+                        if (OWM_MAX.equals(temperatureName)) {
+                            high = reader.nextDouble();
+                        } else if (OWM_MIN.equals(temperatureName)) {
+                            low = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    /* Only the first element of the "weather" array is of interest to us */
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        weatherId = readWeatherId(reader);
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (weatherId == -1 || Double.isNaN(pressure) || Double.isNaN(humidity)
+                    || Double.isNaN(windSpeed) || Double.isNaN(windDirection)
+                    || Double.isNaN(high) || Double.isNaN(low)) {
+                throw new JSONException("Incomplete forecast for day " + day);
+            }
+
+            long dateTimeMillis = normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * day;
+
+            dayHandler.onForecastDay(dateTimeMillis, weatherId, low, high,
+                    humidity, pressure, windSpeed, windDirection);
+            day++;
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int readWeatherId(JsonReader reader) throws IOException {
+        int weatherId = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_WEATHER_ID.equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+                weatherId = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return weatherId;
+    }
+
+    /**
+     * Only used on devices that don't have android.util.JsonReader.
+     */
+    private static String readStreamAsString(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString(OWM_CHARSET);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.sunshine.utilities;
+
+import java.util.Locale;
+
+/**
+ * How many bytes a single response took on the wire, and how many its body decoded to. A caller
+ * of {@link NetworkUtils#getResponseFromHttpUrl(android.content.Context, java.net.URL,
+ * NetworkUtils.ResponseHandler, ResponseStats)} passes one in, and NetworkUtils fills it in once
+ * the handler has read the body. For a response that wasn't compressed, both counts are the same.
+ * A 304 Not Modified has no body, so it leaves both at 0.
+ */
+public final class ResponseStats {
+
+    private long mBytesReceived;
+    private long mBytesDecoded;
+    private String mContentEncoding;
+
+    /**
+     * @return The number of bytes of the body read off the wire, compressed or not
+     */
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * @return The number of bytes the body decoded to, as the handler read them
+     */
+    public long getBytesDecoded() {
+        return mBytesDecoded;
+    }
+
+    /**
+     * @return The Content-Encoding of the body, or "identity" if it wasn't encoded, or null if
+     * no body was read
+     */
+    public String getContentEncoding() {
+        return mContentEncoding;
+    }
+
+    void set(long bytesReceived, long bytesDecoded, String contentEncoding) {
+        mBytesReceived = bytesReceived;
+        mBytesDecoded = bytesDecoded;
+        mContentEncoding = contentEncoding;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%d bytes received, %d bytes decoded (Content-Encoding: %s)",
+                mBytesReceived, mBytesDecoded, mContentEncoding);
+    }
+}
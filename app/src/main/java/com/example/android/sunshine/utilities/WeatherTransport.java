@@ -0,0 +1,61 @@
+package com.example.android.sunshine.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Performs the HTTP requests NetworkUtils makes to the weather server. Keeping this behind an
+ * interface lets the app use a real network connection while tests and benchmarks can plug in
+ * StubWeatherTransport, which never touches the network. It is only built into the
+ * instrumentation tests, not the app.
+ *
+ * @see NetworkUtils#setTransport(WeatherTransport)
+ */
+public interface WeatherTransport {
+
+    /**
+     * Performs a GET request.
+     *
+     * @param url            The URL to request
+     * @param requestHeaders Headers to send with the request, may be empty
+     * @return The response. It must always be closed once the caller is done with it.
+     * @throws IOException If the request couldn't be performed
+     */
+    Response execute(URL url, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * The response to a request made by a {@link WeatherTransport}.
+     */
+    interface Response extends Closeable {
+
+        /**
+         * @return The HTTP status code of the response
+         */
+        int getResponseCode() throws IOException;
+
+        /**
+         * @param name The name of the header, case insensitive
+         * @return The value of the header, or null if the response doesn't have it
+         */
+        String getHeader(String name);
+
+        /**
+         * @return The Content-Length of the response, or -1 if unknown
+         */
+        int getContentLength();
+
+        /**
+         * @return The body of the response, or null if there is none
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Releases the response. Whatever the caller didn't read of the body is thrown away.
+         */
+        @Override
+        void close();
+    }
+}
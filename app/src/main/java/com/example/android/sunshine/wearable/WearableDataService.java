@@ -4,16 +4,16 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.ForecastDao;
 import com.example.android.sunshine.data.SunshinePreferences;
-import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -33,8 +33,45 @@ public class WearableDataService extends Service
         implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
 
     private static final String LOG_TAG = WearableDataService.class.getSimpleName();
+
+    /* Extras used to hand today's weather to the service, so it doesn't have to query it */
+    private static final String EXTRA_WEATHER_ID = "weather_id";
+    private static final String EXTRA_MAX_TEMP = "max_temp";
+    private static final String EXTRA_MIN_TEMP = "min_temp";
+
     private GoogleApiClient googleApiClient;
 
+    /*
+     * Only one SendUpdates runs at a time. A request that arrives while it runs, or before the
+     * client is connected, is left pending, and sent next with its own extras; a later request
+     * replaces it, as only the latest weather matters. All three fields are guarded by the
+     * service.
+     */
+    private SendUpdates sendUpdates;
+    private boolean sendPending;
+    /* Today's weather as handed to us by the sync, or null if it has to be read from the database */
+    private Bundle pendingWeather;
+
+    /**
+     * Sends today's weather from a forecast that was just downloaded to the wearable. The values
+     * are passed to the service as extras, so it doesn't have to read them back from the
+     * database. If the forecast doesn't contain today, the service falls back to the database.
+     *
+     * @param context  Used to start the service
+     * @param forecast The forecast that was just stored
+     */
+    public static void sendTodaysWeather(Context context, ForecastBatch forecast) {
+        Intent intent = new Intent(context, WearableDataService.class);
+
+        int todayIndex = forecast.indexOfDate(SunshineDateUtils.getNormalizedUtcDateForToday());
+        if (todayIndex != -1) {
+            intent.putExtra(EXTRA_WEATHER_ID, forecast.getWeatherId(todayIndex));
+            intent.putExtra(EXTRA_MAX_TEMP, forecast.getMaxTemp(todayIndex));
+            intent.putExtra(EXTRA_MIN_TEMP, forecast.getMinTemp(todayIndex));
+        }
+        context.startService(intent);
+    }
+
 
     //Lifecycle start
     @Override
@@ -52,8 +89,19 @@ public class WearableDataService extends Service
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (googleApiClient != null && !googleApiClient.isConnected()) {
-            googleApiClient.connect();
+        Bundle extras = intent != null ? intent.getExtras() : null;
+        synchronized (this) {
+            sendPending = true;
+            pendingWeather = extras != null && extras.containsKey(EXTRA_WEATHER_ID) ? extras : null;
+
+            if (googleApiClient != null && !googleApiClient.isConnected()) {
+                if (!googleApiClient.isConnecting()) {
+                    googleApiClient.connect();
+                }
+            } else if (googleApiClient != null) {
+                /* Already connected, so onConnected won't be called again for this request */
+                startSending();
+            }
         }
         /** Keep the service alive until data_items are sent*/
         return Service.START_STICKY;
@@ -68,7 +116,24 @@ public class WearableDataService extends Service
     @Override
     public void onConnected(@Nullable Bundle bundle) {
         Log.d(LOG_TAG, "onConnected: wearable api connected");
-        new SendUpdates(SunshinePreferences.getPreferredWeatherLocation(this)).start();
+        synchronized (this) {
+            startSending();
+        }
+    }
+
+    /**
+     * Starts sending the pending request, handing its weather to the thread, unless a send is
+     * already running: that one sends it once it is done. Must be called holding the lock of the
+     * service.
+     */
+    private void startSending() {
+        if (sendPending && sendUpdates == null) {
+            sendUpdates = new SendUpdates(SunshinePreferences.getPreferredWeatherLocation(this),
+                    pendingWeather);
+            sendPending = false;
+            pendingWeather = null;
+            sendUpdates.start();
+        }
     }
 
     @Override
@@ -98,72 +163,88 @@ public class WearableDataService extends Service
 
 
     /**
-     * Collects data from the database and sends them to the devices. Disconnects when
-     * everything is done.
+     * Sends the pending request to the devices, and then any request that arrived meanwhile, each
+     * with its own weather. Disconnects when nothing is left to send.
      */
     private class SendUpdates extends Thread {
 
-        private static final int INDEX_WEATHER_ID = 0;
-        private static final int INDEX_MAX_TEMP = 1;
-        private static final int INDEX_MIN_TEMP = 2;
         private final String PATH = "/wearable_weather_data";
-        private final String[] FORECAST_COLUMNS = new String[]{
-                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-        };
         private final String location;
-        private DataMap dataMap = new DataMap();
+        private final Bundle todaysWeather;
 
-        private SendUpdates(String location) {
+        /**
+         * @param location      The preferred location, for the log
+         * @param todaysWeather Today's weather as handed to us by the sync, or null if it has to
+         *                      be read from the database
+         */
+        private SendUpdates(String location, Bundle todaysWeather) {
             Log.d(LOG_TAG, "location: " + location);
             this.location = location;
+            this.todaysWeather = todaysWeather;
         }
 
         @Override
         public void run() {
-            try {
-                dataMap = fetchData();
-                sendData(PATH, dataMap);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, e.getMessage());
-                e.printStackTrace();
+            Bundle weather = todaysWeather;
+            while (true) {
+                try {
+                    sendData(PATH, fetchData(weather));
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, e.getMessage());
+                    e.printStackTrace();
+                }
+
+                synchronized (WearableDataService.this) {
+                    if (!sendPending) {
+                        /* Inside the lock, so that a new request can't slip in before we stop */
+                        sendUpdates = null;
+                        disconnect(googleApiClient);
+                        return;
+                    }
+                    weather = pendingWeather;
+                    sendPending = false;
+                    pendingWeather = null;
+                }
             }
         }
 
         /**
          * Fetches weather data for preferred location and builds a json string
+         *
+         * @param weather Today's weather as handed to us by the sync, or null to read it from
+         *                the database
          */
-        private DataMap fetchData() throws Exception {
-            Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherWithStartDate(
-                    System.currentTimeMillis());
-
-            Cursor cursor = getContentResolver().query(
-                    weatherForLocationUri,
-                    FORECAST_COLUMNS,
-                    null,
-                    null,
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-
-            if (cursor != null && cursor.moveToFirst()) {
-                Context context = getApplicationContext();
-                int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                double maxTemp = cursor.getDouble(INDEX_MAX_TEMP);
-                double minTemp = cursor.getDouble(INDEX_MIN_TEMP);
-
-                String formattedMaxTemp = SunshineWeatherUtils.formatTemperature(context, maxTemp);
-                String formattedMinTemp = SunshineWeatherUtils.formatTemperature(context, minTemp);
-
-                dataMap.putInt("timestamp", (int) (System.currentTimeMillis() / 1e3));
-                dataMap.putInt("weather_id", weatherId);
-                dataMap.putString("max_temp", formattedMaxTemp);
-                dataMap.putString("min_temp", formattedMinTemp);
-                cursor.close();
-                return dataMap;
+        private DataMap fetchData(Bundle weather) throws Exception {
+            if (weather != null) {
+                return buildDataMap(weather.getInt(EXTRA_WEATHER_ID),
+                        weather.getDouble(EXTRA_MAX_TEMP),
+                        weather.getDouble(EXTRA_MIN_TEMP));
+            }
+
+            /* Only today's weather is sent, so that is the only row we ask for */
+            ForecastBatch forecast = new ForecastDao(getApplicationContext()).queryForecast(
+                    SunshineDateUtils.getNormalizedUtcDateForToday(), 1);
+
+            if (!forecast.isEmpty()) {
+                return buildDataMap(forecast.getWeatherId(0), forecast.getMaxTemp(0),
+                        forecast.getMinTemp(0));
             }
             throw new Resources.NotFoundException("No data found in the database");
         }
 
+        private DataMap buildDataMap(int weatherId, double maxTemp, double minTemp) {
+            Context context = getApplicationContext();
+            String formattedMaxTemp = SunshineWeatherUtils.formatTemperature(context, maxTemp);
+            String formattedMinTemp = SunshineWeatherUtils.formatTemperature(context, minTemp);
+
+            DataMap dataMap = new DataMap();
+            dataMap.putInt("timestamp", (int) (System.currentTimeMillis() / 1e3));
+            dataMap.putInt("weather_id", weatherId);
+            dataMap.putString("max_temp", formattedMaxTemp);
+            dataMap.putString("min_temp", formattedMinTemp);
+            return dataMap;
+        }
+
         private void sendData(String path, DataMap dataMap) {
             PutDataMapRequest mapRequest = PutDataMapRequest.create(path);
             mapRequest.getDataMap().putAll(dataMap);
@@ -175,7 +256,6 @@ public class WearableDataService extends Service
                 // TODO: 28-Feb-17 Add a mechanism to start the service again with exponential backoff
                 Log.e(LOG_TAG, "sendData: Failed to send data item");
             }
-            disconnect(googleApiClient);
         }
 
     }